@@ -0,0 +1,42 @@
+/**
+ * 
+ */
+package org.ubimix.pageset.benchmarks;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all benchmarks (or benchmarks selected by the usual JMH command line
+ * arguments) in the throughput mode with the GC profiler enabled. The GC
+ * profiler reports the allocation rate per operation ("gc.alloc.rate.norm")
+ * for each benchmark.
+ * 
+ * @author kotelnikov
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args)
+        throws RunnerException,
+        CommandLineOptionException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+            .parent(cmd)
+            .mode(Mode.Throughput)
+            .addProfiler(GCProfiler.class);
+        if (cmd.getIncludes().isEmpty()) {
+            builder.include(BenchmarkRunner.class.getPackage().getName()
+                + ".*");
+        }
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * 
+ */
+package org.ubimix.pageset.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.pageset.CompositeUriMapper;
+import org.ubimix.pageset.UrlMapper;
+
+/**
+ * Measures lookups in a {@link CompositeUriMapper} containing many mappers.
+ * Each mapper defines its own URL type, so most of them can not answer a
+ * given request.
+ * 
+ * @author kotelnikov
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompositeUriMapperBenchmark {
+
+    @Param({ "1024" })
+    public int corpusSize;
+
+    private int fIndex;
+
+    private CompositeUriMapper fMapper;
+
+    private String[] fTypes;
+
+    private Uri[] fUrls;
+
+    @Param({ "1", "10", "50" })
+    public int mapperCount;
+
+    @Param({ "100" })
+    public int siteCount;
+
+    @Benchmark
+    public Uri getUrl() {
+        int idx = fIndex++;
+        if (fIndex == corpusSize) {
+            fIndex = 0;
+        }
+        return fMapper.getUrl(fTypes[idx], fUrls[idx]);
+    }
+
+    @Setup
+    public void setup() {
+        fMapper = new CompositeUriMapper();
+        for (int i = 0; i < mapperCount; i++) {
+            UrlMapper mapper = new UrlMapper();
+            for (int site = 0; site < siteCount; site++) {
+                Uri baseUrl = new Uri(MapperFixtures.getSiteUrl(site));
+                Uri value = new Uri("classpath:/xsl/mapper"
+                    + i
+                    + "/site"
+                    + site
+                    + ".xsl");
+                mapper.setUrl("type" + i, baseUrl, value);
+            }
+            fMapper.addUriMapper(mapper);
+        }
+        String[] urls = MapperFixtures.newHitUrls(siteCount, corpusSize);
+        fUrls = new Uri[corpusSize];
+        fTypes = new String[corpusSize];
+        for (int i = 0; i < corpusSize; i++) {
+            fUrls[i] = new Uri(urls[i]);
+            fTypes[i] = "type" + (i % mapperCount);
+        }
+    }
+
+}
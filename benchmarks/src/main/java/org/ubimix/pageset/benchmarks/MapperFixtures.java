@@ -0,0 +1,160 @@
+/**
+ * 
+ */
+package org.ubimix.pageset.benchmarks;
+
+import java.util.Random;
+
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.pageset.UrlMapper;
+import org.ubimix.pageset.UrlToPathMapper;
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper;
+
+/**
+ * Generates synthetic site configurations and URL corpora used by benchmarks.
+ * All generated data depend only on the given parameters and on the seed, so
+ * different runs of the same benchmark work with the same data.
+ * 
+ * @author kotelnikov
+ */
+public class MapperFixtures {
+
+    public static final long SEED = 42;
+
+    /**
+     * Returns the path prefix of the site with the specified index.
+     */
+    public static String getSitePath(int site) {
+        return "site" + site;
+    }
+
+    /**
+     * Returns the URL prefix of the site with the specified index.
+     */
+    public static String getSiteUrl(int site) {
+        return "http://www" + site + ".example.com/wiki/";
+    }
+
+    /**
+     * Returns a list of URLs belonging to randomly selected sites.
+     */
+    public static String[] newHitUrls(int siteCount, int corpusSize) {
+        Random random = new Random(SEED);
+        String[] result = new String[corpusSize];
+        for (int i = 0; i < corpusSize; i++) {
+            int site = random.nextInt(siteCount);
+            result[i] = getSiteUrl(site) + "Page" + random.nextInt(1000);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a list of URLs which do not belong to any configured sites.
+     */
+    public static String[] newMissUrls(int corpusSize) {
+        Random random = new Random(SEED);
+        String[] result = new String[corpusSize];
+        for (int i = 0; i < corpusSize; i++) {
+            result[i] = "http://www"
+                + random.nextInt(100000)
+                + ".example.org/wiki/Page"
+                + i;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a list of local paths of randomly selected sites.
+     */
+    public static String[] newPaths(int siteCount, int corpusSize) {
+        Random random = new Random(SEED);
+        String[] result = new String[corpusSize];
+        for (int i = 0; i < corpusSize; i++) {
+            int site = random.nextInt(siteCount);
+            result[i] = getSitePath(site)
+                + "/Page"
+                + random.nextInt(1000)
+                + ".html";
+        }
+        return result;
+    }
+
+    /**
+     * Creates a new {@link UrlMapper} defining the specified number of URL
+     * types for each site.
+     */
+    public static UrlMapper newUrlMapper(int siteCount, int typeCount) {
+        UrlMapper mapper = new UrlMapper();
+        for (int site = 0; site < siteCount; site++) {
+            Uri baseUrl = new Uri(getSiteUrl(site));
+            for (int type = 0; type < typeCount; type++) {
+                Uri value = new Uri("classpath:/types/type"
+                    + type
+                    + "/site"
+                    + site
+                    + ".xsl");
+                mapper.setUrl("type" + type, baseUrl, value);
+            }
+        }
+        return mapper;
+    }
+
+    /**
+     * Creates a new {@link UrlToPathMapper} with the specified number of sites.
+     * Each site contains the given number of URL-to-path rules; only the last
+     * rule matches generated page URLs, so all other rules are evaluated and
+     * rejected for each transformation.
+     */
+    public static UrlToPathMapper newUrlToPathMapper(
+        int siteCount,
+        int ruleCount) {
+        UrlToPathMapper mapper = new UrlToPathMapper();
+        for (int site = 0; site < siteCount; site++) {
+            SiteUrlMapper siteMapper = mapper.addBase(
+                getSiteUrl(site),
+                getSitePath(site));
+            for (int rule = 0; rule < ruleCount - 1; rule++) {
+                siteMapper.addUriToPath("^section" + rule + "/(.*)$", "s"
+                    + rule
+                    + "/$1.html");
+            }
+            siteMapper.addUriToPath("^(.*)$", "$1.html");
+            siteMapper.addPathToUri("^(.*)\\.html$", "$1");
+        }
+        return mapper;
+    }
+
+    /**
+     * Generates an XML configuration readable by the
+     * XmlUrlToPathMapperLoader.
+     */
+    public static String newXmlConfig(int siteCount, int ruleCount) {
+        StringBuilder buf = new StringBuilder();
+        buf.append("<pageset>\n");
+        for (int site = 0; site < siteCount; site++) {
+            buf
+                .append("    <site path=\"")
+                .append(getSitePath(site))
+                .append("\" baseUrl=\"")
+                .append(getSiteUrl(site))
+                .append("\">\n");
+            for (int rule = 0; rule < ruleCount - 1; rule++) {
+                buf
+                    .append("        <url2path from=\"^section")
+                    .append(rule)
+                    .append("/(.*)$\" to=\"s")
+                    .append(rule)
+                    .append("/$1.html\" />\n");
+            }
+            buf.append("        <url2path from=\"^(.*)$\" to=\"$1.html\" />\n");
+            buf.append("        <path2url from=\"^(.*)\\.html$\" to=\"$1\" />\n");
+            buf.append("    </site>\n");
+        }
+        buf.append("</pageset>");
+        return buf.toString();
+    }
+
+    private MapperFixtures() {
+    }
+
+}
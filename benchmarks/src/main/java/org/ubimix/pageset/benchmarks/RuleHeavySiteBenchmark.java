@@ -0,0 +1,67 @@
+/**
+ * 
+ */
+package org.ubimix.pageset.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.pageset.UrlToPathMapper;
+
+/**
+ * Measures URL-to-path transformations for sites with long lists of
+ * transformation rules. Generated URLs are matched only by the last rule of
+ * each site.
+ * 
+ * @author kotelnikov
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RuleHeavySiteBenchmark {
+
+    @Param({ "1024" })
+    public int corpusSize;
+
+    private int fIndex;
+
+    private UrlToPathMapper fMapper;
+
+    private String[] fUrls;
+
+    @Param({ "10", "50", "100" })
+    public int ruleCount;
+
+    @Param({ "100" })
+    public int siteCount;
+
+    @Setup
+    public void setup() {
+        fMapper = MapperFixtures.newUrlToPathMapper(siteCount, ruleCount);
+        fUrls = MapperFixtures.newHitUrls(siteCount, corpusSize);
+    }
+
+    @Benchmark
+    public Uri uriToPath() {
+        int idx = fIndex++;
+        if (fIndex == corpusSize) {
+            fIndex = 0;
+        }
+        return fMapper.uriToPath(fUrls[idx]);
+    }
+
+}
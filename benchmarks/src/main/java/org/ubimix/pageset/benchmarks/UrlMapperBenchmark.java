@@ -0,0 +1,97 @@
+/**
+ * 
+ */
+package org.ubimix.pageset.benchmarks;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.pageset.UrlMapper;
+
+/**
+ * Measures resolution of all defined types for the same page: one
+ * {@link UrlMapper#getUrl(String, Uri)} call per type versus one
+ * {@link UrlMapper#getUrls(Set, Uri)} call.
+ * 
+ * @author kotelnikov
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UrlMapperBenchmark {
+
+    @Param({ "1024" })
+    public int corpusSize;
+
+    private int fIndex;
+
+    private UrlMapper fMapper;
+
+    private Set<String> fTypeSet;
+
+    private String[] fTypes;
+
+    private Uri[] fUrls;
+
+    @Param({ "1000" })
+    public int siteCount;
+
+    @Param({ "2", "10" })
+    public int typeCount;
+
+    @Benchmark
+    public void getUrl(Blackhole blackhole) {
+        Uri url = fUrls[next()];
+        for (String type : fTypes) {
+            blackhole.consume(fMapper.getUrl(type, url));
+        }
+    }
+
+    @Benchmark
+    public Map<String, Uri> getUrls() {
+        return fMapper.getUrls(fTypeSet, fUrls[next()]);
+    }
+
+    private int next() {
+        int idx = fIndex++;
+        if (fIndex == corpusSize) {
+            fIndex = 0;
+        }
+        return idx;
+    }
+
+    @Setup
+    public void setup() {
+        fMapper = MapperFixtures.newUrlMapper(siteCount, typeCount);
+        fTypes = new String[typeCount];
+        for (int i = 0; i < typeCount; i++) {
+            fTypes[i] = "type" + i;
+        }
+        fTypeSet = new HashSet<String>(Arrays.asList(fTypes));
+        String[] urls = MapperFixtures.newHitUrls(siteCount, corpusSize);
+        fUrls = new Uri[corpusSize];
+        for (int i = 0; i < corpusSize; i++) {
+            fUrls[i] = new Uri(urls[i]);
+        }
+    }
+
+}
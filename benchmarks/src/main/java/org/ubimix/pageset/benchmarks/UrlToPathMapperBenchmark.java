@@ -0,0 +1,129 @@
+/**
+ * 
+ */
+package org.ubimix.pageset.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.pageset.UrlToPathMapper;
+
+/**
+ * Measures URL-to-path and path-to-URL transformations of a
+ * {@link UrlToPathMapper} with many sites.
+ * 
+ * @author kotelnikov
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UrlToPathMapperBenchmark {
+
+    @Param({ "1024" })
+    public int corpusSize;
+
+    /**
+     * All hit URLs written in one buffer as links of a document.
+     */
+    private StringBuilder fDocument;
+
+    /**
+     * Start and end positions of URLs in the document.
+     */
+    private int[] fDocumentLinks;
+
+    private String[] fHitUrls;
+
+    private int fIndex;
+
+    private UrlToPathMapper fMapper;
+
+    private String[] fMissUrls;
+
+    private final StringBuilder fOutput = new StringBuilder();
+
+    private String[] fPaths;
+
+    @Param({ "1" })
+    public int ruleCount;
+
+    @Param({ "10", "1000", "50000" })
+    public int siteCount;
+
+    private int next() {
+        int idx = fIndex++;
+        if (fIndex == corpusSize) {
+            fIndex = 0;
+        }
+        return idx;
+    }
+
+    @Benchmark
+    public Uri pathToUri() {
+        return fMapper.pathToUri(fPaths[next()]);
+    }
+
+    @Benchmark
+    public String pathToUriString() {
+        return fMapper.pathToUriString(fPaths[next()]);
+    }
+
+    @Setup
+    public void setup() {
+        fMapper = MapperFixtures.newUrlToPathMapper(siteCount, ruleCount);
+        fHitUrls = MapperFixtures.newHitUrls(siteCount, corpusSize);
+        fMissUrls = MapperFixtures.newMissUrls(corpusSize);
+        fPaths = MapperFixtures.newPaths(siteCount, corpusSize);
+        fDocument = new StringBuilder();
+        fDocumentLinks = new int[corpusSize * 2];
+        for (int i = 0; i < corpusSize; i++) {
+            fDocument.append("<a href=\"");
+            fDocumentLinks[i * 2] = fDocument.length();
+            fDocument.append(fHitUrls[i]);
+            fDocumentLinks[i * 2 + 1] = fDocument.length();
+            fDocument.append("\">link</a>\n");
+        }
+    }
+
+    @Benchmark
+    public Uri uriToPathHit() {
+        return fMapper.uriToPath(fHitUrls[next()]);
+    }
+
+    @Benchmark
+    public Uri uriToPathMiss() {
+        return fMapper.uriToPath(fMissUrls[next()]);
+    }
+
+    @Benchmark
+    public int uriToPathSlice() {
+        int idx = next() * 2;
+        fOutput.setLength(0);
+        fMapper.uriToPath(
+            fDocument,
+            fDocumentLinks[idx],
+            fDocumentLinks[idx + 1],
+            fOutput);
+        return fOutput.length();
+    }
+
+    @Benchmark
+    public String uriToPathString() {
+        return fMapper.uriToPathString(fHitUrls[next()]);
+    }
+
+}
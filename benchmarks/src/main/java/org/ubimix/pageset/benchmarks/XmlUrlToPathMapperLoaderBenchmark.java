@@ -0,0 +1,90 @@
+/**
+ * 
+ */
+package org.ubimix.pageset.benchmarks;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.commons.xml.XmlWrapper;
+import org.ubimix.commons.xml.XmlWrapper.XmlContext;
+import org.ubimix.pageset.UrlToPathMapper;
+import org.ubimix.pageset.loaders.ParallelConfigLoader;
+import org.ubimix.pageset.loaders.XmlUrlToPathMapperLoader;
+
+/**
+ * Measures loading of generated XML configurations with the
+ * {@link XmlUrlToPathMapperLoader} and with the {@link ParallelConfigLoader}.
+ * The XML document is parsed once, so only the configuration step is
+ * measured.
+ * 
+ * @author kotelnikov
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class XmlUrlToPathMapperLoaderBenchmark {
+
+    private Uri fConfigUrl;
+
+    private ExecutorService fExecutor;
+
+    private XmlUrlToPathMapperLoader fLoader;
+
+    private ParallelConfigLoader fParallelLoader;
+
+    private XmlWrapper fXml;
+
+    @Param({ "2" })
+    public int ruleCount;
+
+    @Param({ "100", "1000" })
+    public int siteCount;
+
+    @Benchmark
+    public UrlToPathMapper configure() throws Exception {
+        return fLoader.configure(fConfigUrl, fXml);
+    }
+
+    @Benchmark
+    public UrlToPathMapper configureParallel() throws Exception {
+        UrlToPathMapper mapper = new UrlToPathMapper();
+        fParallelLoader.configure(fConfigUrl, fXml, mapper);
+        return mapper;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        String xml = MapperFixtures.newXmlConfig(siteCount, ruleCount);
+        XmlContext context = XmlContext.builder().build();
+        fXml = context.readXML(xml);
+        fConfigUrl = new Uri("classpath:./configurations/pageset.xml");
+        fLoader = new XmlUrlToPathMapperLoader();
+        int threads = Runtime.getRuntime().availableProcessors();
+        fExecutor = Executors.newFixedThreadPool(threads);
+        fParallelLoader = new ParallelConfigLoader(fExecutor, threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fExecutor.shutdown();
+    }
+
+}
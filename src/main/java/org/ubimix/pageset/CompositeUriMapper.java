@@ -3,26 +3,187 @@
  */
 package org.ubimix.pageset;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.ubimix.commons.uri.Uri;
 
 /**
+ * This mapper delegates requests to a list of registered mappers; the first
+ * non-<code>null</code> result is returned.
+ * <p>
+ * Mappers implementing the {@link ITypedUrlMapper} interface are asked only
+ * for types they declare; other mappers are asked for all types. The list of
+ * mappers corresponding to each type is calculated on the first request and
+ * kept in a bounded index. This object can also keep a bounded cache of
+ * (type, URL) pairs without results; this cache is disabled by default and it
+ * is enabled with the {@link #setNegativeCacheSize(int)} method. The index and
+ * the cache are reset when mappers are added or removed and when the version
+ * of one of the registered {@link ITypedUrlMapper}s is changed. Other mappers
+ * do not notify this object about their changes, so if the cache is enabled
+ * and the configuration of such a mapper is changed then the
+ * {@link #invalidate()} method should be called.
+ * </p>
+ * 
  * @author kotelnikov
  */
 public class CompositeUriMapper implements IUrlMapper {
 
+    /**
+     * The key of requests without results.
+     */
+    private static class NegativeKey {
+
+        private final String fType;
+
+        private final Uri fUri;
+
+        public NegativeKey(String type, Uri uri) {
+            fType = type;
+            fUri = uri;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof NegativeKey)) {
+                return false;
+            }
+            NegativeKey o = (NegativeKey) obj;
+            return (fType == null ? o.fType == null : fType.equals(o.fType))
+                && (fUri == null ? o.fUri == null : fUri.equals(o.fUri));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = fType != null ? fType.hashCode() : 0;
+            return result * 31 + (fUri != null ? fUri.hashCode() : 0);
+        }
+
+    }
+
+    /**
+     * An immutable list of registered mappers with the corresponding index
+     * and the negative cache. A new instance of this class is created each
+     * time when the list of mappers is changed or when one of typed mappers
+     * is modified.
+     */
+    private static class State {
+
+        private final ConcurrentMap<String, IUrlMapper[]> fIndex = new ConcurrentHashMap<String, IUrlMapper[]>();
+
+        private final IUrlMapper[] fMappers;
+
+        private final LruCache<NegativeKey, Boolean> fMisses;
+
+        private final ITypedUrlMapper[] fTypedMappers;
+
+        /**
+         * Versions of typed mappers used to build the index.
+         */
+        private final int[] fVersions;
+
+        public State(List<IUrlMapper> mappers, int negativeCacheSize) {
+            fMappers = mappers.toArray(new IUrlMapper[mappers.size()]);
+            List<ITypedUrlMapper> typed = new ArrayList<ITypedUrlMapper>();
+            for (IUrlMapper mapper : fMappers) {
+                if (mapper instanceof ITypedUrlMapper) {
+                    typed.add((ITypedUrlMapper) mapper);
+                }
+            }
+            fTypedMappers = typed.toArray(new ITypedUrlMapper[typed.size()]);
+            fVersions = new int[fTypedMappers.length];
+            for (int i = 0; i < fVersions.length; i++) {
+                fVersions[i] = fTypedMappers[i].getVersion();
+            }
+            fMisses = negativeCacheSize > 0
+                ? new LruCache<NegativeKey, Boolean>(negativeCacheSize)
+                : null;
+        }
+
+        /**
+         * Returns all mappers which could resolve URLs of the specified type.
+         */
+        public IUrlMapper[] getMappers(String type) {
+            if (type == null) {
+                return fMappers;
+            }
+            IUrlMapper[] result = fIndex.get(type);
+            if (result == null) {
+                List<IUrlMapper> list = new ArrayList<IUrlMapper>();
+                for (IUrlMapper mapper : fMappers) {
+                    if (!(mapper instanceof ITypedUrlMapper)
+                        || ((ITypedUrlMapper) mapper)
+                            .getTypes()
+                            .contains(type)) {
+                        list.add(mapper);
+                    }
+                }
+                result = list.toArray(new IUrlMapper[list.size()]);
+                if (fIndex.size() < MAX_INDEX_SIZE) {
+                    fIndex.put(type, result);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns <code>true</code> if typed mappers were not modified since
+         * this state was created.
+         */
+        public boolean isValid() {
+            for (int i = 0; i < fVersions.length; i++) {
+                if (fTypedMappers[i].getVersion() != fVersions[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The default maximal number of entries in the cache of requests without
+     * results. It is zero, so this cache is disabled by default.
+     */
+    public static final int DEFAULT_NEGATIVE_CACHE_SIZE = 0;
+
+    /**
+     * The maximal number of types in the index; mappers of other types are
+     * selected on each request.
+     */
+    private static final int MAX_INDEX_SIZE = 256;
+
     private List<IUrlMapper> fList = new CopyOnWriteArrayList<IUrlMapper>();
 
+    private int fNegativeCacheSize = DEFAULT_NEGATIVE_CACHE_SIZE;
+
+    private volatile State fState;
+
     /**
      * 
      */
     public CompositeUriMapper() {
+        invalidate();
     }
 
     public void addUriMapper(IUrlMapper mapper) {
         fList.add(mapper);
+        invalidate();
+    }
+
+    /**
+     * Returns the cache of requests without results or <code>null</code> if
+     * this cache is disabled.
+     * 
+     * @return the cache of requests without results
+     */
+    public LruCache<?, ?> getNegativeCache() {
+        return fState.fMisses;
     }
 
     /**
@@ -30,17 +191,69 @@ public class CompositeUriMapper implements IUrlMapper {
      *      org.ubimix.commons.uri.Uri)
      */
     public Uri getUrl(String type, Uri uri) {
+        State state = fState;
+        if (!state.isValid()) {
+            state = refresh(state);
+        }
+        NegativeKey key = null;
+        if (state.fMisses != null) {
+            key = new NegativeKey(type, uri);
+            if (state.fMisses.get(key) != null) {
+                return null;
+            }
+        }
         Uri result = null;
-        for (IUrlMapper mapper : fList) {
+        for (IUrlMapper mapper : state.getMappers(type)) {
             result = mapper.getUrl(type, uri);
             if (result != null) {
                 break;
             }
         }
+        if (result == null && key != null) {
+            state.fMisses.put(key, Boolean.TRUE);
+        }
         return result;
     }
 
+    /**
+     * Resets the type index and the cache of requests without results. This
+     * method should be called when the configuration of one of the registered
+     * mappers is changed.
+     */
+    public synchronized void invalidate() {
+        fState = new State(fList, fNegativeCacheSize);
+    }
+
+    /**
+     * Re-creates the given state if it is still the current one and returns
+     * the current state.
+     */
+    private synchronized State refresh(State state) {
+        if (fState == state) {
+            invalidate();
+        }
+        return fState;
+    }
+
     public void removeUriMapper(IUrlMapper mapper) {
         fList.remove(mapper);
+        invalidate();
+    }
+
+    /**
+     * Sets the maximal number of entries in the cache of requests without
+     * results. If the given value is zero or negative then this cache is
+     * disabled. Changes of {@link ITypedUrlMapper}s are detected using their
+     * versions; if other registered mappers are changed then the
+     * {@link #invalidate()} method should be called after each change.
+     * 
+     * @param size the maximal size of the cache
+     * @return reference to this object
+     */
+    public synchronized CompositeUriMapper setNegativeCacheSize(int size) {
+        fNegativeCacheSize = size;
+        invalidate();
+        return this;
     }
+
 }
@@ -0,0 +1,31 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+/**
+ * Hash functions shared by classes of this package.
+ *
+ * @author kotelnikov
+ */
+class Hashes {
+
+    /**
+     * Returns a 64-bit FNV-1a hash of the given string.
+     *
+     * @param str the string to hash
+     * @return the hash of the given string
+     */
+    static long hash64(CharSequence str) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < str.length(); i++) {
+            hash ^= str.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private Hashes() {
+    }
+
+}
@@ -0,0 +1,268 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+/**
+ * A compact Bloom filter over the scheme and the authority ("http://host:port")
+ * of URL prefixes of registered sites. It is used to reject URLs of unknown
+ * hosts after a short scan of the beginning of the URL, before site keys are
+ * built and before the prefix index is traversed.
+ * <p>
+ * The filter never rejects a URL which could match a registered prefix (no
+ * false negatives). Schemes and authorities are compared case-insensitively,
+ * so non-normalized URLs could be checked as well. If a prefix does not
+ * define a complete authority (for example "http://" or a relative prefix)
+ * then all URLs are accepted.
+ * </p>
+ * <p>
+ * The bit set has at least 16 bits for each added prefix, so the probability
+ * of false positives is at most about 0.2%. The bit set is doubled as
+ * prefixes are added, so it takes 2 to 8 bytes per prefix. The filter also
+ * keeps the 64-bit hash of each prefix to rebuild the bit set when it grows.
+ * The hashes take 8 to 16 bytes per prefix, because their array is doubled
+ * as well. In total the filter takes about 10 to 24 bytes per registered
+ * prefix, and most of this memory is used by the hashes.
+ * </p>
+ * <p>
+ * Wildcard host patterns (see {@link WildcardSiteIndex}) are added as keys
+ * like "http://*.blogspot.com"; when such patterns exist, a URL of an unknown
+ * host is checked once more for each suffix of its host starting with a
+ * dot.
+ * </p>
+ * <p>
+ * This class is not thread-safe; it is modified only with the prefix index
+ * of the owning mapper.
+ * </p>
+ *
+ * @author kotelnikov
+ */
+class HostFilter {
+
+    /**
+     * The initial value of FNV-1a hashes.
+     */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /**
+     * The number of bits of the filter for each host.
+     */
+    private static final int BITS_PER_HOST = 16;
+
+    /**
+     * The number of hash functions.
+     */
+    private static final int HASH_COUNT = 4;
+
+    /**
+     * The minimal number of bits of the filter.
+     */
+    private static final int MIN_BITS = 1024;
+
+    /**
+     * Returns the end of the authority of the URL in the specified region or
+     * -1 if the region does not start with "scheme://".
+     */
+    static int getAuthorityEnd(CharSequence str, int begin, int end) {
+        int colon = -1;
+        for (int i = begin; i < end; i++) {
+            char ch = str.charAt(i);
+            if (ch == ':') {
+                colon = i;
+                break;
+            }
+            if (ch == '/' || ch == '?' || ch == '#') {
+                return -1;
+            }
+        }
+        if (colon <= begin
+            || colon + 3 > end
+            || str.charAt(colon + 1) != '/'
+            || str.charAt(colon + 2) != '/') {
+            return -1;
+        }
+        int i = colon + 3;
+        while (i < end) {
+            char ch = str.charAt(i);
+            if (ch == '/' || ch == '?' || ch == '#') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the end of the authority of the given URL prefix or -1 if the
+     * prefix could match URLs with any authority (prefixes without a scheme
+     * and prefixes like "http://").
+     */
+    static int getPrefixAuthorityEnd(String prefix) {
+        int len = prefix.length();
+        int authorityEnd = getAuthorityEnd(prefix, 0, len);
+        if (authorityEnd == len && prefix.charAt(len - 1) == '/') {
+            return -1;
+        }
+        return authorityEnd;
+    }
+
+    /**
+     * Continues the case-insensitive 64-bit FNV-1a hash with the given
+     * region.
+     */
+    private static long hash(long hash, CharSequence str, int begin, int end) {
+        for (int i = begin; i < end; i++) {
+            char ch = str.charAt(i);
+            if (ch >= 'A' && ch <= 'Z') {
+                ch += 'a' - 'A';
+            }
+            hash ^= ch;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * This flag is <code>true</code> if a registered prefix does not define
+     * a complete authority; in this case all URLs are accepted.
+     */
+    private boolean fAcceptAll;
+
+    private long[] fBits;
+
+    /**
+     * The number of hosts added to the filter.
+     */
+    private int fCount;
+
+    /**
+     * Hashes of all added hosts (8 bytes per host); they are used to rebuild
+     * the bit set when it is resized.
+     */
+    private long[] fHashes = new long[16];
+
+    private int fMask;
+
+    /**
+     * This flag is <code>true</code> if wildcard host patterns were added.
+     */
+    private boolean fWildcards;
+
+    public HostFilter() {
+        resize(MIN_BITS);
+    }
+
+    /**
+     * Adds the scheme and the authority of the given URL prefix to this
+     * filter.
+     *
+     * @param prefix the URL prefix of a site
+     */
+    public void add(String prefix) {
+        int authorityEnd = getPrefixAuthorityEnd(prefix);
+        if (authorityEnd < 0) {
+            fAcceptAll = true;
+            return;
+        }
+        long hash;
+        if (WildcardSiteIndex.isWildcardPrefix(prefix)) {
+            int hostBegin = prefix.indexOf("://") + 3;
+            int pos = hostBegin;
+            while (prefix.startsWith("*.", pos)) {
+                pos += 2;
+            }
+            hash = hash(FNV_OFFSET, prefix, 0, hostBegin + 1);
+            hash = hash(hash, prefix, pos - 1, authorityEnd);
+            fWildcards = true;
+        } else {
+            hash = hash(FNV_OFFSET, prefix, 0, authorityEnd);
+        }
+        if (fCount == fHashes.length) {
+            long[] hashes = new long[fCount * 2];
+            System.arraycopy(fHashes, 0, hashes, 0, fCount);
+            fHashes = hashes;
+        }
+        fHashes[fCount++] = hash;
+        if ((long) fCount * BITS_PER_HOST > fBits.length * 64L) {
+            resize(fCount * BITS_PER_HOST * 2);
+        } else {
+            set(hash);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if all bits corresponding to the given hash
+     * are set.
+     */
+    private boolean contains(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = (h1 + i * h2) & fMask;
+            if ((fBits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns <code>false</code> if the URL defined by the specified region
+     * of the given sequence can not match any registered prefix.
+     *
+     * @param str the character sequence containing the URL
+     * @param begin the start position of the URL
+     * @param end the end position of the URL
+     * @return <code>false</code> if the URL is rejected by this filter
+     */
+    public boolean mayContain(CharSequence str, int begin, int end) {
+        if (fAcceptAll) {
+            return true;
+        }
+        int authorityEnd = getAuthorityEnd(str, begin, end);
+        if (authorityEnd < 0) {
+            return false;
+        }
+        if (contains(hash(FNV_OFFSET, str, begin, authorityEnd))) {
+            return true;
+        }
+        if (fWildcards) {
+            int hostBegin = begin;
+            while (str.charAt(hostBegin) != ':') {
+                hostBegin++;
+            }
+            hostBegin += 3;
+            long schemeHash = hash(FNV_OFFSET, str, begin, hostBegin);
+            schemeHash = hash(schemeHash, "*", 0, 1);
+            for (int i = hostBegin; i < authorityEnd; i++) {
+                if (str.charAt(i) == '.'
+                    && contains(hash(schemeHash, str, i, authorityEnd))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Re-creates the bit set with at least the given number of bits.
+     */
+    private void resize(int bitCount) {
+        int size = Integer.highestOneBit(Math.max(MIN_BITS, bitCount) - 1) << 1;
+        fBits = new long[size >>> 6];
+        fMask = size - 1;
+        for (int i = 0; i < fCount; i++) {
+            set(fHashes[i]);
+        }
+    }
+
+    private void set(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = (h1 + i * h2) & fMask;
+            fBits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+}
@@ -0,0 +1,337 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+import java.util.Arrays;
+
+/**
+ * An index of URL prefixes partitioned by hosts. Prefixes are split in the
+ * host part ("scheme://authority") and the path part. Lookups find the
+ * partition of the host of a URL in an open-addressing hash table (the host
+ * is hashed and compared in place, without creating strings) and then search
+ * the longest matching path prefix in this partition only. Partitions with
+ * one prefix (the most common case) keep it directly; bigger partitions use
+ * their own small {@link UrlPrefixTrie}. So modifications of prefixes of one
+ * host never touch structures of other hosts.
+ * <p>
+ * Prefixes without a complete authority (for example "http://" or relative
+ * prefixes) are kept in a shared fallback trie; it is checked only when the
+ * partition of the host does not contain a matching prefix. Matching rules
+ * are the same as for {@link UrlPrefixTrie}: prefixes match keys only at
+ * segment boundaries.
+ * </p>
+ * <p>
+ * This class is not thread-safe. Instances could be safely shared between
+ * threads only if they are not modified after publication.
+ * </p>
+ *
+ * @author kotelnikov
+ * @param <T> the type of values associated with prefixes
+ */
+class HostPartitionedIndex<T> {
+
+    /**
+     * Prefixes of one host. Keys are path parts of prefixes.
+     */
+    private static class Partition<T> {
+
+        /**
+         * The path part of the single prefix of this partition.
+         */
+        private String fSuffix;
+
+        /**
+         * Prefixes of this partition if there is more than one prefix.
+         */
+        private UrlPrefixTrie<T> fTrie;
+
+        private T fValue;
+
+        public T get(String suffix) {
+            if (fTrie != null) {
+                return fTrie.get(suffix);
+            }
+            return suffix.equals(fSuffix) ? fValue : null;
+        }
+
+        public T getNearestValue(CharSequence str, int begin, int end) {
+            if (fTrie != null) {
+                return fTrie.getNearestValue(str, begin, end);
+            }
+            int len = fSuffix.length();
+            if (end - begin < len) {
+                return null;
+            }
+            for (int i = 0; i < len; i++) {
+                if (str.charAt(begin + i) != fSuffix.charAt(i)) {
+                    return null;
+                }
+            }
+            int pos = begin + len;
+            if (len == 0 || pos == end || fSuffix.charAt(len - 1) == '/') {
+                return fValue;
+            }
+            char ch = str.charAt(pos);
+            return ch == '/' || ch == '?' || ch == '#' ? fValue : null;
+        }
+
+        public T put(String suffix, T value) {
+            if (fTrie == null) {
+                if (fSuffix == null || fSuffix.equals(suffix)) {
+                    T prev = fValue;
+                    fSuffix = suffix;
+                    fValue = value;
+                    return prev;
+                }
+                fTrie = new UrlPrefixTrie<T>();
+                fTrie.put(fSuffix, fValue);
+                fSuffix = null;
+                fValue = null;
+            }
+            return fTrie.put(suffix, value);
+        }
+
+        public void visit(
+            final String host,
+            final UrlPrefixTrie.IEntryVisitor<T> visitor) {
+            if (fTrie != null) {
+                fTrie.visit(new UrlPrefixTrie.IEntryVisitor<T>() {
+                    public void visit(String key, T value) {
+                        visitor.visit(host + key, value);
+                    }
+                });
+            } else if (fValue != null) {
+                visitor.visit(host + fSuffix, fValue);
+            }
+        }
+
+    }
+
+    /**
+     * Returns the hash of the given region; it is the same as the hash code
+     * of the corresponding string.
+     */
+    private static int hash(CharSequence str, int begin, int end) {
+        int hash = 0;
+        for (int i = begin; i < end; i++) {
+            hash = 31 * hash + str.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Returns <code>true</code> if the given host is equal to the specified
+     * region of the character sequence.
+     */
+    private static boolean regionEquals(
+        String host,
+        CharSequence str,
+        int begin,
+        int end) {
+        int len = host.length();
+        if (len != end - begin) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (host.charAt(i) != str.charAt(begin + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Prefixes without a complete authority.
+     */
+    private final UrlPrefixTrie<T> fFallback = new UrlPrefixTrie<T>();
+
+    private int fHostCount;
+
+    /**
+     * Keys of the hash table of partitions ("scheme://authority").
+     */
+    private String[] fHosts = new String[16];
+
+    private Partition<T>[] fPartitions = newPartitions(16);
+
+    private int fSize;
+
+    public HostPartitionedIndex() {
+    }
+
+    /**
+     * Returns the index of the slot of the given host in the hash table or
+     * the index of the empty slot where it should be inserted.
+     */
+    private int findSlot(CharSequence str, int begin, int end) {
+        int mask = fHosts.length - 1;
+        int idx = hash(str, begin, end) & mask;
+        while (true) {
+            String host = fHosts[idx];
+            if (host == null || regionEquals(host, str, begin, end)) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns the value associated with the specified prefix.
+     *
+     * @param key the prefix
+     * @return the value associated with the prefix
+     */
+    public T get(String key) {
+        int authorityEnd = HostFilter.getPrefixAuthorityEnd(key);
+        if (authorityEnd < 0) {
+            return fFallback.get(key);
+        }
+        int idx = findSlot(key, 0, authorityEnd);
+        Partition<T> partition = fPartitions[idx];
+        return partition != null
+            ? partition.get(key.substring(authorityEnd))
+            : null;
+    }
+
+    /**
+     * Returns the number of hosts in this index.
+     *
+     * @return the number of hosts
+     */
+    public int getHostCount() {
+        return fHostCount;
+    }
+
+    /**
+     * Returns a value associated with the longest registered prefix of the
+     * key defined by the specified region of the given character sequence.
+     *
+     * @param str the character sequence containing the key
+     * @param begin the start position of the key
+     * @param end the end position of the key
+     * @return a value associated with the longest prefix of the key
+     */
+    public T getNearestValue(CharSequence str, int begin, int end) {
+        int authorityEnd = HostFilter.getAuthorityEnd(str, begin, end);
+        if (authorityEnd >= 0 && fHostCount > 0) {
+            Partition<T> partition = fPartitions[findSlot(
+                str,
+                begin,
+                authorityEnd)];
+            if (partition != null) {
+                T value = partition.getNearestValue(str, authorityEnd, end);
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        return fFallback.isEmpty()
+            ? null
+            : fFallback.getNearestValue(str, begin, end);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Partition<T>[] newPartitions(int size) {
+        return new Partition[size];
+    }
+
+    /**
+     * Associates the specified value with the given prefix and returns the
+     * previous value associated with this prefix. Only the partition of the
+     * host of the prefix is modified.
+     *
+     * @param key the prefix
+     * @param value the value to associate with the prefix
+     * @return the previous value associated with the prefix
+     */
+    public T put(String key, T value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value can not be null");
+        }
+        int authorityEnd = HostFilter.getPrefixAuthorityEnd(key);
+        T prev;
+        if (authorityEnd < 0) {
+            prev = fFallback.put(key, value);
+        } else {
+            int idx = findSlot(key, 0, authorityEnd);
+            Partition<T> partition = fPartitions[idx];
+            if (partition == null) {
+                partition = new Partition<T>();
+                fHosts[idx] = key.substring(0, authorityEnd);
+                fPartitions[idx] = partition;
+                fHostCount++;
+                if (fHostCount > fHosts.length * 3 / 4) {
+                    rehash();
+                }
+            }
+            prev = partition.put(key.substring(authorityEnd), value);
+        }
+        if (prev == null) {
+            fSize++;
+        }
+        return prev;
+    }
+
+    private void rehash() {
+        String[] hosts = fHosts;
+        Partition<T>[] partitions = fPartitions;
+        fHosts = new String[hosts.length * 2];
+        fPartitions = newPartitions(hosts.length * 2);
+        for (int i = 0; i < hosts.length; i++) {
+            String host = hosts[i];
+            if (host != null) {
+                int idx = findSlot(host, 0, host.length());
+                fHosts[idx] = host;
+                fPartitions[idx] = partitions[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the number of prefixes in this index.
+     *
+     * @return the number of prefixes
+     */
+    public int size() {
+        return fSize;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("{");
+        visit(new UrlPrefixTrie.IEntryVisitor<T>() {
+            public void visit(String key, T value) {
+                if (buf.length() > 1) {
+                    buf.append(", ");
+                }
+                buf.append(key).append("=").append(value);
+            }
+        });
+        buf.append("}");
+        return buf.toString();
+    }
+
+    /**
+     * Visits all entries of this index; hosts are visited in the
+     * lexicographical order.
+     *
+     * @param visitor the visitor to notify
+     */
+    public void visit(UrlPrefixTrie.IEntryVisitor<T> visitor) {
+        fFallback.visit(visitor);
+        String[] hosts = new String[fHostCount];
+        int count = 0;
+        for (String host : fHosts) {
+            if (host != null) {
+                hosts[count++] = host;
+            }
+        }
+        Arrays.sort(hosts);
+        for (String host : hosts) {
+            fPartitions[findSlot(host, 0, host.length())].visit(host, visitor);
+        }
+    }
+
+}
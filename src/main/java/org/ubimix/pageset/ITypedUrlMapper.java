@@ -0,0 +1,32 @@
+package org.ubimix.pageset;
+
+import java.util.Set;
+
+/**
+ * URL mappers of this type know all URL types they can resolve. This
+ * information is used by {@link CompositeUriMapper} to skip mappers which
+ * can not answer a request. The composite mapper uses versions of these
+ * mappers to detect changes of their configuration.
+ * 
+ * @author kotelnikov
+ */
+public interface ITypedUrlMapper extends IUrlMapper {
+
+    /**
+     * Returns all URL types resolved by this mapper. The
+     * {@link #getUrl(String, org.ubimix.commons.uri.Uri)} method should return
+     * <code>null</code> for all other types.
+     * 
+     * @return a set of all URL types resolved by this mapper
+     */
+    Set<String> getTypes();
+
+    /**
+     * Returns the version of this mapper. It should be changed each time when
+     * types or URLs of this mapper are changed.
+     * 
+     * @return the current version of this mapper
+     */
+    int getVersion();
+
+}
@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of durations in nanoseconds. Durations are
+ * collected in buckets with power-of-two bounds: the bucket <code>i</code>
+ * contains durations in the range [2<sup>i-1</sup>, 2<sup>i</sup>), the
+ * bucket 0 contains zero durations. So percentiles returned by this class are
+ * approximate (they are upper bounds of the corresponding buckets).
+ *
+ * @author kotelnikov
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray fBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong fTotal = new AtomicLong();
+
+    public LatencyHistogram() {
+    }
+
+    /**
+     * Returns a copy of all bucket counters.
+     *
+     * @return an array with the number of durations in each bucket
+     */
+    public long[] getBucketCounts() {
+        long[] result = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            result[i] = fBuckets.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of recorded durations.
+     *
+     * @return the number of recorded durations
+     */
+    public long getCount() {
+        long result = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            result += fBuckets.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the mean duration in nanoseconds or 0 if there is no recorded
+     * durations.
+     *
+     * @return the mean duration in nanoseconds
+     */
+    public long getMean() {
+        long count = getCount();
+        return count > 0 ? fTotal.get() / count : 0;
+    }
+
+    /**
+     * Returns an approximate value of the specified percentile in
+     * nanoseconds.
+     *
+     * @param percentile the percentile in the range [0, 100]
+     * @return the upper bound of the bucket containing the specified
+     *         percentile
+     */
+    public long getPercentile(double percentile) {
+        long[] buckets = getBucketCounts();
+        long count = 0;
+        for (long bucket : buckets) {
+            count += bucket;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(count * percentile / 100);
+        long sum = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            sum += buckets[i];
+            if (sum >= threshold && sum > 0) {
+                return i == 0 ? 0 : i < 63 ? (1L << i) - 1 : Long.MAX_VALUE;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Adds a new duration to this histogram.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int bucket = BUCKET_COUNT - Long.numberOfLeadingZeros(nanos);
+        fBuckets.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+        fTotal.addAndGet(nanos);
+    }
+
+    /**
+     * Removes all recorded durations.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            fBuckets.set(i, 0);
+        }
+        fTotal.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "{count="
+            + getCount()
+            + ", mean="
+            + getMean()
+            + "ns, p50="
+            + getPercentile(50)
+            + "ns, p99="
+            + getPercentile(99)
+            + "ns}";
+    }
+
+}
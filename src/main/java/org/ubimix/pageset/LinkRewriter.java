@@ -0,0 +1,793 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.ubimix.commons.uri.Uri;
+
+/**
+ * This class rewrites links of HTML and CSS documents with an
+ * {@link IUrlTransformer} - usually the localize transformer of a
+ * {@link PageSetConfig} (see {@link PageSetConfig#getLocalizeUrlTransformer()}
+ * ). Documents are scanned as character streams and written in one pass
+ * without building DOMs:
+ * <ul>
+ * <li>in HTML documents link attributes (<code>href</code>, <code>src</code>,
+ * <code>action</code>, ...) are rewritten; <code>style</code> attributes and
+ * <code>&lt;style&gt;</code> elements are rewritten as CSS; comments and
+ * scripts are copied as is;</li>
+ * <li>in CSS documents <code>url(...)</code> references and
+ * <code>@import</code> strings are rewritten.</li>
+ * </ul>
+ * <p>
+ * Each link is resolved against the URL of the document and transformed.
+ * Empty links, local anchors ("#...") and links with "javascript:",
+ * "mailto:", "data:" and "tel:" schemes are not changed. If the transformer
+ * returns <code>null</code> the link is not changed either.
+ * </p>
+ * <p>
+ * Memory used by the scanner is bounded: only one tag or one CSS reference is
+ * kept at a time. Tags longer than {@link #MAX_TAG_LENGTH} and references
+ * longer than {@link #MAX_LINK_LENGTH} (for example big "data:" URLs) are
+ * copied without changes.
+ * </p>
+ * <p>
+ * Instances of this class are thread-safe if the transformer is thread-safe.
+ * </p>
+ *
+ * @author kotelnikov
+ */
+public class LinkRewriter {
+
+    /**
+     * This reader returns the content of an element of an HTML stream; it
+     * stops before the closing tag of this element.
+     */
+    private static class ElementContentReader extends Reader {
+
+        private final String fEndTag;
+
+        private boolean fFinished;
+
+        private final PushbackReader fInput;
+
+        public ElementContentReader(PushbackReader input, String name) {
+            fInput = input;
+            fEndTag = "</" + name;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (fFinished) {
+                return -1;
+            }
+            int ch = fInput.read();
+            if (ch == '<') {
+                int len = fEndTag.length();
+                char[] buf = new char[len];
+                buf[0] = '<';
+                int count = 1;
+                while (count < len) {
+                    int c = fInput.read();
+                    if (c < 0) {
+                        break;
+                    }
+                    buf[count++] = (char) c;
+                    if (Character.toLowerCase((char) c) != fEndTag
+                        .charAt(count - 1)) {
+                        break;
+                    }
+                }
+                fInput.unread(buf, 0, count);
+                if (count == len
+                    && new String(buf).equalsIgnoreCase(fEndTag)) {
+                    fFinished = true;
+                    return -1;
+                }
+                ch = fInput.read();
+            }
+            if (ch < 0) {
+                fFinished = true;
+            }
+            return ch;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int ch = read();
+            if (ch < 0) {
+                return -1;
+            }
+            cbuf[off] = (char) ch;
+            return 1;
+        }
+
+    }
+
+    /**
+     * HTML attributes containing links.
+     */
+    private static final Set<String> LINK_ATTRIBUTES = new HashSet<String>(
+        Arrays.asList(
+            "action",
+            "background",
+            "cite",
+            "data",
+            "href",
+            "longdesc",
+            "poster",
+            "src"));
+
+    /**
+     * The maximal length of CSS references rewritten by this class.
+     */
+    public static final int MAX_LINK_LENGTH = 1024 * 8;
+
+    /**
+     * The maximal length of HTML tags rewritten by this class.
+     */
+    public static final int MAX_TAG_LENGTH = 1024 * 64;
+
+    /**
+     * The size of the pushback buffer; it should be bigger than the longest
+     * closing tag checked by {@link ElementContentReader}.
+     */
+    private static final int PUSHBACK_SIZE = 16;
+
+    /**
+     * Prefixes of links which are never rewritten.
+     */
+    private static final String[] SKIPPED_PREFIXES = {
+        "#",
+        "javascript:",
+        "mailto:",
+        "data:",
+        "tel:" };
+
+    /**
+     * Copies characters of a CSS string or reference until the given end
+     * character (included) or the end of the stream. Characters escaped with
+     * a backslash are copied as is and never end the copied sequence.
+     */
+    private static void copyCssUntil(Reader in, Writer out, int end)
+        throws IOException {
+        int ch;
+        while ((ch = in.read()) >= 0) {
+            out.write(ch);
+            if (ch == '\\') {
+                ch = in.read();
+                if (ch < 0) {
+                    return;
+                }
+                out.write(ch);
+            } else if (ch == end) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copies characters until the given end sequence (included) or the end
+     * of the stream.
+     */
+    private static void copyUntil(Reader in, Writer out, String end)
+        throws IOException {
+        int len = end.length();
+        int matched = 0;
+        int ch;
+        while ((ch = in.read()) >= 0) {
+            out.write(ch);
+            if (ch == end.charAt(matched)) {
+                matched++;
+                if (matched == len) {
+                    return;
+                }
+            } else {
+                matched = ch == end.charAt(0) ? 1 : 0;
+            }
+        }
+    }
+
+    /**
+     * Replaces basic character references of attribute values.
+     */
+    private static String decode(String value) {
+        if (value.indexOf('&') < 0) {
+            return value;
+        }
+        return value
+            .replace("&quot;", "\"")
+            .replace("&#39;", "'")
+            .replace("&apos;", "'")
+            .replace("&lt;", "<")
+            .replace("&gt;", ">")
+            .replace("&amp;", "&");
+    }
+
+    /**
+     * Escapes the given value for an attribute enclosed in the specified
+     * quotes.
+     */
+    private static String encode(String value, char quote) {
+        StringBuilder buf = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '&') {
+                buf.append("&amp;");
+            } else if (ch == quote) {
+                buf.append(quote == '"' ? "&quot;" : "&#39;");
+            } else {
+                buf.append(ch);
+            }
+        }
+        return buf.toString();
+    }
+
+    private static boolean isNameChar(int ch) {
+        return ch >= 0 && (Character.isLetterOrDigit(ch) || ch == '-');
+    }
+
+    private static boolean isRewritten(String path) {
+        String lower = path.toLowerCase();
+        return lower.endsWith(".html")
+            || lower.endsWith(".htm")
+            || lower.endsWith(".css");
+    }
+
+    private static void listFiles(File dir, String prefix, List<String> paths) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String path = prefix + file.getName();
+            if (file.isDirectory()) {
+                listFiles(file, path + "/", paths);
+            } else if (isRewritten(path)) {
+                paths.add(path);
+            }
+        }
+    }
+
+    private final IUrlTransformer fTransformer;
+
+    /**
+     * @param transformer the transformer applied to links
+     */
+    public LinkRewriter(IUrlTransformer transformer) {
+        fTransformer = transformer;
+    }
+
+    /**
+     * Creates a rewriter using the localize transformer of the given
+     * configuration.
+     *
+     * @param config the configuration providing the transformer
+     */
+    public LinkRewriter(PageSetConfig config) {
+        this(config.getLocalizeUrlTransformer());
+    }
+
+    /**
+     * Reads a CSS <code>url(...)</code> reference after the opening
+     * parenthesis and writes the rewritten reference. References containing
+     * escaped characters are copied as is.
+     */
+    private void rewriteCssUrl(Uri baseUrl, PushbackReader in, Writer out)
+        throws IOException {
+        StringBuilder buf = new StringBuilder();
+        boolean escaped = false;
+        int quote = 0;
+        int ch;
+        while ((ch = in.read()) >= 0) {
+            if (ch == '\\') {
+                escaped = true;
+                buf.append((char) ch);
+                ch = in.read();
+                if (ch < 0) {
+                    break;
+                }
+            } else if (quote != 0) {
+                if (ch == quote) {
+                    quote = 0;
+                }
+            } else if (ch == '"' || ch == '\'') {
+                quote = ch;
+            } else if (ch == ')') {
+                break;
+            }
+            buf.append((char) ch);
+            if (buf.length() > MAX_LINK_LENGTH) {
+                out.write(buf.toString());
+                if (quote != 0) {
+                    copyCssUntil(in, out, quote);
+                }
+                copyCssUntil(in, out, ')');
+                return;
+            }
+        }
+        String value = buf.toString().trim();
+        char q = 0;
+        if (value.length() >= 2
+            && (value.charAt(0) == '"' || value.charAt(0) == '\'')
+            && value.charAt(value.length() - 1) == value.charAt(0)) {
+            q = value.charAt(0);
+            value = value.substring(1, value.length() - 1);
+        }
+        String link = escaped ? null : rewriteLink(baseUrl, value);
+        if (link != null) {
+            out.write(q != 0 ? q + link + q : link);
+        } else {
+            out.write(buf.toString());
+        }
+        if (ch >= 0) {
+            out.write(')');
+        }
+    }
+
+    /**
+     * Rewrites links of the given CSS document and writes the result in the
+     * specified writer. The reader and the writer are not closed.
+     *
+     * @param baseUrl the URL of the document; links are resolved against it
+     * @param reader the CSS document
+     * @param writer the output
+     * @throws IOException
+     */
+    public void rewriteCss(Uri baseUrl, Reader reader, Writer writer)
+        throws IOException {
+        PushbackReader in = new PushbackReader(reader, PUSHBACK_SIZE);
+        int prev = -1;
+        int ch;
+        while ((ch = in.read()) >= 0) {
+            if (ch == '/') {
+                int next = in.read();
+                if (next == '*') {
+                    writer.write("/*");
+                    copyUntil(in, writer, "*/");
+                    prev = -1;
+                    continue;
+                }
+                if (next >= 0) {
+                    in.unread(next);
+                }
+                writer.write(ch);
+            } else if (ch == '"' || ch == '\'') {
+                writer.write(ch);
+                copyCssUntil(in, writer, ch);
+            } else if ((ch == 'u' || ch == 'U') && !isNameChar(prev)) {
+                char[] buf = new char[3];
+                int count = 0;
+                int c;
+                while (count < 3 && (c = in.read()) >= 0) {
+                    buf[count++] = (char) c;
+                }
+                writer.write(ch);
+                if (count == 3
+                    && new String(buf).equalsIgnoreCase("rl(")) {
+                    writer.write(buf, 0, 3);
+                    rewriteCssUrl(baseUrl, in, writer);
+                    ch = ')';
+                } else {
+                    in.unread(buf, 0, count);
+                }
+            } else if (ch == '@') {
+                writer.write(ch);
+                StringBuilder name = new StringBuilder();
+                int c;
+                while (isNameChar(c = in.read())) {
+                    name.append((char) c);
+                }
+                writer.write(name.toString());
+                while (c >= 0 && Character.isWhitespace(c)) {
+                    writer.write(c);
+                    c = in.read();
+                }
+                if ((c == '"' || c == '\'')
+                    && "import".equalsIgnoreCase(name.toString())) {
+                    rewriteCssString(baseUrl, (char) c, in, writer);
+                    c = -1;
+                }
+                if (c >= 0) {
+                    in.unread(c);
+                }
+                ch = -1;
+            } else {
+                writer.write(ch);
+            }
+            prev = ch;
+        }
+    }
+
+    /**
+     * Reads a CSS string after the opening quote and writes it rewritten as
+     * a link. Strings containing escaped characters are copied as is.
+     */
+    private void rewriteCssString(
+        Uri baseUrl,
+        char quote,
+        PushbackReader in,
+        Writer out) throws IOException {
+        StringBuilder buf = new StringBuilder();
+        boolean escaped = false;
+        int ch;
+        while ((ch = in.read()) >= 0 && ch != quote) {
+            if (ch == '\\') {
+                escaped = true;
+                buf.append((char) ch);
+                ch = in.read();
+                if (ch < 0) {
+                    break;
+                }
+            }
+            buf.append((char) ch);
+            if (buf.length() > MAX_LINK_LENGTH) {
+                out.write(quote);
+                out.write(buf.toString());
+                copyCssUntil(in, out, quote);
+                return;
+            }
+        }
+        String link = escaped ? null : rewriteLink(baseUrl, buf.toString());
+        out.write(quote);
+        out.write(link != null ? link : buf.toString());
+        if (ch >= 0) {
+            out.write(quote);
+        }
+    }
+
+    /**
+     * Rewrites the given CSS fragment (for example the value of a
+     * <code>style</code> attribute).
+     */
+    private String rewriteCss(Uri baseUrl, String css) throws IOException {
+        StringWriter writer = new StringWriter();
+        rewriteCss(baseUrl, new StringReader(css), writer);
+        return writer.toString();
+    }
+
+    /**
+     * Rewrites all HTML and CSS files (*.html, *.htm, *.css) of the source
+     * directory and writes results in the target directory with the same
+     * relative paths. Files are processed in parallel by the given executor;
+     * other files are ignored. Files are read and written in UTF-8.
+     *
+     * @param sourceDir the directory containing documents to rewrite
+     * @param targetDir the directory where rewritten documents are written
+     * @param baseUrl the URL corresponding to the source directory (ending
+     *        with "/"); URLs of documents are resolved against it
+     * @param executor the executor rewriting files
+     * @return the number of rewritten files
+     * @throws IOException
+     */
+    public int rewriteDirectory(
+        final File sourceDir,
+        final File targetDir,
+        final Uri baseUrl,
+        ExecutorService executor) throws IOException {
+        List<String> paths = new ArrayList<String>();
+        listFiles(sourceDir, "", paths);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final String path : paths) {
+            futures.add(executor.submit(new Callable<Object>() {
+                public Object call() throws IOException {
+                    rewriteFile(
+                        baseUrl.getResolved(path),
+                        new File(sourceDir, path),
+                        new File(targetDir, path));
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            IOException error = new IOException("Rewriting interrupted");
+            error.initCause(e);
+            throw error;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            IOException error = new IOException("Can not rewrite files");
+            error.initCause(cause);
+            throw error;
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return paths.size();
+    }
+
+    /**
+     * Rewrites the given HTML or CSS file (the type is defined by the file
+     * extension) and writes the result in the target file. Files are read
+     * and written in UTF-8.
+     *
+     * @param baseUrl the URL of the document
+     * @param source the file to rewrite
+     * @param target the result file
+     * @throws IOException
+     */
+    public void rewriteFile(Uri baseUrl, File source, File target)
+        throws IOException {
+        File dir = target.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs() && !dir.exists()) {
+            throw new IOException("Can not create the directory " + dir);
+        }
+        InputStream input = new FileInputStream(source);
+        try {
+            OutputStream output = new FileOutputStream(target);
+            try {
+                Reader reader = new BufferedReader(new InputStreamReader(
+                    input,
+                    "UTF-8"));
+                Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    output,
+                    "UTF-8"));
+                if (source.getName().toLowerCase().endsWith(".css")) {
+                    rewriteCss(baseUrl, reader, writer);
+                } else {
+                    rewriteHtml(baseUrl, reader, writer);
+                }
+                writer.flush();
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Rewrites links of the given HTML document and writes the result in the
+     * specified writer. The reader and the writer are not closed.
+     *
+     * @param baseUrl the URL of the document; links are resolved against it
+     * @param reader the HTML document
+     * @param writer the output
+     * @throws IOException
+     */
+    public void rewriteHtml(Uri baseUrl, Reader reader, Writer writer)
+        throws IOException {
+        PushbackReader in = new PushbackReader(reader, PUSHBACK_SIZE);
+        StringBuilder tag = new StringBuilder();
+        int ch;
+        while ((ch = in.read()) >= 0) {
+            if (ch != '<') {
+                writer.write(ch);
+                continue;
+            }
+            int next = in.read();
+            if (next == '!') {
+                writer.write("<!");
+                int c1 = in.read();
+                int c2 = c1 == '-' ? in.read() : -1;
+                if (c1 == '-' && c2 == '-') {
+                    writer.write("--");
+                    copyUntil(in, writer, "-->");
+                } else {
+                    if (c2 >= 0) {
+                        in.unread(c2);
+                    }
+                    if (c1 >= 0) {
+                        in.unread(c1);
+                    }
+                    copyUntil(in, writer, ">");
+                }
+                continue;
+            }
+            if (next < 0 || (next != '/' && !Character.isLetter(next))) {
+                writer.write(ch);
+                if (next >= 0) {
+                    in.unread(next);
+                }
+                continue;
+            }
+            tag.setLength(0);
+            tag.append((char) next);
+            int quote = 0;
+            boolean closed = false;
+            int c;
+            while ((c = in.read()) >= 0) {
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '>') {
+                    closed = true;
+                    break;
+                }
+                tag.append((char) c);
+                if (tag.length() > MAX_TAG_LENGTH) {
+                    break;
+                }
+            }
+            if (!closed) {
+                // Too long or not terminated tags are copied as is
+                writer.write('<');
+                writer.write(tag.toString());
+                if (c >= 0) {
+                    copyUntil(in, writer, ">");
+                }
+                continue;
+            }
+            String name = rewriteTag(baseUrl, tag.toString(), writer);
+            if ("style".equals(name)) {
+                rewriteCss(baseUrl, new ElementContentReader(in, name), writer);
+            } else if ("script".equals(name)) {
+                Reader content = new ElementContentReader(in, name);
+                while ((c = content.read()) >= 0) {
+                    writer.write(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves the given link against the base URL and transforms it.
+     *
+     * @param baseUrl the URL of the document containing the link
+     * @param link the link to rewrite
+     * @return the rewritten link or <code>null</code> if the link should not
+     *         be changed
+     */
+    public String rewriteLink(Uri baseUrl, String link) {
+        String str = link.trim();
+        if (str.length() == 0) {
+            return null;
+        }
+        for (String prefix : SKIPPED_PREFIXES) {
+            if (str.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                return null;
+            }
+        }
+        Uri uri = baseUrl.getResolved(str);
+        Uri result = fTransformer.transform(uri);
+        return result != null ? result.toString() : null;
+    }
+
+    /**
+     * Writes the given tag with rewritten link attributes and returns the
+     * lower-cased name of the tag; for closing and self-closed tags this
+     * method returns <code>null</code>.
+     */
+    private String rewriteTag(Uri baseUrl, String tag, Writer out)
+        throws IOException {
+        int len = tag.length();
+        out.write('<');
+        if (tag.charAt(0) == '/') {
+            out.write(tag);
+            out.write('>');
+            return null;
+        }
+        int i = 0;
+        while (i < len && !Character.isWhitespace(tag.charAt(i))
+            && tag.charAt(i) != '/') {
+            i++;
+        }
+        String name = tag.substring(0, i).toLowerCase();
+        int last = 0;
+        while (i < len) {
+            char ch = tag.charAt(i);
+            if (Character.isWhitespace(ch) || ch == '/' || ch == '=') {
+                i++;
+                continue;
+            }
+            int nameStart = i;
+            while (i < len) {
+                ch = tag.charAt(i);
+                if (Character.isWhitespace(ch) || ch == '/' || ch == '=') {
+                    break;
+                }
+                i++;
+            }
+            String attr = tag.substring(nameStart, i).toLowerCase();
+            int j = i;
+            while (j < len && Character.isWhitespace(tag.charAt(j))) {
+                j++;
+            }
+            if (j >= len || tag.charAt(j) != '=') {
+                continue;
+            }
+            j++;
+            while (j < len && Character.isWhitespace(tag.charAt(j))) {
+                j++;
+            }
+            int start = j;
+            int valueStart;
+            int valueEnd;
+            char quote = 0;
+            if (j < len && (tag.charAt(j) == '"' || tag.charAt(j) == '\'')) {
+                quote = tag.charAt(j);
+                valueStart = j + 1;
+                valueEnd = tag.indexOf(quote, valueStart);
+                if (valueEnd < 0) {
+                    break;
+                }
+                i = valueEnd + 1;
+            } else {
+                valueStart = j;
+                while (j < len && !Character.isWhitespace(tag.charAt(j))) {
+                    j++;
+                }
+                valueEnd = j;
+                i = j;
+            }
+            boolean isLink = LINK_ATTRIBUTES.contains(attr);
+            if (!isLink && !"style".equals(attr)) {
+                continue;
+            }
+            String value = decode(tag.substring(valueStart, valueEnd));
+            String result;
+            if (isLink) {
+                result = rewriteLink(baseUrl, value);
+            } else {
+                result = rewriteCss(baseUrl, value);
+                if (result.equals(value)) {
+                    result = null;
+                }
+            }
+            if (result != null) {
+                if (quote == 0) {
+                    quote = '"';
+                }
+                out.write(tag, last, start - last);
+                out.write(quote);
+                out.write(encode(result, quote));
+                out.write(quote);
+                last = i;
+            }
+        }
+        out.write(tag, last, len - last);
+        out.write('>');
+        return tag.endsWith("/") ? null : name;
+    }
+
+}
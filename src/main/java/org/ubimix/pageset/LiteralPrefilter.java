@@ -0,0 +1,453 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+/**
+ * This class contains literal strings which should be present in any string
+ * matched (as a whole) by a regular expression: a prefix, a suffix and the
+ * longest literal in the middle of the expression. These literals are used to
+ * reject strings with cheap <code>startsWith</code>/<code>indexOf</code>
+ * checks before the regexp engine is called. For example strings matched by
+ * the expression <code>^wiki/(.*)\.php\?id=(\d+)$</code> should start with
+ * "wiki/" and contain ".php?id=".
+ * <p>
+ * Literals are extracted only from the top level of expressions, so groups,
+ * character classes, escapes other than escaped punctuation and quantified
+ * atoms just interrupt literals. Expressions containing top level
+ * alternatives, inline flags or quoted sections (<code>\Q...\E</code>) have
+ * no prefilters. The {@link #accepts(CharSequence)} method never rejects a
+ * string which could be matched by the expression.
+ * </p>
+ * <p>
+ * Instances of this class are immutable and thread-safe.
+ * </p>
+ *
+ * @author kotelnikov
+ */
+class LiteralPrefilter {
+
+    /**
+     * Returns a prefilter for the given regular expression or
+     * <code>null</code> if this expression does not contain required
+     * literals.
+     *
+     * @param regexp the source of the regular expression
+     * @return a prefilter for the given regular expression
+     */
+    public static LiteralPrefilter newPrefilter(String regexp) {
+        if (regexp.indexOf("\\Q") >= 0) {
+            return null;
+        }
+        int len = regexp.length();
+        int begin = 0;
+        if (begin < len && regexp.charAt(0) == '^') {
+            begin++;
+        }
+        int end = len;
+        if (end > begin
+            && regexp.charAt(end - 1) == '$'
+            && !isEscaped(regexp, end - 1)) {
+            end--;
+        }
+        StringBuilder literal = new StringBuilder();
+        String prefix = null;
+        String infix = "";
+        int i = begin;
+        while (i < end) {
+            char ch = regexp.charAt(i);
+            int next;
+            char value = 0;
+            boolean isLiteral = false;
+            if (ch == '\\') {
+                if (i + 1 >= end) {
+                    return null;
+                }
+                char c = regexp.charAt(i + 1);
+                if (!Character.isLetterOrDigit(c) && c < 128) {
+                    isLiteral = true;
+                    value = c;
+                    next = i + 2;
+                } else {
+                    next = skipEscape(regexp, i, end);
+                }
+            } else if (ch == '[') {
+                next = skipClass(regexp, i, end);
+            } else if (ch == '(') {
+                if (i + 1 < end && regexp.charAt(i + 1) == '?') {
+                    char c = i + 2 < end ? regexp.charAt(i + 2) : 0;
+                    if (c != ':'
+                        && c != '='
+                        && c != '!'
+                        && c != '>'
+                        && c != '<') {
+                        // Inline flags could change the meaning of literals
+                        return null;
+                    }
+                }
+                next = skipGroup(regexp, i, end);
+            } else if (ch == '|' || ch == '^' || ch == '$' || ch == ')') {
+                return null;
+            } else if (ch == '.') {
+                next = i + 1;
+            } else if (isQuantifier(ch)) {
+                return null;
+            } else {
+                next = i + 1;
+                isLiteral = true;
+                value = ch;
+            }
+            if (next < 0) {
+                return null;
+            }
+            int quantifierEnd = skipQuantifier(regexp, next, end);
+            if (quantifierEnd < 0) {
+                return null;
+            }
+            if (quantifierEnd > next) {
+                // Quantified atoms could be repeated or skipped
+                isLiteral = false;
+                next = quantifierEnd;
+            }
+            if (isLiteral) {
+                literal.append(value);
+            } else {
+                if (prefix == null) {
+                    prefix = literal.toString();
+                } else if (literal.length() > infix.length()) {
+                    infix = literal.toString();
+                }
+                literal.setLength(0);
+            }
+            i = next;
+        }
+        String suffix = literal.toString();
+        if (prefix == null) {
+            // The whole expression is a literal
+            return new LiteralPrefilter(suffix, "", "", true);
+        }
+        if (prefix.length() == 0
+            && suffix.length() == 0
+            && infix.length() == 0) {
+            return null;
+        }
+        return new LiteralPrefilter(prefix, infix, suffix, false);
+    }
+
+    /**
+     * Returns the position of the given literal in the specified range of
+     * the string or -1 if there is no such a literal in this range.
+     */
+    private static int indexOf(
+        CharSequence str,
+        String literal,
+        int begin,
+        int end) {
+        int last = end - literal.length();
+        if (str instanceof String) {
+            int idx = ((String) str).indexOf(literal, begin);
+            return idx <= last ? idx : -1;
+        }
+        for (int i = begin; i <= last; i++) {
+            if (startsWith(str, literal, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isEscaped(String regexp, int pos) {
+        int count = 0;
+        while (pos > 0 && regexp.charAt(pos - 1) == '\\') {
+            count++;
+            pos--;
+        }
+        return count % 2 == 1;
+    }
+
+    private static boolean isQuantifier(char ch) {
+        return ch == '?' || ch == '*' || ch == '+' || ch == '{';
+    }
+
+    /**
+     * Returns the position after the character class starting at the
+     * specified position or -1 if the class is not closed.
+     */
+    private static int skipClass(String regexp, int pos, int end) {
+        int depth = 0;
+        int i = pos;
+        while (i < end) {
+            char ch = regexp.charAt(i);
+            if (ch == '\\') {
+                i += 2;
+                continue;
+            }
+            if (ch == '[') {
+                depth++;
+                i++;
+                // A closing bracket just after the opening one is a literal
+                if (i < end && regexp.charAt(i) == '^') {
+                    i++;
+                }
+                if (i < end && regexp.charAt(i) == ']') {
+                    i++;
+                }
+                continue;
+            }
+            if (ch == ']') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position after the escape sequence starting at the
+     * specified position or -1 if this sequence could not be skipped safely
+     * (back references, quotes and unknown sequences).
+     */
+    private static int skipEscape(String regexp, int pos, int end) {
+        char c = regexp.charAt(pos + 1);
+        int i = pos + 2;
+        switch (c) {
+            case 'c':
+                i++;
+                break;
+            case 'x':
+                if (i < end && regexp.charAt(i) == '{') {
+                    i = regexp.indexOf('}', i) + 1;
+                } else {
+                    i += 2;
+                }
+                break;
+            case 'u':
+                i += 4;
+                break;
+            case '0':
+                int max = Math.min(end, i + 3);
+                while (i < max
+                    && regexp.charAt(i) >= '0'
+                    && regexp.charAt(i) <= '7') {
+                    i++;
+                }
+                break;
+            case 'p':
+            case 'P':
+                if (i < end && regexp.charAt(i) == '{') {
+                    i = regexp.indexOf('}', i) + 1;
+                } else {
+                    i++;
+                }
+                break;
+            case 'd':
+            case 'D':
+            case 's':
+            case 'S':
+            case 'w':
+            case 'W':
+            case 'b':
+            case 'B':
+            case 'A':
+            case 'G':
+            case 'Z':
+            case 'z':
+            case 't':
+            case 'n':
+            case 'r':
+            case 'f':
+            case 'a':
+            case 'e':
+                break;
+            default:
+                return -1;
+        }
+        return i > pos + 1 && i <= end ? i : -1;
+    }
+
+    /**
+     * Returns the position after the group starting at the specified position
+     * or -1 if the group is not closed.
+     */
+    private static int skipGroup(String regexp, int pos, int end) {
+        int depth = 0;
+        int i = pos;
+        while (i < end) {
+            char ch = regexp.charAt(i);
+            if (ch == '\\') {
+                if (i + 1 < end && regexp.charAt(i + 1) == 'Q') {
+                    return -1;
+                }
+                i += 2;
+                continue;
+            }
+            if (ch == '[') {
+                i = skipClass(regexp, i, end);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            }
+            if (ch == '(') {
+                depth++;
+            } else if (ch == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position after the quantifier starting at the specified
+     * position (or the same position if there is no quantifier) or -1 if the
+     * quantifier is not closed.
+     */
+    private static int skipQuantifier(String regexp, int pos, int end) {
+        if (pos >= end) {
+            return pos;
+        }
+        char ch = regexp.charAt(pos);
+        int i = pos;
+        if (ch == '?' || ch == '*' || ch == '+') {
+            i++;
+        } else if (ch == '{') {
+            i = regexp.indexOf('}', pos);
+            if (i < 0 || i >= end) {
+                return -1;
+            }
+            i++;
+        } else {
+            return pos;
+        }
+        if (i < end) {
+            ch = regexp.charAt(i);
+            if (ch == '?' || ch == '+') {
+                i++;
+            }
+        }
+        return i;
+    }
+
+    private static boolean startsWith(CharSequence str, String prefix, int pos) {
+        int len = prefix.length();
+        if (pos < 0 || pos + len > str.length()) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (str.charAt(pos + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This flag is <code>true</code> if the whole expression is a literal;
+     * in this case the literal is stored as the prefix.
+     */
+    private final boolean fExact;
+
+    /**
+     * The longest literal in the middle of the expression.
+     */
+    private final String fInfix;
+
+    private final String fPrefix;
+
+    private final String fSuffix;
+
+    private LiteralPrefilter(
+        String prefix,
+        String infix,
+        String suffix,
+        boolean exact) {
+        fPrefix = prefix;
+        fInfix = infix;
+        fSuffix = suffix;
+        fExact = exact;
+    }
+
+    /**
+     * Returns <code>false</code> if the given string can not be matched by
+     * the expression. If this method returns <code>true</code> then the
+     * string still should be checked by the expression itself.
+     *
+     * @param str the string to check
+     * @return <code>false</code> if the string is rejected by this prefilter
+     */
+    public boolean accepts(CharSequence str) {
+        return accepts(str, 0, str.length());
+    }
+
+    /**
+     * Returns <code>false</code> if the specified region of the given
+     * character sequence can not be matched by the expression.
+     *
+     * @param str the character sequence containing the string to check
+     * @param begin the start position of the string
+     * @param end the end position of the string
+     * @return <code>false</code> if the string is rejected by this prefilter
+     * @see #accepts(CharSequence)
+     */
+    public boolean accepts(CharSequence str, int begin, int end) {
+        int len = end - begin;
+        if (fExact) {
+            return len == fPrefix.length() && startsWith(str, fPrefix, begin);
+        }
+        int prefixLen = fPrefix.length();
+        int suffixLen = fSuffix.length();
+        if (len < prefixLen + fInfix.length() + suffixLen) {
+            return false;
+        }
+        if (prefixLen > 0 && !startsWith(str, fPrefix, begin)) {
+            return false;
+        }
+        if (suffixLen > 0 && !startsWith(str, fSuffix, end - suffixLen)) {
+            return false;
+        }
+        return fInfix.length() == 0
+            || indexOf(str, fInfix, begin + prefixLen, end - suffixLen) >= 0;
+    }
+
+    /**
+     * Returns the longest literal required in the middle of strings.
+     *
+     * @return the required literal in the middle of strings
+     */
+    public String getInfix() {
+        return fInfix;
+    }
+
+    /**
+     * Returns the required prefix of strings.
+     *
+     * @return the required prefix of strings
+     */
+    public String getPrefix() {
+        return fPrefix;
+    }
+
+    /**
+     * Returns the required suffix of strings.
+     *
+     * @return the required suffix of strings
+     */
+    public String getSuffix() {
+        return fExact ? fPrefix : fSuffix;
+    }
+
+    @Override
+    public String toString() {
+        return fExact
+            ? "{" + fPrefix + "}"
+            : "{" + fPrefix + "..." + fInfix + "..." + fSuffix + "}";
+    }
+
+}
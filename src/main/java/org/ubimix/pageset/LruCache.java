@@ -0,0 +1,239 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe cache with a limited size. When the cache is full the least
+ * recently used entries are evicted. The cache is split in a number of
+ * independent segments, each segment keeps its own LRU list and it is
+ * protected by its own lock, so concurrent threads rarely contend with each
+ * other. This class keeps the number of successful and failed lookups.
+ *
+ * @author kotelnikov
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class LruCache<K, V> {
+
+    /**
+     * One segment of the cache. Statistics fields are modified only under the
+     * segment lock.
+     */
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private long fHits;
+
+        private final int fMaxSize;
+
+        private long fMisses;
+
+        public Segment(int maxSize) {
+            super(16, 0.75f, true);
+            fMaxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > fMaxSize;
+        }
+
+    }
+
+    /**
+     * The default number of segments.
+     */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private final int fMaxSize;
+
+    private final int fSegmentMask;
+
+    private final Segment<K, V>[] fSegments;
+
+    /**
+     * Creates a new cache with the specified maximal size and the default
+     * concurrency level.
+     *
+     * @param maxSize the maximal number of entries in this cache
+     */
+    public LruCache(int maxSize) {
+        this(maxSize, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Creates a new cache with the specified maximal size and the number of
+     * independent segments.
+     *
+     * @param maxSize the maximal number of entries in this cache
+     * @param concurrencyLevel the estimated number of concurrently updating
+     *        threads
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public LruCache(int maxSize, int concurrencyLevel) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException(
+                "The size of the cache should be a positive value");
+        }
+        fMaxSize = maxSize;
+        int count = 1;
+        while (count < concurrencyLevel && count * 2 <= maxSize) {
+            count <<= 1;
+        }
+        fSegmentMask = count - 1;
+        fSegments = new Segment[count];
+        int segmentSize = (maxSize + count - 1) / count;
+        for (int i = 0; i < count; i++) {
+            fSegments[i] = new Segment<K, V>(segmentSize);
+        }
+    }
+
+    /**
+     * Removes all entries from this cache. Statistics are not reset.
+     */
+    public void clear() {
+        for (Segment<K, V> segment : fSegments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns a value associated with the specified key or <code>null</code>
+     * if there is no such a value in the cache.
+     *
+     * @param key the key of the value
+     * @return the cached value
+     */
+    public V get(K key) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            V value = segment.get(key);
+            if (value != null) {
+                segment.fHits++;
+            } else {
+                segment.fMisses++;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Returns the number of successful lookups in this cache.
+     *
+     * @return the number of successful lookups in this cache
+     */
+    public long getHitCount() {
+        long result = 0;
+        for (Segment<K, V> segment : fSegments) {
+            synchronized (segment) {
+                result += segment.fHits;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the maximal number of entries in this cache.
+     *
+     * @return the maximal number of entries in this cache
+     */
+    public int getMaxSize() {
+        return fMaxSize;
+    }
+
+    /**
+     * Returns the number of failed lookups in this cache.
+     *
+     * @return the number of failed lookups in this cache
+     */
+    public long getMissCount() {
+        long result = 0;
+        for (Segment<K, V> segment : fSegments) {
+            synchronized (segment) {
+                result += segment.fMisses;
+            }
+        }
+        return result;
+    }
+
+    private Segment<K, V> getSegment(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return fSegments[h & fSegmentMask];
+    }
+
+    /**
+     * Adds a new value to this cache.
+     *
+     * @param key the key of the value
+     * @param value the value to add
+     */
+    public void put(K key, V value) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    /**
+     * Removes the value associated with the specified key and returns it.
+     *
+     * @param key the key of the value to remove
+     * @return the removed value
+     */
+    public V remove(K key) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    /**
+     * Resets hit and miss counters of this cache.
+     */
+    public void resetStatistics() {
+        for (Segment<K, V> segment : fSegments) {
+            synchronized (segment) {
+                segment.fHits = 0;
+                segment.fMisses = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the current number of entries in this cache.
+     *
+     * @return the current number of entries in this cache
+     */
+    public int size() {
+        int result = 0;
+        for (Segment<K, V> segment : fSegments) {
+            synchronized (segment) {
+                result += segment.size();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "LruCache{size="
+            + size()
+            + ", maxSize="
+            + fMaxSize
+            + ", hits="
+            + getHitCount()
+            + ", misses="
+            + getMissCount()
+            + "}";
+    }
+
+}
@@ -0,0 +1,731 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper;
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper.RegexpUrlTransformer.TransformationRule;
+
+/**
+ * A persistent index of URLs and the corresponding paths stored in a
+ * memory-mapped file. It is used to avoid re-calculation of the same
+ * mappings by repeated export jobs. The index is kept outside of the Java
+ * heap, so it could contain hundreds of millions of entries; lookups read
+ * mapped memory directly and create only the resulting string. The same
+ * file could be used by many processes at the same time (one writer and many
+ * readers). Writers hold an exclusive lock on the "&lt;file&gt;.lock" file, so
+ * the second writer of the same index fails with an {@link IOException}.
+ * <p>
+ * Each index is tagged with a hash of the mapper configuration (see
+ * {@link #getConfigHash(UrlToPathMapper)}). Indexes with a different tag are
+ * stale: a read-only index does not return stale entries and a writable
+ * index replaces them with a new empty index when it is opened. The new index
+ * is written in a temporary file which is then renamed to the index file, so
+ * the file mapped by readers is never truncated. The header of the replaced
+ * file gets the generation of the new index; readers check it on each lookup
+ * and re-open the index file when it is changed.
+ * </p>
+ * <p>
+ * The file contains a header, two open-addressing hash tables (URL to entry
+ * and path to entry) with a fixed number of slots and a data section where
+ * entries (UTF-8 encoded URLs and paths) are appended. The file is mapped in
+ * chunks, so it could be bigger than 2GB. The capacity of the index is
+ * defined when the file is created; when the index is full new entries are
+ * not added.
+ * </p>
+ *
+ * <pre>
+ * long hash = MappedPathIndex.getConfigHash(mapper);
+ * MappedPathIndex index = new MappedPathIndex(file, hash, 100000000);
+ * try {
+ *     String path = index.uriToPath(mapper, url);
+ *     ...
+ * } finally {
+ *     index.close();
+ * }
+ * </pre>
+ *
+ * @author kotelnikov
+ */
+public class MappedPathIndex {
+
+    /**
+     * Offset of the header field containing the configuration hash.
+     */
+    private static final int CONFIG_HASH = 8;
+
+    /**
+     * Offset of the header field containing the number of entries.
+     */
+    private static final int COUNT = 24;
+
+    /**
+     * Offset of the header field containing the end of the data section.
+     */
+    private static final int DATA_END = 32;
+
+    /**
+     * The default number of bits in chunk sizes (chunks of 1GB).
+     */
+    static final int DEFAULT_CHUNK_BITS = 30;
+
+    /**
+     * Offset of the header field containing the generation of the index. It
+     * is incremented each time when the index is re-created.
+     */
+    private static final int GENERATION = 40;
+
+    /**
+     * The size of the file header.
+     */
+    private static final int HEADER_SIZE = 64;
+
+    /**
+     * The magic number identifying index files ("UPIX").
+     */
+    public static final int MAGIC = 0x55504958;
+
+    /**
+     * The maximal number of chunks in one file.
+     */
+    private static final int MAX_CHUNKS = 1 << 16;
+
+    /**
+     * The minimal size of mapped regions.
+     */
+    private static final int MIN_MAPPING = 1024 * 64;
+
+    /**
+     * The size of one slot of hash tables: the hash and the entry offset.
+     */
+    private static final int SLOT_SIZE = 16;
+
+    /**
+     * Offset of the header field containing the number of slots in tables.
+     */
+    private static final int TABLE_SIZE = 16;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The current version of the file format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Returns a hash of the configuration of the given mapper: prefixes and
+     * transformation rules of all sites.
+     *
+     * @param mapper the mapper
+     * @return a hash of the mapper configuration
+     */
+    public static long getConfigHash(UrlToPathMapper mapper) {
+        StringBuilder buf = new StringBuilder();
+        for (SiteUrlMapper site : mapper.getSiteMappers()) {
+            buf.append(site.getUriPrefix()).append('\n');
+            buf.append(site.getPathPrefix()).append('\n');
+            appendRules(buf, site.getUriToPath().getTransformationRules());
+            appendRules(buf, site.getPathToUri().getTransformationRules());
+        }
+        return Hashes.hash64(buf);
+    }
+
+    private static void appendRules(
+        StringBuilder buf,
+        List<TransformationRule> rules) {
+        buf.append(rules.size()).append('\n');
+        for (TransformationRule rule : rules) {
+            buf.append(rule.getExpression()).append('\n');
+            buf.append(rule.getReplacement()).append('\n');
+        }
+    }
+
+    /**
+     * Locks the file "&lt;file&gt;.lock" used by writers of the given index
+     * file. The index file itself is not locked because it is replaced when
+     * the index is re-created.
+     */
+    private static FileLock lockWriter(File file) throws IOException {
+        File lockFile = new File(file.getPath() + ".lock");
+        RandomAccessFile input = new RandomAccessFile(lockFile, "rw");
+        FileLock lock = null;
+        try {
+            lock = input.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            // The index is opened by another writer of this process
+        }
+        if (lock == null) {
+            input.close();
+            throw new IOException("The index is used by another writer: "
+                + file);
+        }
+        return lock;
+    }
+
+    private FileChannel fChannel;
+
+    private final int fChunkBits;
+
+    private AtomicReferenceArray<MappedByteBuffer> fChunks;
+
+    private final long fChunkSize;
+
+    private final long fConfigHash;
+
+    private RandomAccessFile fFile;
+
+    /**
+     * The generation of the opened index file.
+     */
+    private long fGeneration;
+
+    /**
+     * This lock protects mappings of the file; the write lock is used to add
+     * entries and to re-open the file.
+     */
+    private final ReadWriteLock fLock = new ReentrantReadWriteLock();
+
+    private final File fPath;
+
+    private final boolean fReadOnly;
+
+    private boolean fStale;
+
+    private long fTableSize;
+
+    /**
+     * The lock of the writer; it is <code>null</code> for read-only indexes.
+     */
+    private final FileLock fWriterLock;
+
+    /**
+     * Opens an existing index in the read-only mode. If the index is tagged
+     * with a different configuration hash then lookups always return
+     * <code>null</code>.
+     *
+     * @param file the index file
+     * @param configHash the hash of the current mapper configuration
+     * @throws IOException if the file does not exist or if it is not a valid
+     *         index
+     */
+    public MappedPathIndex(File file, long configHash) throws IOException {
+        this(file, configHash, -1, DEFAULT_CHUNK_BITS);
+    }
+
+    /**
+     * Opens or creates a writable index. If the file does not exist, if it
+     * is not a valid index or if it is tagged with a different configuration
+     * hash then a new empty index is created.
+     *
+     * @param file the index file
+     * @param configHash the hash of the current mapper configuration
+     * @param capacity the maximal number of entries; it is used only when a
+     *        new index is created
+     * @throws IOException
+     */
+    public MappedPathIndex(File file, long configHash, long capacity)
+        throws IOException {
+        this(file, configHash, capacity, DEFAULT_CHUNK_BITS);
+    }
+
+    MappedPathIndex(File file, long configHash, long capacity, int chunkBits)
+        throws IOException {
+        fPath = file;
+        fReadOnly = capacity < 0;
+        fConfigHash = configHash;
+        fChunkBits = chunkBits;
+        fChunkSize = 1L << chunkBits;
+        fWriterLock = fReadOnly ? null : lockWriter(file);
+        boolean ok = false;
+        try {
+            open();
+            if (fReadOnly) {
+                if (!isValid()) {
+                    throw new IOException("Not a path index: " + file);
+                }
+            } else if (!isValid() || getLong(CONFIG_HASH) != configHash) {
+                reset(capacity);
+            }
+            readHeader();
+            ok = true;
+        } finally {
+            if (!ok) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Adds a new entry to the hash table starting at the given position.
+     */
+    private void addSlot(long table, long hash, long entry) throws IOException {
+        long idx = getSlot(hash);
+        while (true) {
+            long pos = table + idx * SLOT_SIZE;
+            if (getLong(pos + 8) == 0) {
+                putLong(pos, hash);
+                putLong(pos + 8, entry);
+                return;
+            }
+            idx = (idx + 1) % fTableSize;
+        }
+    }
+
+    /**
+     * Re-opens the index file if it was re-created by a writer. This method
+     * is used only by read-only indexes.
+     */
+    private void checkGeneration() throws IOException {
+        if (!fReadOnly) {
+            return;
+        }
+        boolean changed;
+        fLock.readLock().lock();
+        try {
+            changed = getLong(GENERATION) != fGeneration;
+        } finally {
+            fLock.readLock().unlock();
+        }
+        if (changed) {
+            reopen();
+        }
+    }
+
+    /**
+     * Closes this index. Modifications of writable indexes are flushed to
+     * the disk.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        try {
+            if (fFile != null) {
+                flush();
+                fFile.close();
+            }
+        } finally {
+            if (fWriterLock != null) {
+                fWriterLock.release();
+                fWriterLock.channel().close();
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the entry stored at the specified offset
+     * contains the given string (as the URL if the <code>url</code> flag is
+     * <code>true</code> and as the path otherwise).
+     */
+    private boolean equals(long entry, boolean url, byte[] bytes)
+        throws IOException {
+        long pos = entry;
+        if (!url) {
+            pos += 4 + getInt(pos);
+        }
+        int len = getInt(pos);
+        if (len != bytes.length) {
+            return false;
+        }
+        MappedByteBuffer chunk = getChunk(pos + 4, len);
+        if (chunk == null) {
+            return false;
+        }
+        int offset = (int) ((pos + 4) & (fChunkSize - 1));
+        for (int i = 0; i < len; i++) {
+            if (chunk.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Searches an entry by its URL or by its path and returns the other
+     * part of this entry.
+     */
+    private String find(String str, boolean url) throws IOException {
+        if (str == null) {
+            return null;
+        }
+        checkGeneration();
+        fLock.readLock().lock();
+        try {
+            if (fStale) {
+                return null;
+            }
+            long table = url ? HEADER_SIZE : HEADER_SIZE + fTableSize
+                * SLOT_SIZE;
+            long hash = Hashes.hash64(str);
+            byte[] bytes = null;
+            long idx = getSlot(hash);
+            for (long i = 0; i < fTableSize; i++) {
+                long pos = table + idx * SLOT_SIZE;
+                long entry = getLong(pos + 8);
+                if (entry == 0) {
+                    break;
+                }
+                if (getLong(pos) == hash) {
+                    if (bytes == null) {
+                        bytes = str.getBytes(UTF8);
+                    }
+                    if (equals(entry, url, bytes)) {
+                        return readString(url
+                            ? entry + 4 + bytes.length
+                            : entry);
+                    }
+                }
+                idx = (idx + 1) % fTableSize;
+            }
+            return null;
+        } finally {
+            fLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes all modifications to the disk.
+     */
+    public void flush() {
+        if (fReadOnly) {
+            return;
+        }
+        for (int i = 0; i < fChunks.length(); i++) {
+            MappedByteBuffer chunk = fChunks.get(i);
+            if (chunk != null) {
+                chunk.force();
+            }
+        }
+    }
+
+    /**
+     * Returns a mapped buffer containing the specified region; this region
+     * should be in one chunk. This method returns <code>null</code> if the
+     * region is not in the file (read-only indexes).
+     */
+    private MappedByteBuffer getChunk(long pos, int len) throws IOException {
+        int idx = (int) (pos >>> fChunkBits);
+        long end = (pos & (fChunkSize - 1)) + len;
+        MappedByteBuffer chunk = fChunks.get(idx);
+        if (chunk != null && chunk.capacity() >= end) {
+            return chunk;
+        }
+        return mapChunk(idx, end);
+    }
+
+    /**
+     * Returns the hash of the mapper configuration of this index.
+     *
+     * @return the hash of the mapper configuration
+     */
+    public long getConfigHash() {
+        return fConfigHash;
+    }
+
+    private int getInt(long pos) throws IOException {
+        MappedByteBuffer chunk = getChunk(pos, 4);
+        return chunk != null ? chunk.getInt((int) (pos & (fChunkSize - 1))) : 0;
+    }
+
+    private long getLong(long pos) throws IOException {
+        MappedByteBuffer chunk = getChunk(pos, 8);
+        return chunk != null
+            ? chunk.getLong((int) (pos & (fChunkSize - 1)))
+            : 0;
+    }
+
+    /**
+     * Returns the path associated with the given URL or <code>null</code> if
+     * this URL is not in the index.
+     *
+     * @param url the URL to search
+     * @return the path corresponding to the given URL
+     * @throws IOException
+     */
+    public String getPath(String url) throws IOException {
+        return find(url, true);
+    }
+
+    private long getSlot(long hash) {
+        return (hash & Long.MAX_VALUE) % fTableSize;
+    }
+
+    /**
+     * Returns the URL associated with the given path or <code>null</code> if
+     * this path is not in the index.
+     *
+     * @param path the path to search
+     * @return the URL corresponding to the given path
+     * @throws IOException
+     */
+    public String getUrl(String path) throws IOException {
+        return find(path, false);
+    }
+
+    /**
+     * Returns <code>true</code> if this read-only index was created for a
+     * different mapper configuration; stale indexes do not return entries.
+     *
+     * @return <code>true</code> if this index is stale
+     */
+    public boolean isStale() {
+        try {
+            checkGeneration();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return fStale;
+    }
+
+    /**
+     * Returns <code>true</code> if the opened file contains a valid header.
+     */
+    private boolean isValid() throws IOException {
+        return fChannel.size() >= HEADER_SIZE
+            && getInt(0) == MAGIC
+            && getInt(4) == VERSION;
+    }
+
+    private synchronized MappedByteBuffer mapChunk(int idx, long end)
+        throws IOException {
+        MappedByteBuffer chunk = fChunks.get(idx);
+        if (chunk != null && chunk.capacity() >= end) {
+            return chunk;
+        }
+        long start = (long) idx << fChunkBits;
+        long size;
+        FileChannel.MapMode mode;
+        if (fReadOnly) {
+            size = Math.min(fChunkSize, fChannel.size() - start);
+            if (size < end) {
+                return null;
+            }
+            mode = FileChannel.MapMode.READ_ONLY;
+        } else {
+            size = Math.max(MIN_MAPPING, chunk != null
+                ? chunk.capacity() * 2L
+                : 0);
+            size = Math.min(fChunkSize, Math.max(size, end));
+            mode = FileChannel.MapMode.READ_WRITE;
+        }
+        chunk = fChannel.map(mode, start, size);
+        fChunks.set(idx, chunk);
+        return chunk;
+    }
+
+    /**
+     * Opens the index file; it is not mapped yet.
+     */
+    private void open() throws IOException {
+        fFile = new RandomAccessFile(fPath, fReadOnly ? "r" : "rw");
+        fChannel = fFile.getChannel();
+        fChunks = new AtomicReferenceArray<MappedByteBuffer>(MAX_CHUNKS);
+    }
+
+    /**
+     * Adds a new entry to this writable index. If the URL is already in the
+     * index or if the index is full then this method does nothing.
+     *
+     * @param url the URL
+     * @param path the path corresponding to the URL
+     * @return <code>true</code> if the entry was added
+     * @throws IOException
+     */
+    public boolean put(String url, String path) throws IOException {
+        if (fReadOnly) {
+            throw new IllegalStateException("The index is read-only");
+        }
+        byte[] urlBytes = url.getBytes(UTF8);
+        byte[] pathBytes = path.getBytes(UTF8);
+        int len = 8 + urlBytes.length + pathBytes.length;
+        if (len > fChunkSize) {
+            throw new IllegalArgumentException("The entry is too big");
+        }
+        fLock.writeLock().lock();
+        try {
+            long count = getLong(COUNT);
+            if (count >= fTableSize * 3 / 4 || find(url, true) != null) {
+                return false;
+            }
+            long entry = getLong(DATA_END);
+            if ((entry & (fChunkSize - 1)) + len > fChunkSize) {
+                // Entries are never split between chunks
+                entry = ((entry >>> fChunkBits) + 1) << fChunkBits;
+            }
+            putBytes(entry, urlBytes);
+            putBytes(entry + 4 + urlBytes.length, pathBytes);
+            addSlot(HEADER_SIZE, Hashes.hash64(url), entry);
+            long pathTable = HEADER_SIZE + fTableSize * SLOT_SIZE;
+            if (getUrl(path) == null) {
+                addSlot(pathTable, Hashes.hash64(path), entry);
+            }
+            putLong(DATA_END, entry + len);
+            putLong(COUNT, count + 1);
+            return true;
+        } finally {
+            fLock.writeLock().unlock();
+        }
+    }
+
+    private void putBytes(long pos, byte[] bytes) throws IOException {
+        MappedByteBuffer chunk = getChunk(pos, 4 + bytes.length);
+        int offset = (int) (pos & (fChunkSize - 1));
+        chunk.putInt(offset, bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            chunk.put(offset + 4 + i, bytes[i]);
+        }
+    }
+
+    private void putLong(long pos, long value) throws IOException {
+        getChunk(pos, 8).putLong((int) (pos & (fChunkSize - 1)), value);
+    }
+
+    /**
+     * Reads fields of the header of the opened file which are not changed by
+     * writers.
+     */
+    private void readHeader() throws IOException {
+        fStale = getLong(CONFIG_HASH) != fConfigHash;
+        fTableSize = getLong(TABLE_SIZE);
+        fGeneration = getLong(GENERATION);
+    }
+
+    private String readString(long pos) throws IOException {
+        int len = getInt(pos);
+        MappedByteBuffer chunk = getChunk(pos + 4, len);
+        if (chunk == null) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        int offset = (int) ((pos + 4) & (fChunkSize - 1));
+        for (int i = 0; i < len; i++) {
+            bytes[i] = chunk.get(offset + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Re-opens the index file re-created by a writer (read-only indexes).
+     */
+    private void reopen() throws IOException {
+        fLock.writeLock().lock();
+        try {
+            if (getLong(GENERATION) == fGeneration) {
+                return;
+            }
+            RandomAccessFile file = fFile;
+            open();
+            file.close();
+            if (isValid()) {
+                readHeader();
+            } else {
+                fStale = true;
+                fGeneration = getLong(GENERATION);
+            }
+        } finally {
+            fLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Creates a new empty index in a temporary file and replaces the index
+     * file with it. The old file is not truncated, so readers mapping it are
+     * not affected; its header gets the new generation and readers re-open
+     * the index file on their next lookup.
+     */
+    private void reset(long capacity) throws IOException {
+        boolean valid = isValid();
+        long generation = valid ? getLong(GENERATION) + 1 : 1;
+        long tableSize = Math.max(16, capacity + capacity / 3 + 1);
+        File dir = fPath.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(fPath.getName(), ".tmp", dir);
+        try {
+            RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+            try {
+                out.setLength(HEADER_SIZE);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.seek(CONFIG_HASH);
+                out.writeLong(fConfigHash);
+                out.seek(TABLE_SIZE);
+                out.writeLong(tableSize);
+                out.seek(COUNT);
+                out.writeLong(0);
+                out.seek(DATA_END);
+                out.writeLong(HEADER_SIZE + 2 * tableSize * SLOT_SIZE);
+                out.seek(GENERATION);
+                out.writeLong(generation);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(fPath)) {
+                throw new IOException("Can not replace the index file: "
+                    + fPath);
+            }
+        } finally {
+            tmp.delete();
+        }
+        if (valid) {
+            putLong(GENERATION, generation);
+            flush();
+        }
+        fFile.close();
+        open();
+    }
+
+    /**
+     * Returns the number of entries in this index.
+     *
+     * @return the number of entries in this index
+     */
+    public long size() {
+        try {
+            checkGeneration();
+            fLock.readLock().lock();
+            try {
+                return fStale ? 0 : getLong(COUNT);
+            } finally {
+                fLock.readLock().unlock();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the path corresponding to the given URL. If this URL is not
+     * in the index then the path is calculated by the specified mapper and
+     * added to this index (if the index is writable).
+     *
+     * @param mapper the mapper used to calculate paths of new URLs; it should
+     *        have the configuration corresponding to the hash of this index
+     * @param url the URL to transform
+     * @return the path corresponding to the given URL
+     * @throws IOException
+     */
+    public String uriToPath(UrlToPathMapper mapper, String url)
+        throws IOException {
+        String path = getPath(url);
+        if (path == null) {
+            path = mapper.uriToPathString(url);
+            if (path != null && !fReadOnly) {
+                put(url, path);
+            }
+        }
+        return path;
+    }
+
+}
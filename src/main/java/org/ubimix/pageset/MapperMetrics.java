@@ -0,0 +1,407 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class collects statistics about transformations performed by an
+ * {@link UrlToPathMapper}. Metrics are disabled by default; they are enabled
+ * by setting an instance of this class with the
+ * {@link UrlToPathMapper#setMetrics(MapperMetrics)} method.
+ * <p>
+ * For each direction (URL-to-path and path-to-URL) this class keeps:
+ * </p>
+ * <ul>
+ * <li>the number of inputs without a corresponding site;</li>
+ * <li>counters for each site: the number of inputs transformed by a rule
+ * (hits), the number of inputs not matched by any rule (fall-through; such
+ * suffixes are copied as is) and the number of inputs rejected by the site
+ * (misses);</li>
+ * <li>the number of matches for each transformation rule;</li>
+ * <li>sampled latency histograms for the whole transformation, for the
+ * lookup phase (building of the key and searching of the site) and for the
+ * transformation phase (regular expressions and the result string).</li>
+ * </ul>
+ * <p>
+ * Counters are striped (see {@link StripedCounter}), so concurrent threads
+ * rarely update the same memory cell. Latencies are measured only for a
+ * fraction of calls defined by the sample rate. All values are approximate
+ * when they are read while the mapper is used.
+ * </p>
+ *
+ * @author kotelnikov
+ */
+public class MapperMetrics {
+
+    /**
+     * Metrics of one transformation direction.
+     */
+    public static class OperationMetrics {
+
+        private final LatencyHistogram fLookupLatency = new LatencyHistogram();
+
+        private final StripedCounter fMisses;
+
+        /**
+         * Per-thread counters used to select sampled calls; each thread
+         * updates only its own counter.
+         */
+        private final ThreadLocal<int[]> fSampleCounter = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+
+        private final int fSampleMask;
+
+        private final ConcurrentMap<String, SiteMetrics> fSites = new ConcurrentHashMap<String, SiteMetrics>();
+
+        private final int fStripes;
+
+        private final LatencyHistogram fTotalLatency = new LatencyHistogram();
+
+        private final LatencyHistogram fTransformLatency = new LatencyHistogram();
+
+        OperationMetrics(int sampleMask, int stripes) {
+            fSampleMask = sampleMask;
+            fStripes = stripes;
+            fMisses = new StripedCounter(stripes);
+        }
+
+        /**
+         * Returns the histogram of durations of the lookup phase (building of
+         * the key and searching of the site).
+         *
+         * @return the histogram of lookup durations
+         */
+        public LatencyHistogram getLookupLatency() {
+            return fLookupLatency;
+        }
+
+        /**
+         * Returns the number of inputs without a corresponding site.
+         *
+         * @return the number of inputs without a corresponding site
+         */
+        public long getMissCount() {
+            return fMisses.get();
+        }
+
+        /**
+         * Returns a sorted map of all sites used at least once. Keys of this
+         * map are source prefixes of sites (URL prefixes for URL-to-path
+         * transformations and path prefixes for path-to-URL
+         * transformations).
+         *
+         * @return a map of site prefixes and the corresponding metrics
+         */
+        public Map<String, SiteMetrics> getSiteMetrics() {
+            return Collections
+                .unmodifiableMap(new TreeMap<String, SiteMetrics>(fSites));
+        }
+
+        /**
+         * Returns metrics for the site with the specified source prefix or
+         * <code>null</code> if this site was not used yet.
+         *
+         * @param prefix the source prefix of the site
+         * @return metrics of the specified site
+         */
+        public SiteMetrics getSiteMetrics(String prefix) {
+            return fSites.get(prefix);
+        }
+
+        /**
+         * Returns the histogram of durations of the whole transformation.
+         *
+         * @return the histogram of transformation durations
+         */
+        public LatencyHistogram getTotalLatency() {
+            return fTotalLatency;
+        }
+
+        /**
+         * Returns the histogram of durations of the transformation phase
+         * (regular expressions and building of the result).
+         *
+         * @return the histogram of durations of the transformation phase
+         */
+        public LatencyHistogram getTransformLatency() {
+            return fTransformLatency;
+        }
+
+        /**
+         * Returns metrics of the site with the specified prefix; creates them
+         * if they do not exist yet or if they were created for a smaller
+         * number of rules (the site was re-registered with more rules).
+         */
+        SiteMetrics newSiteMetrics(String prefix, int ruleCount) {
+            SiteMetrics result = fSites.get(prefix);
+            while (result == null || result.getRuleSlotCount() < ruleCount) {
+                SiteMetrics metrics = new SiteMetrics(
+                    prefix,
+                    ruleCount,
+                    fStripes);
+                if (result == null) {
+                    result = fSites.putIfAbsent(prefix, metrics);
+                    if (result == null) {
+                        result = metrics;
+                    }
+                } else if (fSites.replace(prefix, result, metrics)) {
+                    result = metrics;
+                } else {
+                    result = fSites.get(prefix);
+                }
+            }
+            return result;
+        }
+
+        void onMiss() {
+            fMisses.increment();
+        }
+
+        void record(long start, long lookupEnd, long end) {
+            fLookupLatency.record(lookupEnd - start);
+            fTransformLatency.record(end - lookupEnd);
+            fTotalLatency.record(end - start);
+        }
+
+        /**
+         * Resets all metrics of this direction.
+         */
+        public void reset() {
+            fMisses.reset();
+            fSites.clear();
+            fLookupLatency.reset();
+            fTransformLatency.reset();
+            fTotalLatency.reset();
+        }
+
+        /**
+         * Returns the current time if the current call should be measured or
+         * {@link MapperMetrics#NOT_SAMPLED} otherwise.
+         */
+        long startSample() {
+            int counter = ++fSampleCounter.get()[0];
+            return (counter & fSampleMask) == 0
+                ? System.nanoTime()
+                : NOT_SAMPLED;
+        }
+
+        @Override
+        public String toString() {
+            return "{misses="
+                + getMissCount()
+                + ", total="
+                + fTotalLatency
+                + ", lookup="
+                + fLookupLatency
+                + ", transform="
+                + fTransformLatency
+                + ", sites="
+                + getSiteMetrics()
+                + "}";
+        }
+    }
+
+    /**
+     * Metrics of one site in one transformation direction.
+     */
+    public static class SiteMetrics {
+
+        private final StripedCounter fFallThroughs;
+
+        private final StripedCounter fHits;
+
+        private final StripedCounter fMisses;
+
+        private final String fPrefix;
+
+        /**
+         * Match counters of rules; the size of this array is the number of
+         * rules of the site, so it is never re-allocated.
+         */
+        private final AtomicLongArray fRuleCounts;
+
+        SiteMetrics(String prefix, int ruleCount, int stripes) {
+            fPrefix = prefix;
+            fRuleCounts = new AtomicLongArray(ruleCount);
+            fHits = new StripedCounter(stripes);
+            fFallThroughs = new StripedCounter(stripes);
+            fMisses = new StripedCounter(stripes);
+        }
+
+        /**
+         * Returns the number of inputs not matched by any rule of this site.
+         *
+         * @return the number of inputs not matched by any rule
+         */
+        public long getFallThroughCount() {
+            return fFallThroughs.get();
+        }
+
+        /**
+         * Returns the number of inputs transformed by one of the rules of
+         * this site.
+         *
+         * @return the number of inputs transformed by rules
+         */
+        public long getHitCount() {
+            return fHits.get();
+        }
+
+        /**
+         * Returns the number of inputs rejected by this site because they do
+         * not start with the site prefix.
+         *
+         * @return the number of inputs rejected by this site
+         */
+        public long getMissCount() {
+            return fMisses.get();
+        }
+
+        /**
+         * Returns the source prefix of this site.
+         *
+         * @return the source prefix of this site
+         */
+        public String getPrefix() {
+            return fPrefix;
+        }
+
+        /**
+         * Returns the number of matches of the rule with the specified index.
+         *
+         * @param ruleIndex the index of the rule in the transformer
+         * @return the number of matches of the specified rule
+         */
+        public long getRuleCount(int ruleIndex) {
+            return ruleIndex >= 0 && ruleIndex < fRuleCounts.length()
+                ? fRuleCounts.get(ruleIndex)
+                : 0;
+        }
+
+        int getRuleSlotCount() {
+            return fRuleCounts.length();
+        }
+
+        void onMiss() {
+            fMisses.increment();
+        }
+
+        /**
+         * This method is called when the rule with the specified index is
+         * applied; negative indexes mean that no rules were applied.
+         */
+        void onRule(int ruleIndex) {
+            if (ruleIndex < 0) {
+                fFallThroughs.increment();
+                return;
+            }
+            fHits.increment();
+            if (ruleIndex < fRuleCounts.length()) {
+                fRuleCounts.incrementAndGet(ruleIndex);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "{hits="
+                + getHitCount()
+                + ", fallThroughs="
+                + getFallThroughCount()
+                + ", misses="
+                + getMissCount()
+                + "}";
+        }
+    }
+
+    /**
+     * The default sample rate; by default latencies are measured for one call
+     * of 64.
+     */
+    public static final int DEFAULT_SAMPLE_RATE = 64;
+
+    /**
+     * This value is returned by {@link OperationMetrics#startSample()} for
+     * calls which should not be measured.
+     */
+    static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    private final OperationMetrics fPathToUri;
+
+    private final OperationMetrics fUriToPath;
+
+    /**
+     * Creates a new metrics object with the default sample rate.
+     */
+    public MapperMetrics() {
+        this(DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * Creates a new metrics object measuring latencies of one call of the
+     * specified number. The sample rate is rounded up to a power of two.
+     *
+     * @param sampleRate the sample rate; 1 means that all calls are measured
+     */
+    public MapperMetrics(int sampleRate) {
+        this(sampleRate, StripedCounter.DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a new metrics object with the specified sample rate and the
+     * number of cells in counters.
+     *
+     * @param sampleRate the sample rate; 1 means that all calls are measured
+     * @param stripes the number of cells in each counter
+     */
+    public MapperMetrics(int sampleRate, int stripes) {
+        int rate = 1;
+        while (rate < sampleRate) {
+            rate <<= 1;
+        }
+        fUriToPath = new OperationMetrics(rate - 1, stripes);
+        fPathToUri = new OperationMetrics(rate - 1, stripes);
+    }
+
+    /**
+     * Returns metrics of path-to-URL transformations.
+     *
+     * @return metrics of path-to-URL transformations
+     */
+    public OperationMetrics getPathToUriMetrics() {
+        return fPathToUri;
+    }
+
+    /**
+     * Returns metrics of URL-to-path transformations.
+     *
+     * @return metrics of URL-to-path transformations
+     */
+    public OperationMetrics getUriToPathMetrics() {
+        return fUriToPath;
+    }
+
+    /**
+     * Resets all metrics.
+     */
+    public void reset() {
+        fUriToPath.reset();
+        fPathToUri.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "{uriToPath=" + fUriToPath + ", pathToUri=" + fPathToUri + "}";
+    }
+
+}
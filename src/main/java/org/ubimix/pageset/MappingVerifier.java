@@ -0,0 +1,586 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ubimix.commons.uri.Uri;
+
+/**
+ * This class checks a mapping configuration against a corpus of known URLs
+ * before it is deployed. For each URL of the corpus it verifies that:
+ * <ul>
+ * <li>the URL is transformed to a path by the {@link UrlToPathMapper};</li>
+ * <li>the path is transformed back to the original URL (round trip);</li>
+ * <li>no other URL of the corpus is transformed to the same path
+ * (collision).</li>
+ * </ul>
+ * <p>
+ * URLs are read line by line (empty lines and lines starting with "#" are
+ * ignored) and verified by batches in a pool of threads. The queue of
+ * batches is bounded, so the reading thread verifies batches itself when all
+ * workers are busy; the corpus is never loaded in memory.
+ * </p>
+ * <p>
+ * Collisions are detected with an index of 64-bit hashes of paths associated
+ * with 32-bit hashes of the corresponding URLs; it does not keep strings.
+ * Each slot of the index takes 12 bytes and tables are filled at most to 3/4
+ * before they are doubled, so the index uses from 16 to 32 bytes per distinct
+ * path. Two URLs collide if their paths have the same hash and the URLs have
+ * different hashes. The probability of a false report is negligible (about
+ * 10<sup>-4</sup> for 50 millions of paths). The index could be disabled
+ * with the {@link #setCollisionDetection(boolean)} method.
+ * </p>
+ * <p>
+ * The verified mapper should be read-only (see
+ * {@link UrlToPathMapper.Builder#build()}); result caches and metrics of the
+ * mapper are not used by this class.
+ * </p>
+ *
+ * <pre>
+ * MappingVerifier.Report report = new MappingVerifier(mapper).verify(file);
+ * if (report.getViolationCount() &gt; 0) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author kotelnikov
+ */
+public class MappingVerifier {
+
+    /**
+     * An index of path hashes split in a number of independently locked
+     * segments. Each segment is an open-addressing hash table.
+     */
+    private static class CollisionIndex {
+
+        private static class Segment {
+
+            private long[] fKeys = new long[1024];
+
+            private int fSize;
+
+            private int[] fValues = new int[1024];
+
+            /**
+             * Adds the given path hash with the corresponding URL hash and
+             * returns <code>true</code> if the same path hash was already
+             * added with a different URL hash.
+             */
+            public synchronized boolean add(long key, int value) {
+                int mask = fKeys.length - 1;
+                int idx = (int) (key ^ (key >>> 32)) & mask;
+                while (fKeys[idx] != 0) {
+                    if (fKeys[idx] == key) {
+                        return fValues[idx] != value;
+                    }
+                    idx = (idx + 1) & mask;
+                }
+                fKeys[idx] = key;
+                fValues[idx] = value;
+                if (++fSize > fKeys.length * 3 / 4) {
+                    rehash();
+                }
+                return false;
+            }
+
+            private void rehash() {
+                long[] keys = fKeys;
+                int[] values = fValues;
+                fKeys = new long[keys.length * 2];
+                fValues = new int[keys.length * 2];
+                int mask = fKeys.length - 1;
+                for (int i = 0; i < keys.length; i++) {
+                    long key = keys[i];
+                    if (key != 0) {
+                        int idx = (int) (key ^ (key >>> 32)) & mask;
+                        while (fKeys[idx] != 0) {
+                            idx = (idx + 1) & mask;
+                        }
+                        fKeys[idx] = key;
+                        fValues[idx] = values[i];
+                    }
+                }
+            }
+
+        }
+
+        private final int fMask;
+
+        private final Segment[] fSegments;
+
+        /**
+         * @param segmentCount the minimal number of segments; it is rounded
+         *        up to a power of two
+         */
+        public CollisionIndex(int segmentCount) {
+            int count = 1;
+            while (count < segmentCount) {
+                count <<= 1;
+            }
+            fSegments = new Segment[count];
+            fMask = count - 1;
+            for (int i = 0; i < count; i++) {
+                fSegments[i] = new Segment();
+            }
+        }
+
+        public boolean add(String path, String url) {
+            long key = Hashes.hash64(path);
+            if (key == 0) {
+                key = 1;
+            }
+            Segment segment = fSegments[(int) (key >>> 32) & fMask];
+            return segment.add(key, url.hashCode());
+        }
+
+    }
+
+    /**
+     * The results of a verification.
+     */
+    public static class Report {
+
+        private final AtomicLong fCollisions = new AtomicLong();
+
+        private final AtomicLong fCount = new AtomicLong();
+
+        private long fDuration;
+
+        private final AtomicLong fErrors = new AtomicLong();
+
+        private final int fMaxViolations;
+
+        private final AtomicLong fRoundTrips = new AtomicLong();
+
+        private final AtomicLong fUnmapped = new AtomicLong();
+
+        private final List<Violation> fViolations = new ArrayList<Violation>();
+
+        Report(int maxViolations) {
+            fMaxViolations = maxViolations;
+        }
+
+        void addViolation(Violation violation) {
+            switch (violation.getType()) {
+                case UNMAPPED:
+                    fUnmapped.incrementAndGet();
+                    break;
+                case ROUND_TRIP:
+                    fRoundTrips.incrementAndGet();
+                    break;
+                case COLLISION:
+                    fCollisions.incrementAndGet();
+                    break;
+                default:
+                    fErrors.incrementAndGet();
+                    break;
+            }
+            synchronized (fViolations) {
+                if (fViolations.size() < fMaxViolations) {
+                    fViolations.add(violation);
+                }
+            }
+        }
+
+        /**
+         * Returns the number of URLs transformed to a path already produced
+         * by another URL.
+         *
+         * @return the number of collisions
+         */
+        public long getCollisionCount() {
+            return fCollisions.get();
+        }
+
+        /**
+         * Returns the number of verified URLs.
+         *
+         * @return the number of verified URLs
+         */
+        public long getCount() {
+            return fCount.get();
+        }
+
+        /**
+         * Returns the duration of the verification in milliseconds.
+         *
+         * @return the duration of the verification in milliseconds
+         */
+        public long getDuration() {
+            return fDuration / 1000000;
+        }
+
+        /**
+         * Returns the number of URLs which could not be transformed because
+         * the mapper thrown an exception.
+         *
+         * @return the number of transformation errors
+         */
+        public long getErrorCount() {
+            return fErrors.get();
+        }
+
+        /**
+         * Returns the number of URLs transformed to a path which is not
+         * transformed back to the same URL.
+         *
+         * @return the number of round trip violations
+         */
+        public long getRoundTripCount() {
+            return fRoundTrips.get();
+        }
+
+        /**
+         * Returns the number of verified URLs per second.
+         *
+         * @return the number of verified URLs per second
+         */
+        public double getThroughput() {
+            return fDuration > 0 ? getCount() * 1e9 / fDuration : 0;
+        }
+
+        /**
+         * Returns the number of URLs without corresponding paths.
+         *
+         * @return the number of URLs without corresponding paths
+         */
+        public long getUnmappedCount() {
+            return fUnmapped.get();
+        }
+
+        /**
+         * Returns the total number of violations of all types.
+         *
+         * @return the total number of violations
+         */
+        public long getViolationCount() {
+            return getUnmappedCount()
+                + getRoundTripCount()
+                + getCollisionCount()
+                + getErrorCount();
+        }
+
+        /**
+         * Returns the first violations found by the verification; the size
+         * of this list is limited by the
+         * {@link MappingVerifier#setMaxViolations(int)} method. The order of
+         * violations is not defined.
+         *
+         * @return a list of violations
+         */
+        public List<Violation> getViolations() {
+            synchronized (fViolations) {
+                return Collections
+                    .unmodifiableList(new ArrayList<Violation>(fViolations));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "{count="
+                + getCount()
+                + ", unmapped="
+                + getUnmappedCount()
+                + ", roundTrips="
+                + getRoundTripCount()
+                + ", collisions="
+                + getCollisionCount()
+                + ", errors="
+                + getErrorCount()
+                + ", duration="
+                + getDuration()
+                + "ms, throughput="
+                + Math.round(getThroughput())
+                + "/s}";
+        }
+    }
+
+    /**
+     * A problem found for one URL of the corpus.
+     */
+    public static class Violation {
+
+        private final String fPath;
+
+        private final String fResult;
+
+        private final Type fType;
+
+        private final String fUrl;
+
+        public Violation(Type type, String url, String path, String result) {
+            fType = type;
+            fUrl = url;
+            fPath = path;
+            fResult = result;
+        }
+
+        /**
+         * Returns the path produced for the URL or <code>null</code> if
+         * there is no such a path.
+         *
+         * @return the path produced for the URL
+         */
+        public String getPath() {
+            return fPath;
+        }
+
+        /**
+         * Returns the URL produced from the path for round trip violations
+         * or the error message for errors; otherwise it returns
+         * <code>null</code>.
+         *
+         * @return the URL produced from the path or the error message
+         */
+        public String getResult() {
+            return fResult;
+        }
+
+        public Type getType() {
+            return fType;
+        }
+
+        /**
+         * Returns the verified URL.
+         *
+         * @return the verified URL
+         */
+        public String getUrl() {
+            return fUrl;
+        }
+
+        @Override
+        public String toString() {
+            return fType
+                + ": "
+                + fUrl
+                + " => "
+                + fPath
+                + (fResult != null ? " => " + fResult : "");
+        }
+    }
+
+    /**
+     * Types of violations.
+     */
+    public enum Type {
+        COLLISION, ERROR, ROUND_TRIP, UNMAPPED
+    }
+
+    /**
+     * The default number of URLs verified by one task.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    /**
+     * The default maximal number of violations kept in reports.
+     */
+    public static final int DEFAULT_MAX_VIOLATIONS = 1000;
+
+    private int fBatchSize = DEFAULT_BATCH_SIZE;
+
+    private boolean fCollisionDetection = true;
+
+    private final UrlToPathMapper fMapper;
+
+    private int fMaxViolations = DEFAULT_MAX_VIOLATIONS;
+
+    private int fThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param mapper the mapper to verify
+     */
+    public MappingVerifier(UrlToPathMapper mapper) {
+        fMapper = mapper;
+    }
+
+    /**
+     * Sets the number of URLs verified by one task.
+     *
+     * @param batchSize the number of URLs in one task
+     * @return reference to this object
+     */
+    public MappingVerifier setBatchSize(int batchSize) {
+        fBatchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    /**
+     * Enables or disables the detection of collisions. Without collisions
+     * the verification uses almost no memory.
+     *
+     * @param collisionDetection <code>true</code> if collisions should be
+     *        detected
+     * @return reference to this object
+     */
+    public MappingVerifier setCollisionDetection(boolean collisionDetection) {
+        fCollisionDetection = collisionDetection;
+        return this;
+    }
+
+    /**
+     * Sets the maximal number of violations kept in reports. Violations are
+     * counted even if they are not kept.
+     *
+     * @param maxViolations the maximal number of violations in reports
+     * @return reference to this object
+     */
+    public MappingVerifier setMaxViolations(int maxViolations) {
+        fMaxViolations = maxViolations;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads verifying URLs. By default it is the number
+     * of available processors.
+     *
+     * @param threads the number of threads
+     * @return reference to this object
+     */
+    public MappingVerifier setThreads(int threads) {
+        fThreads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * Verifies all URLs from the specified UTF-8 file (one URL per line).
+     *
+     * @param file the file containing URLs
+     * @return the verification report
+     * @throws IOException
+     */
+    public Report verify(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            return verify(new InputStreamReader(input, "UTF-8"));
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Verifies all URLs from the given reader (one URL per line). The reader
+     * is not closed by this method.
+     *
+     * @param input the reader providing URLs
+     * @return the verification report
+     * @throws IOException
+     */
+    public Report verify(Reader input) throws IOException {
+        final Report report = new Report(fMaxViolations);
+        final CollisionIndex index = fCollisionDetection
+            ? new CollisionIndex(fThreads * 8)
+            : null;
+        long start = System.nanoTime();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            fThreads,
+            fThreads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(fThreads * 2),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            BufferedReader reader = new BufferedReader(input);
+            List<String> batch = new ArrayList<String>(fBatchSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                batch.add(line);
+                if (batch.size() == fBatchSize) {
+                    submit(executor, batch, report, index);
+                    batch = new ArrayList<String>(fBatchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(executor, batch, report, index);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Wait for remaining batches
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            IOException error = new IOException("Verification interrupted");
+            error.initCause(e);
+            throw error;
+        }
+        report.fDuration = System.nanoTime() - start;
+        return report;
+    }
+
+    private void submit(
+        ThreadPoolExecutor executor,
+        final List<String> batch,
+        final Report report,
+        final CollisionIndex index) {
+        executor.execute(new Runnable() {
+            public void run() {
+                for (String url : batch) {
+                    verify(url, report, index);
+                }
+                report.fCount.addAndGet(batch.size());
+            }
+        });
+    }
+
+    private void verify(String url, Report report, CollisionIndex index) {
+        String path = null;
+        try {
+            path = fMapper.uriToPathString(url);
+            if (path == null) {
+                report.addViolation(new Violation(
+                    Type.UNMAPPED,
+                    url,
+                    null,
+                    null));
+                return;
+            }
+            String back = fMapper.pathToUriString(path);
+            if (back == null
+                || (!back.equals(url) && !back.equals(new Uri(url)
+                    .toString()))) {
+                report.addViolation(new Violation(
+                    Type.ROUND_TRIP,
+                    url,
+                    path,
+                    back));
+            }
+            if (index != null && index.add(path, url)) {
+                report.addViolation(new Violation(
+                    Type.COLLISION,
+                    url,
+                    path,
+                    null));
+            }
+        } catch (RuntimeException e) {
+            report.addViolation(new Violation(
+                Type.ERROR,
+                url,
+                path,
+                e.toString()));
+        }
+    }
+
+}
@@ -3,18 +3,28 @@
  */
 package org.ubimix.pageset;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This is a registry of {@link PageSetConfig} used to register/retrieve page
  * set configurations by their unique keys.
+ * <p>
+ * This class is thread-safe. Configurations are kept in an immutable map
+ * which is replaced by a modified copy each time when the registry is
+ * changed. So reads never block and never contend with each other or with
+ * writers; writers are serialized by compare-and-swap operations. This
+ * registry is designed for frequent reads and rare modifications.
+ * </p>
  * 
  * @author kotelnikov
  */
 public class PageSetConfigRegistry {
 
-    private Map<String, PageSetConfig> fRegistry = new HashMap<String, PageSetConfig>();
+    private final AtomicReference<Map<String, PageSetConfig>> fRegistry = new AtomicReference<Map<String, PageSetConfig>>(
+        Collections.<String, PageSetConfig> emptyMap());
 
     /**
      * 
@@ -32,9 +42,17 @@ public class PageSetConfigRegistry {
      *         key
      */
     public PageSetConfig getPageSetConfig(String key) {
-        synchronized (fRegistry) {
-            return fRegistry.get(key);
-        }
+        return fRegistry.get().get(key);
+    }
+
+    /**
+     * Returns an unmodifiable snapshot of all registered configurations. The
+     * returned map is not changed when the registry is modified.
+     * 
+     * @return a map of keys and the corresponding configurations
+     */
+    public Map<String, PageSetConfig> getPageSetConfigs() {
+        return fRegistry.get();
     }
 
     /**
@@ -45,8 +63,62 @@ public class PageSetConfigRegistry {
      * @param config the configuration object to register
      */
     public void registerPageSetConfig(String key, PageSetConfig config) {
-        synchronized (fRegistry) {
-            fRegistry.put(key, config);
+        registerPageSetConfigs(Collections.singletonMap(key, config));
+    }
+
+    /**
+     * Atomically registers all the given configurations. Readers see either
+     * none or all of the new configurations.
+     * 
+     * @param configs a map of keys and the corresponding configurations
+     */
+    public void registerPageSetConfigs(Map<String, PageSetConfig> configs) {
+        while (true) {
+            Map<String, PageSetConfig> registry = fRegistry.get();
+            Map<String, PageSetConfig> copy = new HashMap<String, PageSetConfig>(
+                registry);
+            copy.putAll(configs);
+            if (fRegistry.compareAndSet(
+                registry,
+                Collections.unmodifiableMap(copy))) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Atomically replaces the configuration associated with the specified
+     * key if the current configuration is the expected one.
+     * 
+     * @param key the key of the configuration
+     * @param expected the expected current configuration; if it is
+     *        <code>null</code> then the new configuration is registered only
+     *        if there is no configurations for this key
+     * @param config the new configuration; if it is <code>null</code> then
+     *        the current configuration is removed
+     * @return <code>true</code> if the configuration was replaced
+     */
+    public boolean replacePageSetConfig(
+        String key,
+        PageSetConfig expected,
+        PageSetConfig config) {
+        while (true) {
+            Map<String, PageSetConfig> registry = fRegistry.get();
+            if (registry.get(key) != expected) {
+                return false;
+            }
+            Map<String, PageSetConfig> copy = new HashMap<String, PageSetConfig>(
+                registry);
+            if (config != null) {
+                copy.put(key, config);
+            } else {
+                copy.remove(key);
+            }
+            if (fRegistry.compareAndSet(
+                registry,
+                Collections.unmodifiableMap(copy))) {
+                return true;
+            }
         }
     }
 
@@ -59,8 +131,20 @@ public class PageSetConfigRegistry {
      *         specified key
      */
     public PageSetConfig unregisterPageSetConfig(String key) {
-        synchronized (fRegistry) {
-            return fRegistry.remove(key);
+        while (true) {
+            Map<String, PageSetConfig> registry = fRegistry.get();
+            PageSetConfig result = registry.get(key);
+            if (result == null) {
+                return null;
+            }
+            Map<String, PageSetConfig> copy = new HashMap<String, PageSetConfig>(
+                registry);
+            copy.remove(key);
+            if (fRegistry.compareAndSet(
+                registry,
+                Collections.unmodifiableMap(copy))) {
+                return result;
+            }
         }
     }
 
@@ -0,0 +1,312 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A pre-parsed replacement string of a transformation rule. The replacement
+ * is split in literal parts and references to capturing groups once, so
+ * results are built directly from groups of a successful match without
+ * re-parsing the replacement and without evaluating the expression again
+ * (as {@link Matcher#replaceAll(String)} does).
+ * <p>
+ * Templates are created only for expressions anchored at both ends
+ * (<code>^...$</code>) without top level alternatives and inline flags. For
+ * such expressions {@link Matcher#replaceAll(String)} called on a string
+ * matched as a whole performs exactly one replacement, so templates give
+ * the same results. For other expressions (for example "(.*)" where
+ * {@link Matcher#replaceAll(String)} replaces also the empty match at the
+ * end of the string) the {@link #newTemplate(Pattern, String)} method
+ * returns <code>null</code>.
+ * </p>
+ * <p>
+ * Instances of this class are immutable and thread-safe. Results are built
+ * in a buffer reused by each thread.
+ * </p>
+ *
+ * @author kotelnikov
+ */
+class ReplacementTemplate {
+
+    /**
+     * Buffers bigger than this size are not kept between calls.
+     */
+    private static final int MAX_BUFFER_SIZE = 1024 * 4;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
+
+    /**
+     * Returns <code>true</code> if the given expression starts with "^",
+     * ends with "$" and does not contain top level alternatives or inline
+     * flags.
+     */
+    static boolean isAnchored(String regexp) {
+        int len = regexp.length();
+        if (len < 2
+            || regexp.charAt(0) != '^'
+            || regexp.charAt(len - 1) != '$') {
+            return false;
+        }
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 1; i < len - 1; i++) {
+            char ch = regexp.charAt(i);
+            if (ch == '\\') {
+                if (regexp.charAt(i + 1) == 'Q') {
+                    return false;
+                }
+                i++;
+            } else if (inClass) {
+                if (ch == ']') {
+                    inClass = false;
+                }
+            } else if (ch == '[') {
+                inClass = true;
+                if (i + 1 < len && regexp.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < len && regexp.charAt(i + 1) == ']') {
+                    i++;
+                }
+            } else if (ch == '(') {
+                if (i + 2 < len && regexp.charAt(i + 1) == '?') {
+                    char c = regexp.charAt(i + 2);
+                    if (c != ':'
+                        && c != '='
+                        && c != '!'
+                        && c != '>'
+                        && c != '<') {
+                        return false;
+                    }
+                }
+                depth++;
+            } else if (ch == ')') {
+                depth--;
+            } else if (ch == '|' && depth == 0) {
+                return false;
+            }
+        }
+        // The last "$" should not be escaped
+        int count = 0;
+        for (int i = len - 2; i >= 0 && regexp.charAt(i) == '\\'; i--) {
+            count++;
+        }
+        return count % 2 == 0 && depth == 0 && !inClass;
+    }
+
+    private static boolean isLineTerminator(char ch) {
+        return ch == '\n'
+            || ch == '\r'
+            || ch == '\u0085'
+            || ch == '\u2028'
+            || ch == '\u2029';
+    }
+
+    /**
+     * Parses the given replacement string and returns the corresponding
+     * template or <code>null</code> if the replacement can not be pre-parsed
+     * for the given expression.
+     *
+     * @param pattern the compiled expression
+     * @param replacement the replacement string (see
+     *        {@link Matcher#appendReplacement(StringBuffer, String)})
+     * @return a new template or <code>null</code>
+     */
+    public static ReplacementTemplate newTemplate(
+        Pattern pattern,
+        String replacement) {
+        if (!isAnchored(pattern.pattern())) {
+            return null;
+        }
+        int groupCount = pattern.matcher("").groupCount();
+        List<String> literals = new ArrayList<String>();
+        List<Integer> groups = new ArrayList<Integer>();
+        StringBuilder literal = new StringBuilder();
+        int len = replacement.length();
+        int i = 0;
+        while (i < len) {
+            char ch = replacement.charAt(i);
+            if (ch == '\\') {
+                i++;
+                if (i >= len) {
+                    return null;
+                }
+                literal.append(replacement.charAt(i));
+                i++;
+            } else if (ch == '$') {
+                i++;
+                if (i >= len) {
+                    return null;
+                }
+                int group = replacement.charAt(i) - '0';
+                if (group < 0 || group > 9 || group > groupCount) {
+                    // Named or invalid references are left to the matcher
+                    return null;
+                }
+                i++;
+                // Following digits are used while the reference is valid
+                while (i < len) {
+                    int digit = replacement.charAt(i) - '0';
+                    if (digit < 0 || digit > 9) {
+                        break;
+                    }
+                    int next = group * 10 + digit;
+                    if (next > groupCount) {
+                        break;
+                    }
+                    group = next;
+                    i++;
+                }
+                literals.add(literal.toString());
+                groups.add(group);
+                literal.setLength(0);
+            } else {
+                literal.append(ch);
+                i++;
+            }
+        }
+        literals.add(literal.toString());
+        int[] groupArray = new int[groups.size()];
+        for (int j = 0; j < groupArray.length; j++) {
+            groupArray[j] = groups.get(j);
+        }
+        return new ReplacementTemplate(
+            literals.toArray(new String[literals.size()]),
+            groupArray);
+    }
+
+    /**
+     * Indexes of groups inserted after the corresponding literals.
+     */
+    private final int[] fGroups;
+
+    /**
+     * Literal parts; there is one literal more than groups.
+     */
+    private final String[] fLiterals;
+
+    private ReplacementTemplate(String[] literals, int[] groups) {
+        fLiterals = literals;
+        fGroups = groups;
+    }
+
+    /**
+     * Returns <code>true</code> if this template gives the same result as
+     * {@link Matcher#replaceAll(String)} for the given string matched as a
+     * whole. It is not the case for strings ending with a line terminator
+     * because "$" could match before it.
+     *
+     * @param str the matched string
+     * @return <code>true</code> if this template could be applied
+     */
+    public boolean accepts(String str) {
+        return accepts(str, 0, str.length());
+    }
+
+    /**
+     * Returns <code>true</code> if this template could be applied to the
+     * specified region of the given character sequence matched as a whole.
+     *
+     * @param str the character sequence containing the matched string
+     * @param begin the start position of the matched string
+     * @param end the end position of the matched string
+     * @return <code>true</code> if this template could be applied
+     * @see #accepts(String)
+     */
+    public boolean accepts(CharSequence str, int begin, int end) {
+        return end == begin || !isLineTerminator(str.charAt(end - 1));
+    }
+
+    /**
+     * Builds the result from groups of the given successful match.
+     *
+     * @param matcher a matcher after a successful
+     *        {@link Matcher#matches()} call
+     * @param str the matched string
+     * @return the result of the replacement
+     */
+    public String apply(Matcher matcher, String str) {
+        return apply(matcher, 0, str);
+    }
+
+    /**
+     * Builds the result from groups of the given successful match. Groups of
+     * the expression of this template are shifted by the given offset in the
+     * matcher; it is used when the expression is embedded in a bigger one
+     * (see {@link RuleSetMatcher}).
+     *
+     * @param matcher a matcher after a successful
+     *        {@link Matcher#matches()} call
+     * @param groupOffset the index of the group wrapping the expression of
+     *        this template in the matched expression or 0
+     * @param str the matched string
+     * @return the result of the replacement
+     */
+    public String apply(Matcher matcher, int groupOffset, String str) {
+        if (fGroups.length == 0) {
+            return fLiterals[0];
+        }
+        StringBuilder buf = BUFFER.get();
+        buf.setLength(0);
+        apply(matcher, groupOffset, str, buf);
+        String result = buf.toString();
+        if (buf.capacity() > MAX_BUFFER_SIZE) {
+            BUFFER.set(new StringBuilder());
+        }
+        return result;
+    }
+
+    /**
+     * Appends the result built from groups of the given successful match to
+     * the specified buffer. Groups are copied directly from the matched
+     * sequence, so this method does not create intermediate strings.
+     *
+     * @param matcher a matcher after a successful
+     *        {@link Matcher#matches()} call; the match could be limited by a
+     *        region of the sequence
+     * @param str the matched character sequence
+     * @param out the buffer where the result is appended
+     */
+    public void apply(Matcher matcher, CharSequence str, StringBuilder out) {
+        apply(matcher, 0, str, out);
+    }
+
+    /**
+     * Appends the result built from groups of the given successful match to
+     * the specified buffer.
+     *
+     * @param matcher a matcher after a successful
+     *        {@link Matcher#matches()} call
+     * @param groupOffset the index of the group wrapping the expression of
+     *        this template in the matched expression or 0
+     * @param str the matched character sequence
+     * @param out the buffer where the result is appended
+     * @see #apply(Matcher, CharSequence, StringBuilder)
+     */
+    public void apply(
+        Matcher matcher,
+        int groupOffset,
+        CharSequence str,
+        StringBuilder out) {
+        for (int i = 0; i < fGroups.length; i++) {
+            out.append(fLiterals[i]);
+            int group = groupOffset + fGroups[i];
+            int start = matcher.start(group);
+            if (start >= 0) {
+                out.append(str, start, matcher.end(group));
+            }
+        }
+        out.append(fLiterals[fGroups.length]);
+    }
+
+}
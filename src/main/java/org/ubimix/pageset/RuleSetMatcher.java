@@ -0,0 +1,405 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper.RegexpUrlTransformer.TransformationRule;
+
+/**
+ * This class compiles an ordered list of {@link TransformationRule}s into a
+ * small number of combined regular expressions. Consecutive rules are joined
+ * in one alternation "(rule1)|(rule2)|...", so a string which is not matched
+ * by any rule is rejected by one regexp evaluation instead of one evaluation
+ * per rule. The regexp engine tries alternatives from left to right, so the
+ * first rule matching the whole string is always selected - exactly as when
+ * rules are evaluated one by one.
+ * <p>
+ * Rules using constructs which can not be safely embedded in a bigger
+ * expression (back references, named groups or global inline flags) are kept
+ * as separate steps and evaluated individually, in their original position.
+ * </p>
+ * <p>
+ * Before a regular expression is evaluated, literals required by rules (see
+ * {@link TransformationRule#mayMatch(CharSequence)}) are checked; a step is
+ * skipped without calling the regexp engine if all its rules are rejected by
+ * these checks.
+ * </p>
+ * <p>
+ * Instances of this class are immutable and thread-safe.
+ * </p>
+ *
+ * @author kotelnikov
+ */
+public class RuleSetMatcher {
+
+    /**
+     * The result of a successful matching: the selected rule and the matcher
+     * used to find it. It is used to build the result of the rule without
+     * evaluating its expression again (see
+     * {@link RuleSetMatcher#apply(Match, CharSequence, int, int, StringBuilder)}
+     * ). Instances are not thread-safe; they could be reused for successive
+     * matchings in one thread.
+     */
+    public static class Match {
+
+        /**
+         * The index of the group wrapping the rule in the matched expression
+         * or 0 if the rule was evaluated individually.
+         */
+        private int fGroupOffset;
+
+        private Matcher fMatcher;
+
+        private int fRuleIndex = -1;
+
+        public Match() {
+        }
+
+        /**
+         * Returns the index of the matched rule or -1 if no rules matched.
+         *
+         * @return the index of the matched rule
+         */
+        public int getRuleIndex() {
+            return fRuleIndex;
+        }
+
+        private int set(int ruleIndex, Matcher matcher, int groupOffset) {
+            fRuleIndex = ruleIndex;
+            fMatcher = matcher;
+            fGroupOffset = groupOffset;
+            return ruleIndex;
+        }
+
+    }
+
+    /**
+     * One step of the matching. It is a set of consecutive rules joined in one
+     * regular expression or a single rule evaluated individually.
+     */
+    private static class Step {
+
+        /**
+         * Indexes of the capturing groups wrapping individual rules in the
+         * combined expression.
+         */
+        private final int[] fGroups;
+
+        /**
+         * The combined expression or <code>null</code> if this step contains
+         * just one rule.
+         */
+        private final Pattern fPattern;
+
+        /**
+         * The index of the first rule of this step in the global rule list.
+         */
+        private final int fRuleIndex;
+
+        public Step(Pattern pattern, int[] groups, int ruleIndex) {
+            fPattern = pattern;
+            fGroups = groups;
+            fRuleIndex = ruleIndex;
+        }
+
+        public int match(
+            CharSequence str,
+            int begin,
+            int end,
+            TransformationRule[] rules,
+            Match match) {
+            if (fPattern == null) {
+                TransformationRule rule = rules[fRuleIndex];
+                if (!rule.mayMatch(str, begin, end)) {
+                    return -1;
+                }
+                Matcher matcher = rule.getRegexp().matcher(str);
+                matcher.region(begin, end);
+                if (!matcher.matches()) {
+                    return -1;
+                }
+                return match != null
+                    ? match.set(fRuleIndex, matcher, 0)
+                    : fRuleIndex;
+            }
+            boolean candidate = false;
+            for (int i = 0; !candidate && i < fGroups.length; i++) {
+                candidate = rules[fRuleIndex + i].mayMatch(str, begin, end);
+            }
+            if (!candidate) {
+                return -1;
+            }
+            Matcher matcher = fPattern.matcher(str);
+            matcher.region(begin, end);
+            if (matcher.matches()) {
+                for (int i = 0; i < fGroups.length; i++) {
+                    if (matcher.start(fGroups[i]) >= 0) {
+                        return match != null ? match.set(
+                            fRuleIndex + i,
+                            matcher,
+                            fGroups[i]) : fRuleIndex + i;
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the given regular expression could be
+     * embedded in a bigger expression without changing its meaning. This
+     * method is conservative - it could reject some "safe" expressions.
+     *
+     * @param regexp the regular expression to check
+     * @return <code>true</code> if the given expression could be combined
+     *         with others
+     */
+    static boolean isCombinable(String regexp) {
+        int len = regexp.length();
+        for (int i = 0; i < len - 1; i++) {
+            char ch = regexp.charAt(i);
+            char next = regexp.charAt(i + 1);
+            if (ch == '\\') {
+                // Back references: \1 .. \9 and \k<name>; quotations (\Q)
+                // could extend to the end of the expression
+                if ((next >= '1' && next <= '9')
+                    || next == 'k'
+                    || next == 'Q') {
+                    return false;
+                }
+                i++;
+            } else if (ch == '(' && next == '?') {
+                char c = i + 2 < len ? regexp.charAt(i + 2) : 0;
+                if (c == ':' || c == '=' || c == '!' || c == '>') {
+                    continue;
+                }
+                if (c == '<') {
+                    char d = i + 3 < len ? regexp.charAt(i + 3) : 0;
+                    if (d == '=' || d == '!') {
+                        continue;
+                    }
+                }
+                // Named groups or inline flags
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private final TransformationRule[] fRules;
+
+    private final Step[] fSteps;
+
+    /**
+     * This constructor compiles the given list of rules.
+     *
+     * @param rules the list of rules to compile
+     */
+    public RuleSetMatcher(List<TransformationRule> rules) {
+        fRules = rules.toArray(new TransformationRule[rules.size()]);
+        List<Step> steps = new ArrayList<Step>();
+        int i = 0;
+        while (i < fRules.length) {
+            int end = i;
+            while (end < fRules.length
+                && isCombinable(fRules[end].getExpression())) {
+                end++;
+            }
+            if (end - i > 1) {
+                steps.add(newCombinedStep(i, end));
+                i = end;
+            } else {
+                steps.add(new Step(null, null, i));
+                i++;
+            }
+        }
+        fSteps = steps.toArray(new Step[steps.size()]);
+    }
+
+    /**
+     * Builds the result of the rule found by the given successful matching of
+     * the specified region and appends it to the buffer. The expressions of
+     * rules with pre-parsed replacements are not evaluated again.
+     *
+     * @param match the result of the matching (see the
+     *        {@link #indexOf(CharSequence, int, int, Match)} method)
+     * @param str the character sequence containing the matched string
+     * @param begin the start position of the string
+     * @param end the end position of the string
+     * @param out the buffer where the result is appended
+     */
+    public void apply(
+        Match match,
+        CharSequence str,
+        int begin,
+        int end,
+        StringBuilder out) {
+        fRules[match.fRuleIndex].apply(
+            match.fMatcher,
+            match.fGroupOffset,
+            str,
+            begin,
+            end,
+            out);
+    }
+
+    /**
+     * Builds the result of the rule found by the given successful matching of
+     * the whole string.
+     *
+     * @param match the result of the matching (see the
+     *        {@link #indexOf(CharSequence, int, int, Match)} method)
+     * @param str the matched string
+     * @return the result of the transformation
+     */
+    public String apply(Match match, String str) {
+        return fRules[match.fRuleIndex].apply(
+            match.fMatcher,
+            match.fGroupOffset,
+            str);
+    }
+
+    /**
+     * Applies the rule with the specified index to the given string and
+     * returns the result of the transformation. The rule should match the
+     * string (see the {@link #indexOf(CharSequence)} method). This method
+     * evaluates the expression of the rule again; the
+     * {@link #apply(Match, String)} method should be used when the match is
+     * available.
+     *
+     * @param ruleIndex the index of the rule to apply
+     * @param str the string to transform
+     * @return the result of the transformation
+     */
+    public String apply(int ruleIndex, String str) {
+        return fRules[ruleIndex].process(str);
+    }
+
+    /**
+     * Applies the rule with the specified index to the given region of the
+     * character sequence and appends the result to the buffer. The rule
+     * should match the region (see the
+     * {@link #indexOf(CharSequence, int, int)} method). This method evaluates
+     * the expression of the rule again.
+     *
+     * @param ruleIndex the index of the rule to apply
+     * @param str the character sequence containing the string to transform
+     * @param begin the start position of the string
+     * @param end the end position of the string
+     * @param out the buffer where the result is appended
+     * @return <code>true</code> if the rule was applied
+     */
+    public boolean apply(
+        int ruleIndex,
+        CharSequence str,
+        int begin,
+        int end,
+        StringBuilder out) {
+        return fRules[ruleIndex].process(str, begin, end, out);
+    }
+
+    /**
+     * Returns the number of rules in this set.
+     *
+     * @return the number of rules in this set
+     */
+    public int getRuleCount() {
+        return fRules.length;
+    }
+
+    /**
+     * Returns the index of the first rule matching the whole given string or
+     * -1 if no rules match it.
+     *
+     * @param str the string to check
+     * @return the index of the first rule matching the given string
+     */
+    public int indexOf(CharSequence str) {
+        return indexOf(str, 0, str.length());
+    }
+
+    /**
+     * Returns the index of the first rule matching the whole specified region
+     * of the given character sequence or -1 if no rules match it.
+     *
+     * @param str the character sequence containing the string to check
+     * @param begin the start position of the string
+     * @param end the end position of the string
+     * @return the index of the first rule matching the string
+     */
+    public int indexOf(CharSequence str, int begin, int end) {
+        return indexOf(str, begin, end, null);
+    }
+
+    /**
+     * Returns the index of the first rule matching the whole specified region
+     * of the given character sequence or -1 if no rules match it. The
+     * matcher of the successful match is kept in the given object, so the
+     * result could be built without a second matching (see the
+     * {@link #apply(Match, CharSequence, int, int, StringBuilder)} method).
+     *
+     * @param str the character sequence containing the string to check
+     * @param begin the start position of the string
+     * @param end the end position of the string
+     * @param match the object receiving the result of the matching; it
+     *        could be <code>null</code>
+     * @return the index of the first rule matching the string
+     */
+    public int indexOf(CharSequence str, int begin, int end, Match match) {
+        for (Step step : fSteps) {
+            int idx = step.match(str, begin, end, fRules, match);
+            if (idx >= 0) {
+                return idx;
+            }
+        }
+        if (match != null) {
+            match.set(-1, null, 0);
+        }
+        return -1;
+    }
+
+    /**
+     * Creates a step combining rules in the specified range.
+     */
+    private Step newCombinedStep(int begin, int end) {
+        StringBuilder buf = new StringBuilder();
+        int[] groups = new int[end - begin];
+        int group = 1;
+        for (int i = begin; i < end; i++) {
+            Pattern pattern = fRules[i].getRegexp();
+            if (i > begin) {
+                buf.append('|');
+            }
+            buf.append('(').append(pattern.pattern()).append(')');
+            groups[i - begin] = group;
+            group += pattern.matcher("").groupCount() + 1;
+        }
+        Pattern pattern = Pattern.compile(buf.toString());
+        return new Step(pattern, groups, begin);
+    }
+
+    /**
+     * Applies the first rule matching the given string and returns the result
+     * of the transformation or <code>null</code> if no rules match it.
+     *
+     * @param str the string to transform
+     * @return the result of the transformation
+     */
+    public String process(String str) {
+        Match match = new Match();
+        int idx = indexOf(str, 0, str.length(), match);
+        return idx >= 0 ? apply(match, str) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "RuleSetMatcher" + Arrays.asList(fRules);
+    }
+
+}
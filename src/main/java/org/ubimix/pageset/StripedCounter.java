@@ -0,0 +1,114 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe counter split in a number of independent cells. Each thread
+ * updates a cell selected by its identifier, so concurrent threads rarely
+ * update the same cell. The value of the counter is the sum of all cells.
+ * Cells are placed 64 bytes apart, so different cells do not share a cache
+ * line.
+ *
+ * @author kotelnikov
+ */
+public class StripedCounter {
+
+    /**
+     * The default number of cells; it is the number of available processors
+     * rounded up to a power of two (but not more than 16).
+     */
+    public static final int DEFAULT_STRIPES;
+
+    /**
+     * The distance between cells in the array of values (64 bytes).
+     */
+    private static final int PADDING = 8;
+
+    static {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int count = 1;
+        while (count < processors && count < 16) {
+            count <<= 1;
+        }
+        DEFAULT_STRIPES = count;
+    }
+
+    private final AtomicLongArray fCells;
+
+    private final int fMask;
+
+    /**
+     * Creates a new counter with the default number of cells.
+     */
+    public StripedCounter() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a new counter with the specified number of cells. This number
+     * is rounded up to a power of two.
+     *
+     * @param stripes the number of cells
+     */
+    public StripedCounter(int stripes) {
+        int count = 1;
+        while (count < stripes) {
+            count <<= 1;
+        }
+        fCells = new AtomicLongArray(count * PADDING);
+        fMask = count - 1;
+    }
+
+    /**
+     * Adds the given value to this counter.
+     *
+     * @param delta the value to add
+     */
+    public void add(long delta) {
+        fCells.addAndGet(getCell(), delta);
+    }
+
+    /**
+     * Returns the current value of this counter.
+     *
+     * @return the current value of this counter
+     */
+    public long get() {
+        long result = 0;
+        for (int i = 0; i < fCells.length(); i += PADDING) {
+            result += fCells.get(i);
+        }
+        return result;
+    }
+
+    private int getCell() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h >>> 16) & fMask) * PADDING;
+    }
+
+    /**
+     * Increments this counter.
+     */
+    public void increment() {
+        fCells.incrementAndGet(getCell());
+    }
+
+    /**
+     * Resets this counter to zero.
+     */
+    public void reset() {
+        for (int i = 0; i < fCells.length(); i += PADDING) {
+            fCells.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(get());
+    }
+
+}
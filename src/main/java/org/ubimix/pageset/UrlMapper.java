@@ -3,20 +3,43 @@
  */
 package org.ubimix.pageset;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.ubimix.commons.uri.Path;
 import org.ubimix.commons.uri.Uri;
 import org.ubimix.commons.uri.UriToPath;
-import org.ubimix.commons.uri.path.PathManager;
+import org.ubimix.pageset.UrlPrefixTrie.IEntryVisitor;
 
 /**
+ * This mapper associates URLs of various types with base URLs. All types
+ * share one prefix tree: each registered base keeps a map of types and the
+ * corresponding URLs. So the key of an URL is calculated only once and URLs of
+ * all types are collected in one walk of the tree (see the
+ * {@link #getUrls(Uri)} and {@link #getUrls(Set, Uri)} methods).
+ * 
  * @author kotelnikov
  */
-public class UrlMapper implements IUrlMapper {
+public class UrlMapper implements ITypedUrlMapper {
+
+    /**
+     * Base keys and the corresponding maps of types and URLs.
+     */
+    private UrlPrefixTrie<Map<String, Uri>> fEntries = new UrlPrefixTrie<Map<String, Uri>>();
 
-    private Map<String, PathManager<Uri>> fPathManagers = new HashMap<String, PathManager<Uri>>();
+    private Set<String> fTypes = new TreeSet<String>();
+
+    /**
+     * This counter is incremented each time when URLs of this mapper are
+     * changed.
+     */
+    private volatile int fVersion;
 
     public UrlMapper() {
     }
@@ -24,7 +47,25 @@ public class UrlMapper implements IUrlMapper {
     protected String getKey(Uri baseUrl) {
         Path path = UriToPath.getPath(baseUrl);
         String key = path.toString();
-        return key;
+        return normalizeKey(key);
+    }
+
+    /**
+     * Returns maps of types and URLs associated with all bases of the given
+     * key; maps are ordered from the longest base to the shortest one.
+     */
+    private List<Map<String, Uri>> getMatchingEntries(String key) {
+        List<Map<String, Uri>> list = new ArrayList<Map<String, Uri>>(4);
+        fEntries.getMatchingValues(key, 0, key.length(), list);
+        Collections.reverse(list);
+        return list;
+    }
+
+    /**
+     * @see org.ubimix.pageset.ITypedUrlMapper#getTypes()
+     */
+    public Set<String> getTypes() {
+        return Collections.unmodifiableSet(new TreeSet<String>(fTypes));
     }
 
     /**
@@ -32,29 +73,148 @@ public class UrlMapper implements IUrlMapper {
      *      org.ubimix.commons.uri.Uri)
      */
     public Uri getUrl(String type, Uri baseUrl) {
-        PathManager<Uri> pathManager = fPathManagers.get(type);
-        Uri result = null;
-        if (pathManager != null) {
-            String key = getKey(baseUrl);
-            result = pathManager.getNearestValue(key);
+        if (type == null || !fTypes.contains(type)) {
+            return null;
+        }
+        String key = getKey(baseUrl);
+        for (Map<String, Uri> entry : getMatchingEntries(key)) {
+            Uri result = entry.get(type);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns URLs of the specified types associated with the given URL. The
+     * key of the URL is calculated only once and all types are resolved in one
+     * walk of the internal prefix tree.
+     * 
+     * @param types the types of URLs to return
+     * @param baseUrl the URL used to detect the base URL
+     * @return a map of types and the corresponding URLs; types without URLs
+     *         are not included in this map
+     */
+    public Map<String, Uri> getUrls(Set<String> types, Uri baseUrl) {
+        Map<String, Uri> result = new HashMap<String, Uri>();
+        String key = getKey(baseUrl);
+        for (Map<String, Uri> entry : getMatchingEntries(key)) {
+            for (String type : types) {
+                if (!result.containsKey(type)) {
+                    Uri uri = entry.get(type);
+                    if (uri != null) {
+                        result.put(type, uri);
+                    }
+                }
+            }
+            if (result.size() == types.size()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns URLs of all types associated with the given URL.
+     * 
+     * @param baseUrl the URL used to detect the base URL
+     * @return a map of types and the corresponding URLs
+     * @see #getUrls(Set, Uri)
+     */
+    public Map<String, Uri> getUrls(Uri baseUrl) {
+        Map<String, Uri> result = new HashMap<String, Uri>();
+        String key = getKey(baseUrl);
+        for (Map<String, Uri> entry : getMatchingEntries(key)) {
+            for (Map.Entry<String, Uri> e : entry.entrySet()) {
+                if (!result.containsKey(e.getKey())) {
+                    result.put(e.getKey(), e.getValue());
+                }
+            }
         }
         return result;
     }
 
+    /**
+     * Returns all URLs of the specified type. Keys of the returned map are
+     * normalized keys of base URLs (see the {@link #getKey(Uri)} method);
+     * they could be used to restore the mapping with the
+     * {@link #setUrlByKey(String, String, Uri)} method.
+     * 
+     * @param type the type of URLs
+     * @return a map of base URL keys and the corresponding URLs
+     */
+    public Map<String, Uri> getUrlsByKey(final String type) {
+        final Map<String, Uri> result = new LinkedHashMap<String, Uri>();
+        fEntries.visit(new IEntryVisitor<Map<String, Uri>>() {
+            public void visit(String key, Map<String, Uri> value) {
+                Uri uri = value.get(type);
+                if (uri != null) {
+                    result.put(key, uri);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @see org.ubimix.pageset.ITypedUrlMapper#getVersion()
+     */
+    public int getVersion() {
+        return fVersion;
+    }
+
+    /**
+     * Removes trailing separators from the given key, so "a/b" and "a/b/"
+     * define the same base.
+     */
+    private String normalizeKey(String key) {
+        int end = key.length();
+        while (end > 0 && key.charAt(end - 1) == '/') {
+            end--;
+        }
+        return end < key.length() ? key.substring(0, end) : key;
+    }
+
     /**
      * @param type
      * @param baseUrl
      * @param uri
      */
     public UrlMapper setUrl(String type, Uri baseUrl, Uri uri) {
-        PathManager<Uri> pathManager = fPathManagers.get(type);
-        if (pathManager == null) {
-            pathManager = new PathManager<Uri>();
-            fPathManagers.put(type, pathManager);
-        }
         String key = getKey(baseUrl);
-        pathManager.add(key, uri);
+        return setUrlByKey(type, key, uri);
+    }
+
+    /**
+     * Associates an URL of the specified type with a base URL defined by its
+     * normalized key (see the {@link #getUrlsByKey(String)} method). If the
+     * given URL is <code>null</code> then the existing association is
+     * removed.
+     * 
+     * @param type the type of the URL
+     * @param key the normalized key of the base URL
+     * @param uri the URL to set
+     * @return reference to this object
+     */
+    public UrlMapper setUrlByKey(String type, String key, Uri uri) {
+        key = normalizeKey(key);
+        Map<String, Uri> entry = fEntries.get(key);
+        if (uri != null) {
+            if (entry == null) {
+                entry = new HashMap<String, Uri>();
+                fEntries.put(key, entry);
+            }
+            entry.put(type, uri);
+            fTypes.add(type);
+        } else if (entry != null) {
+            entry.remove(type);
+            if (entry.isEmpty()) {
+                fEntries.remove(key);
+            }
+        }
+        fVersion++;
         return this;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,443 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compressed radix trie mapping URL (or path) prefixes to values. It is used
+ * to find the value associated with the longest registered prefix of a given
+ * key. Lookups walk the characters of the key only once, so their cost depends
+ * on the length of the key and not on the number of registered prefixes. The
+ * lookup methods do not allocate any objects.
+ * <p>
+ * A registered prefix matches a key only at a segment boundary: the prefix
+ * should be empty, it should end with a '/' symbol, or the key should end
+ * right after the prefix or continue with one of the '/', '?' or '#' symbols.
+ * So the prefix "http://www.foo.bar/wiki" matches the
+ * "http://www.foo.bar/wiki/France" key but not the
+ * "http://www.foo.bar/wikipedia" key.
+ * </p>
+ * <p>
+ * This class is not thread-safe. Instances could be safely shared between
+ * threads only if they are not modified after publication.
+ * </p>
+ *
+ * @author kotelnikov
+ * @param <T> the type of values associated with prefixes
+ */
+public class UrlPrefixTrie<T> {
+
+    /**
+     * This interface is used to visit all entries of the trie.
+     *
+     * @param <T> the type of values
+     */
+    public interface IEntryVisitor<T> {
+
+        /**
+         * This method is called for each entry in the trie.
+         *
+         * @param key the prefix of the entry
+         * @param value the value associated with the prefix
+         */
+        void visit(String key, T value);
+    }
+
+    /**
+     * One node of the trie. Each node keeps a label - a sequence of characters
+     * on the edge leading from the parent node to this one. Children are
+     * sorted by the first character of their labels.
+     *
+     * @param <T> the type of values
+     */
+    private static class Node<T> {
+
+        private static final char[] EMPTY_KEYS = new char[0];
+
+        private char[] fChildKeys = EMPTY_KEYS;
+
+        private Node<T>[] fChildren;
+
+        private String fLabel;
+
+        private T fValue;
+
+        public Node(String label) {
+            fLabel = label;
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        public void addChild(Node<T> child) {
+            char ch = child.fLabel.charAt(0);
+            int pos = -(Arrays.binarySearch(fChildKeys, ch) + 1);
+            int len = fChildKeys.length;
+            char[] keys = new char[len + 1];
+            Node<T>[] children = new Node[len + 1];
+            if (len > 0) {
+                System.arraycopy(fChildKeys, 0, keys, 0, pos);
+                System.arraycopy(fChildren, 0, children, 0, pos);
+                System.arraycopy(fChildKeys, pos, keys, pos + 1, len - pos);
+                System.arraycopy(fChildren, pos, children, pos + 1, len - pos);
+            }
+            keys[pos] = ch;
+            children[pos] = child;
+            fChildKeys = keys;
+            fChildren = children;
+        }
+
+        public Node<T> getChild(char ch) {
+            int pos = Arrays.binarySearch(fChildKeys, ch);
+            return pos >= 0 ? fChildren[pos] : null;
+        }
+
+        public int getChildCount() {
+            return fChildKeys.length;
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        public void removeChild(char ch) {
+            int pos = Arrays.binarySearch(fChildKeys, ch);
+            if (pos >= 0) {
+                int len = fChildKeys.length;
+                char[] keys = new char[len - 1];
+                Node<T>[] children = new Node[len - 1];
+                System.arraycopy(fChildKeys, 0, keys, 0, pos);
+                System.arraycopy(fChildren, 0, children, 0, pos);
+                System.arraycopy(fChildKeys, pos + 1, keys, pos, len - pos - 1);
+                System.arraycopy(fChildren, pos + 1, children, pos, len - pos
+                    - 1);
+                fChildKeys = keys;
+                fChildren = len > 1 ? children : null;
+            }
+        }
+
+        public void replaceChild(Node<T> child) {
+            int pos = Arrays.binarySearch(fChildKeys, child.fLabel.charAt(0));
+            fChildren[pos] = child;
+        }
+
+    }
+
+    /**
+     * Returns <code>true</code> if a prefix with the specified length matches
+     * the key at a segment boundary.
+     *
+     * @param node the node corresponding to the last character of the prefix
+     * @param prefixLen the length of the matched prefix
+     * @param key the key
+     * @param pos the position in the key just after the prefix
+     * @param end the end position of the key
+     * @return <code>true</code> if the prefix matches the key at a segment
+     *         boundary
+     */
+    private static boolean isBoundary(
+        Node<?> node,
+        int prefixLen,
+        CharSequence key,
+        int pos,
+        int end) {
+        if (prefixLen == 0 || pos == end) {
+            return true;
+        }
+        String label = node.fLabel;
+        if (label.length() > 0 && label.charAt(label.length() - 1) == '/') {
+            return true;
+        }
+        char ch = key.charAt(pos);
+        return ch == '/' || ch == '?' || ch == '#';
+    }
+
+    private Node<T> fRoot = new Node<T>("");
+
+    private int fSize;
+
+    public UrlPrefixTrie() {
+    }
+
+    /**
+     * Removes all entries from this trie.
+     */
+    public void clear() {
+        fRoot = new Node<T>("");
+        fSize = 0;
+    }
+
+    /**
+     * Returns a value associated exactly with the specified prefix or
+     * <code>null</code> if there is no such a value.
+     *
+     * @param key the prefix
+     * @return a value associated with the specified prefix
+     */
+    public T get(String key) {
+        Node<T> node = fRoot;
+        int pos = 0;
+        int len = key.length();
+        while (pos < len) {
+            node = node.getChild(key.charAt(pos));
+            if (node == null || !key.startsWith(node.fLabel, pos)) {
+                return null;
+            }
+            pos += node.fLabel.length();
+        }
+        return node.fValue;
+    }
+
+    /**
+     * Adds to the given list values associated with all registered prefixes
+     * of the key defined by the specified region of the given character
+     * sequence. Values are added in the order of prefix lengths: from the
+     * shortest prefix to the longest one.
+     *
+     * @param str the character sequence containing the key
+     * @param begin the start position of the key
+     * @param end the end position of the key
+     * @param result the list where values should be added
+     * @return the number of added values
+     */
+    public int getMatchingValues(
+        CharSequence str,
+        int begin,
+        int end,
+        List<? super T> result) {
+        Node<T> node = fRoot;
+        int count = 0;
+        int pos = begin;
+        while (true) {
+            if (node.fValue != null
+                && isBoundary(node, pos - begin, str, pos, end)) {
+                result.add(node.fValue);
+                count++;
+            }
+            if (pos >= end) {
+                break;
+            }
+            node = node.getChild(str.charAt(pos));
+            if (node == null) {
+                break;
+            }
+            String label = node.fLabel;
+            int len = label.length();
+            if (pos + len > end) {
+                break;
+            }
+            for (int i = 1; i < len; i++) {
+                if (str.charAt(pos + i) != label.charAt(i)) {
+                    return count;
+                }
+            }
+            pos += len;
+        }
+        return count;
+    }
+
+    /**
+     * Returns a value associated with the longest registered prefix of the
+     * given key or <code>null</code> if no prefixes match this key.
+     *
+     * @param key the key
+     * @return a value associated with the longest prefix of the given key
+     */
+    public T getNearestValue(CharSequence key) {
+        return getNearestValue(key, 0, key.length());
+    }
+
+    /**
+     * Returns a value associated with the longest registered prefix of the
+     * key defined by the specified region of the given character sequence.
+     *
+     * @param str the character sequence containing the key
+     * @param begin the start position of the key
+     * @param end the end position of the key
+     * @return a value associated with the longest prefix of the key
+     */
+    public T getNearestValue(CharSequence str, int begin, int end) {
+        Node<T> node = fRoot;
+        T result = null;
+        int pos = begin;
+        while (true) {
+            if (node.fValue != null
+                && isBoundary(node, pos - begin, str, pos, end)) {
+                result = node.fValue;
+            }
+            if (pos >= end) {
+                break;
+            }
+            node = node.getChild(str.charAt(pos));
+            if (node == null) {
+                break;
+            }
+            String label = node.fLabel;
+            int len = label.length();
+            if (pos + len > end) {
+                break;
+            }
+            for (int i = 1; i < len; i++) {
+                if (str.charAt(pos + i) != label.charAt(i)) {
+                    return result;
+                }
+            }
+            pos += len;
+        }
+        return result;
+    }
+
+    /**
+     * Returns <code>true</code> if this trie does not contain any entries.
+     *
+     * @return <code>true</code> if this trie is empty
+     */
+    public boolean isEmpty() {
+        return fSize == 0;
+    }
+
+    /**
+     * Associates the specified value with the given prefix and returns the
+     * previous value associated with this prefix.
+     *
+     * @param key the prefix
+     * @param value the value to associate with the prefix
+     * @return the previous value associated with the prefix
+     */
+    public T put(String key, T value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value can not be null");
+        }
+        Node<T> node = fRoot;
+        int pos = 0;
+        int len = key.length();
+        while (pos < len) {
+            Node<T> child = node.getChild(key.charAt(pos));
+            if (child == null) {
+                child = new Node<T>(key.substring(pos));
+                node.addChild(child);
+                node = child;
+                break;
+            }
+            String label = child.fLabel;
+            int common = 1;
+            int max = Math.min(label.length(), len - pos);
+            while (common < max
+                && label.charAt(common) == key.charAt(pos + common)) {
+                common++;
+            }
+            if (common < label.length()) {
+                // Split the edge
+                Node<T> middle = new Node<T>(label.substring(0, common));
+                child.fLabel = label.substring(common);
+                middle.addChild(child);
+                node.replaceChild(middle);
+                child = middle;
+            }
+            node = child;
+            pos += common;
+        }
+        T prev = node.fValue;
+        node.fValue = value;
+        if (prev == null) {
+            fSize++;
+        }
+        return prev;
+    }
+
+    /**
+     * Removes the value associated with the specified prefix and returns it.
+     *
+     * @param key the prefix to remove
+     * @return the removed value or <code>null</code> if there was no value
+     *         associated with this prefix
+     */
+    public T remove(String key) {
+        Node<T> parent = null;
+        Node<T> node = fRoot;
+        int pos = 0;
+        int len = key.length();
+        while (pos < len) {
+            Node<T> child = node.getChild(key.charAt(pos));
+            if (child == null || !key.startsWith(child.fLabel, pos)) {
+                return null;
+            }
+            parent = node;
+            node = child;
+            pos += child.fLabel.length();
+        }
+        T prev = node.fValue;
+        if (prev != null) {
+            node.fValue = null;
+            fSize--;
+            if (parent != null) {
+                compact(parent, node);
+            }
+        }
+        return prev;
+    }
+
+    /**
+     * Removes or merges the given node with its single child if it does not
+     * contain a value anymore.
+     */
+    private void compact(Node<T> parent, Node<T> node) {
+        int count = node.getChildCount();
+        if (count == 0) {
+            parent.removeChild(node.fLabel.charAt(0));
+        } else if (count == 1) {
+            Node<T> child = node.fChildren[0];
+            child.fLabel = node.fLabel + child.fLabel;
+            parent.replaceChild(child);
+        }
+    }
+
+    /**
+     * Returns the number of entries in this trie.
+     *
+     * @return the number of entries in this trie
+     */
+    public int size() {
+        return fSize;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("{");
+        visit(new IEntryVisitor<T>() {
+            public void visit(String key, T value) {
+                if (buf.length() > 1) {
+                    buf.append(", ");
+                }
+                buf.append(key).append("=").append(value);
+            }
+        });
+        buf.append("}");
+        return buf.toString();
+    }
+
+    /**
+     * Visits all entries of this trie in the lexicographical order of their
+     * prefixes.
+     *
+     * @param visitor the visitor to notify
+     */
+    public void visit(IEntryVisitor<T> visitor) {
+        visit(fRoot, new StringBuilder(), visitor);
+    }
+
+    private void visit(
+        Node<T> node,
+        StringBuilder prefix,
+        IEntryVisitor<T> visitor) {
+        int len = prefix.length();
+        prefix.append(node.fLabel);
+        if (node.fValue != null) {
+            visitor.visit(prefix.toString(), node.fValue);
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            visit(node.fChildren[i], prefix, visitor);
+        }
+        prefix.setLength(len);
+    }
+
+}
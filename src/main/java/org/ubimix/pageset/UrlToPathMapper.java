@@ -1,22 +1,55 @@
 package org.ubimix.pageset;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.ubimix.commons.uri.Path;
 import org.ubimix.commons.uri.Uri;
-import org.ubimix.commons.uri.path.PathManager;
+import org.ubimix.pageset.MapperMetrics.OperationMetrics;
+import org.ubimix.pageset.MapperMetrics.SiteMetrics;
 
 /**
  * This class is used to translate absolute URIs to local paths vice versa -
  * local paths to absolute URIs.
+ * <p>
+ * Instances created with the default constructor are mutable and they should
+ * not be modified while other threads use them. The {@link Builder} class
+ * creates read-only snapshots with all transformation rules compiled in
+ * advance. Such snapshots could be safely shared between threads and
+ * replaced at runtime using the {@link UrlToPathMapperHolder} class.
+ * </p>
  * 
  * @author kotelnikov
  */
 public class UrlToPathMapper {
 
+    /**
+     * This class is used to configure mappers and to create their read-only
+     * snapshots. Each call of the {@link #build()} method returns a new
+     * immutable {@link UrlToPathMapper} instance reflecting the current state
+     * of this builder.
+     */
+    public static class Builder extends UrlToPathMapper {
+
+        public Builder() {
+        }
+
+        /**
+         * Creates and returns a new read-only snapshot of this mapper.
+         * 
+         * @return a new read-only snapshot of this mapper
+         */
+        public UrlToPathMapper build() {
+            return new UrlToPathMapper(this);
+        }
+
+    }
+
     /**
      * This object defines mapping of URLs to paths and vice versa for one site.
      * It keeps all rules to transform all URLs starting with the same URL
@@ -44,11 +77,30 @@ public class UrlToPathMapper {
              */
             public static class TransformationRule {
 
+                /**
+                 * The source of the regular expression.
+                 */
+                private final String fFrom;
+
+                /**
+                 * Literals required in strings matched by this rule; it is
+                 * <code>null</code> if the expression has no such literals.
+                 */
+                private final LiteralPrefilter fPrefilter;
+
                 /**
                  * The regular expression defining transformation applied to an
-                 * URL or to a path.
+                 * URL or to a path. For lazy rules it is compiled on the first
+                 * access.
+                 */
+                private volatile Pattern fRegexp;
+
+                /**
+                 * The pre-parsed replacement; it is <code>null</code> if the
+                 * replacement should be applied by the regexp engine. It is
+                 * set before the regular expression.
                  */
-                private Pattern fRegexp;
+                private ReplacementTemplate fTemplate;
 
                 /**
                  * The replacement rules.
@@ -64,8 +116,191 @@ public class UrlToPathMapper {
                  * @param to the replacement rules
                  */
                 public TransformationRule(String from, String to) {
-                    fRegexp = Pattern.compile(from);
+                    this(from, to, false);
+                }
+
+                /**
+                 * This constructor initializes the internal fields. If the
+                 * <code>lazy</code> flag is <code>true</code> then the regular
+                 * expression is not compiled until the rule is used for the
+                 * first time; it should be used only for expressions which
+                 * are known to be valid (for example for rules loaded from
+                 * precompiled snapshots).
+                 * 
+                 * @param from the regular expression to apply to the string
+                 * @param to the replacement rules
+                 * @param lazy if this flag is <code>true</code> then the
+                 *        regular expression is compiled on demand
+                 */
+                public TransformationRule(
+                    String from,
+                    String to,
+                    boolean lazy) {
+                    fFrom = from;
                     fTo = to;
+                    fPrefilter = LiteralPrefilter.newPrefilter(from);
+                    if (!lazy) {
+                        compile();
+                    }
+                }
+
+                /**
+                 * Builds the result of this rule from the given successful
+                 * match of the whole string. The expression is not evaluated
+                 * again if the replacement is pre-parsed (see
+                 * {@link ReplacementTemplate}); otherwise the replacement is
+                 * performed by {@link Matcher#replaceAll(String)} which
+                 * scans the string with its own matcher.
+                 * 
+                 * @param matcher a matcher after a successful
+                 *        {@link Matcher#matches()} call for the given string
+                 * @param groupOffset the index of the group wrapping this
+                 *        rule in the matched expression or 0 if the matcher
+                 *        was created by this rule
+                 * @param str the matched string
+                 * @return the result of the transformation
+                 */
+                String apply(Matcher matcher, int groupOffset, String str) {
+                    ReplacementTemplate template = fTemplate;
+                    if (template != null && template.accepts(str)) {
+                        return template.apply(matcher, groupOffset, str);
+                    }
+                    return getRegexp().matcher(str).replaceAll(fTo);
+                }
+
+                /**
+                 * Builds the result of this rule from the given successful
+                 * match of the specified region and appends it to the
+                 * buffer.
+                 * 
+                 * @param matcher a matcher after a successful
+                 *        {@link Matcher#matches()} call for the region
+                 * @param groupOffset the index of the group wrapping this
+                 *        rule in the matched expression or 0 if the matcher
+                 *        was created by this rule
+                 * @param str the character sequence containing the matched
+                 *        string
+                 * @param begin the start position of the matched string
+                 * @param end the end position of the matched string
+                 * @param out the buffer where the result is appended
+                 * @see #apply(Matcher, int, String)
+                 */
+                void apply(
+                    Matcher matcher,
+                    int groupOffset,
+                    CharSequence str,
+                    int begin,
+                    int end,
+                    StringBuilder out) {
+                    ReplacementTemplate template = fTemplate;
+                    if (template != null && template.accepts(str, begin, end)) {
+                        template.apply(matcher, groupOffset, str, out);
+                    } else {
+                        String value = str.subSequence(begin, end).toString();
+                        out.append(getRegexp().matcher(value).replaceAll(fTo));
+                    }
+                }
+
+                /**
+                 * Compiles the regular expression and parses the replacement.
+                 */
+                private Pattern compile() {
+                    Pattern regexp = Pattern.compile(fFrom);
+                    fTemplate = ReplacementTemplate.newTemplate(regexp, fTo);
+                    fRegexp = regexp;
+                    return regexp;
+                }
+
+                /**
+                 * Returns the source of the regular expression of this rule.
+                 * This method does not compile the expression.
+                 * 
+                 * @return the source of the regular expression of this rule
+                 */
+                public String getExpression() {
+                    return fFrom;
+                }
+
+                /**
+                 * Returns the regular expression of this rule.
+                 * 
+                 * @return the regular expression of this rule
+                 */
+                public Pattern getRegexp() {
+                    Pattern regexp = fRegexp;
+                    if (regexp == null) {
+                        regexp = compile();
+                    }
+                    return regexp;
+                }
+
+                /**
+                 * Returns the replacement rules.
+                 * 
+                 * @return the replacement rules
+                 */
+                public String getReplacement() {
+                    return fTo;
+                }
+
+                /**
+                 * Returns <code>true</code> if the internal regular expression
+                 * matches the whole given string.
+                 * 
+                 * @param str the string to check
+                 * @return <code>true</code> if this rule could be applied to
+                 *         the given string
+                 */
+                public boolean matches(CharSequence str) {
+                    return mayMatch(str) && getRegexp().matcher(str).matches();
+                }
+
+                /**
+                 * Returns <code>true</code> if the internal regular expression
+                 * matches the whole specified region of the given character
+                 * sequence.
+                 * 
+                 * @param str the character sequence containing the string
+                 * @param begin the start position of the string
+                 * @param end the end position of the string
+                 * @return <code>true</code> if this rule could be applied to
+                 *         the string
+                 */
+                public boolean matches(CharSequence str, int begin, int end) {
+                    return mayMatch(str, begin, end)
+                        && getRegexp().matcher(str).region(begin, end).matches();
+                }
+
+                /**
+                 * Returns <code>false</code> if the given string does not
+                 * contain literals required by the regular expression of this
+                 * rule. This check does not use the regexp engine; strings
+                 * accepted by this method still should be checked by the
+                 * {@link #matches(CharSequence)} method.
+                 * 
+                 * @param str the string to check
+                 * @return <code>false</code> if this rule can not be applied
+                 *         to the given string
+                 */
+                public boolean mayMatch(CharSequence str) {
+                    return fPrefilter == null || fPrefilter.accepts(str);
+                }
+
+                /**
+                 * Returns <code>false</code> if the specified region of the
+                 * given character sequence does not contain literals required
+                 * by the regular expression of this rule.
+                 * 
+                 * @param str the character sequence containing the string
+                 * @param begin the start position of the string
+                 * @param end the end position of the string
+                 * @return <code>false</code> if this rule can not be applied
+                 *         to the string
+                 * @see #mayMatch(CharSequence)
+                 */
+                public boolean mayMatch(CharSequence str, int begin, int end) {
+                    return fPrefilter == null
+                        || fPrefilter.accepts(str, begin, end);
                 }
 
                 /**
@@ -78,18 +313,48 @@ public class UrlToPathMapper {
                  * @return the result of the transformation
                  */
                 public String process(String str) {
-                    Matcher matcher = fRegexp.matcher(str);
-                    if (matcher.matches()) {
-                        str = matcher.replaceAll(fTo);
-                    } else {
-                        str = null;
+                    if (!mayMatch(str)) {
+                        return null;
                     }
-                    return str;
+                    Matcher matcher = getRegexp().matcher(str);
+                    return matcher.matches() ? apply(matcher, 0, str) : null;
+                }
+
+                /**
+                 * Applies this rule to the specified region of the given
+                 * character sequence and appends the result to the buffer.
+                 * For rules with pre-parsed replacements the result is built
+                 * directly from the sequence without creating intermediate
+                 * strings.
+                 * 
+                 * @param str the character sequence containing the string to
+                 *        transform
+                 * @param begin the start position of the string
+                 * @param end the end position of the string
+                 * @param out the buffer where the result is appended
+                 * @return <code>true</code> if the rule was applied;
+                 *         otherwise the buffer is not changed
+                 */
+                public boolean process(
+                    CharSequence str,
+                    int begin,
+                    int end,
+                    StringBuilder out) {
+                    if (!mayMatch(str, begin, end)) {
+                        return false;
+                    }
+                    Matcher matcher = getRegexp().matcher(str);
+                    matcher.region(begin, end);
+                    if (!matcher.matches()) {
+                        return false;
+                    }
+                    apply(matcher, 0, str, begin, end, out);
+                    return true;
                 }
 
                 @Override
                 public String toString() {
-                    return "{" + fRegexp + " => " + fTo + "}";
+                    return "{" + fFrom + " => " + fTo + "}";
                 }
             }
 
@@ -99,6 +364,24 @@ public class UrlToPathMapper {
              */
             private String fFromPrefix;
 
+            /**
+             * The compiled form of the transformation rules. It is created on
+             * demand and it is reset each time when a new rule is added.
+             */
+            private volatile RuleSetMatcher fRuleSetMatcher;
+
+            /**
+             * This flag is <code>true</code> if transformation rules can not
+             * be modified anymore.
+             */
+            private boolean fReadOnly;
+
+            /**
+             * The site mapper owning this transformer; it is notified about
+             * all modifications of transformation rules.
+             */
+            private SiteUrlMapper fSite;
+
             /**
              * The resulting prefix prepended to all transformation results.
              */
@@ -130,8 +413,24 @@ public class UrlToPathMapper {
              */
             public void addTranformation(String from, String to) {
                 if (from != null) {
-                    TransformationRule slot = new TransformationRule(from, to);
-                    fTransformationRules.add(slot);
+                    addTranformation(new TransformationRule(from, to));
+                }
+            }
+
+            /**
+             * Adds the given transformation rule to the internal list
+             * 
+             * @param rule the rule to add
+             */
+            public void addTranformation(TransformationRule rule) {
+                if (fReadOnly) {
+                    throw new UnsupportedOperationException(
+                        "Rules of a read-only mapper can not be changed");
+                }
+                fTransformationRules.add(rule);
+                fRuleSetMatcher = null;
+                if (fSite != null) {
+                    fSite.onChange();
                 }
             }
 
@@ -146,6 +445,29 @@ public class UrlToPathMapper {
                 return fFromPrefix;
             }
 
+            /**
+             * Returns a compiled matcher for all rules of this transformer.
+             * 
+             * @return a compiled matcher for all transformation rules
+             */
+            public RuleSetMatcher getRuleSetMatcher() {
+                RuleSetMatcher matcher = fRuleSetMatcher;
+                if (matcher == null) {
+                    matcher = new RuleSetMatcher(fTransformationRules);
+                    fRuleSetMatcher = matcher;
+                }
+                return matcher;
+            }
+
+            /**
+             * Returns an unmodifiable list of all transformation rules.
+             * 
+             * @return an unmodifiable list of all transformation rules
+             */
+            public List<TransformationRule> getTransformationRules() {
+                return Collections.unmodifiableList(fTransformationRules);
+            }
+
             /**
              * Returns the resulting prefix of URLs or paths to which this
              * transformation set could be applied.
@@ -157,6 +479,34 @@ public class UrlToPathMapper {
                 return fToPrefix;
             }
 
+            /**
+             * Returns <code>true</code> if transformation rules of this object
+             * can not be changed.
+             * 
+             * @return <code>true</code> if this transformer is read-only
+             */
+            public boolean isReadOnly() {
+                return fReadOnly;
+            }
+
+            /**
+             * Copies all rules from the given transformer, compiles them and
+             * makes this transformer read-only. The compiled matcher of the
+             * given transformer is re-used if it exists.
+             * 
+             * @param transformer the transformer to copy
+             */
+            private void setReadOnlyRules(RegexpUrlTransformer transformer) {
+                fTransformationRules = Collections
+                    .unmodifiableList(new ArrayList<TransformationRule>(
+                        transformer.fTransformationRules));
+                RuleSetMatcher matcher = transformer.fRuleSetMatcher;
+                fRuleSetMatcher = matcher != null
+                    ? matcher
+                    : new RuleSetMatcher(fTransformationRules);
+                fReadOnly = true;
+            }
+
             @Override
             public String toString() {
                 return "{"
@@ -183,19 +533,32 @@ public class UrlToPathMapper {
              * @return the result of all transformations
              */
             public String transform(String str) {
+                return transform(str, null);
+            }
+
+            /**
+             * Performs the full transformation to the given URL or path and
+             * updates the specified metrics.
+             * 
+             * @param str the original URL or path
+             * @param metrics metrics of this transformer; it could be
+             *        <code>null</code>
+             * @return the result of all transformations
+             * @see #transform(String)
+             */
+            String transform(String str, SiteMetrics metrics) {
                 String result = null;
                 if (str.startsWith(fFromPrefix)) {
                     str = str.substring(fFromPrefix.length());
-                    String resultStr = null;
-                    for (TransformationRule slot : fTransformationRules) {
-                        resultStr = slot.process(str);
-                        if (resultStr != null) {
-                            break;
-                        }
-                    }
-                    if (resultStr == null) {
-                        resultStr = str;
+                    RuleSetMatcher matcher = getRuleSetMatcher();
+                    RuleSetMatcher.Match match = new RuleSetMatcher.Match();
+                    int idx = matcher.indexOf(str, 0, str.length(), match);
+                    if (metrics != null) {
+                        metrics.onRule(idx);
                     }
+                    String resultStr = idx >= 0
+                        ? matcher.apply(match, str)
+                        : str;
                     String toPrefix = fToPrefix.toString();
                     if (toPrefix.length() > 0
                         && resultStr.length() > 0
@@ -213,10 +576,109 @@ public class UrlToPathMapper {
                     // Path.Builder pathBuilder = builder.getPathBuilder();
                     // pathBuilder.appendPath(fToPrefix.getPath(), true);
                     // result = builder.toString();
+                } else if (metrics != null) {
+                    metrics.onMiss();
                 }
                 return result;
             }
 
+            /**
+             * Performs the full transformation of the URL or path defined by
+             * the specified region of the given character sequence and
+             * appends the result to the buffer. This method gives the same
+             * results as the {@link #transform(String)} method, but it does
+             * not create intermediate strings for the prefix and the suffix
+             * of the URL.
+             * 
+             * @param str the character sequence containing the URL or path
+             * @param begin the start position of the URL or path
+             * @param end the end position of the URL or path
+             * @param out the buffer where the result is appended
+             * @return <code>true</code> if the URL or path was transformed;
+             *         otherwise the buffer is not changed
+             */
+            public boolean transform(
+                CharSequence str,
+                int begin,
+                int end,
+                StringBuilder out) {
+                return transform(str, begin, end, out, null);
+            }
+
+            /**
+             * Performs the full transformation of the specified region of the
+             * given character sequence and updates the metrics.
+             * 
+             * @see #transform(CharSequence, int, int, StringBuilder)
+             */
+            boolean transform(
+                CharSequence str,
+                int begin,
+                int end,
+                StringBuilder out,
+                SiteMetrics metrics) {
+                if (!startsWith(str, begin, end, fFromPrefix)) {
+                    if (metrics != null) {
+                        metrics.onMiss();
+                    }
+                    return false;
+                }
+                int prefixPos = out.length();
+                out.append(fToPrefix);
+                transformSuffix(
+                    str,
+                    begin + fFromPrefix.length(),
+                    end,
+                    prefixPos,
+                    out,
+                    metrics);
+                return true;
+            }
+
+            /**
+             * Applies transformation rules to the suffix of an URL or path
+             * defined by the specified region and appends the result to the
+             * buffer. The resulting prefix should be already appended to the
+             * buffer starting from the given position; it is used by sites
+             * with wildcard host patterns where prefixes depend on the
+             * transformed URL or path.
+             * 
+             * @param str the character sequence containing the suffix
+             * @param from the start position of the suffix
+             * @param end the end position of the suffix
+             * @param prefixPos the position of the resulting prefix in the
+             *        buffer
+             * @param out the buffer where the result is appended
+             * @param metrics metrics of this transformer; it could be
+             *        <code>null</code>
+             */
+            void transformSuffix(
+                CharSequence str,
+                int from,
+                int end,
+                int prefixPos,
+                StringBuilder out,
+                SiteMetrics metrics) {
+                RuleSetMatcher matcher = getRuleSetMatcher();
+                RuleSetMatcher.Match match = new RuleSetMatcher.Match();
+                int idx = matcher.indexOf(str, from, end, match);
+                if (metrics != null) {
+                    metrics.onRule(idx);
+                }
+                int pos = out.length();
+                if (idx >= 0) {
+                    matcher.apply(match, str, from, end, out);
+                } else {
+                    out.append(str, from, end);
+                }
+                if (pos > prefixPos && out.length() > pos) {
+                    char ch = out.charAt(pos);
+                    if (ch != '/' && ch != '?') {
+                        out.insert(pos, '/');
+                    }
+                }
+            }
+
         }
 
         /**
@@ -254,6 +716,12 @@ public class UrlToPathMapper {
             return builder.toString();
         }
 
+        /**
+         * The mapper containing this site; it is notified about all
+         * modifications of this site.
+         */
+        private UrlToPathMapper fMapper;
+
         /**
          * This rule keeps transformations of paths to URLs.
          * RegexpUrlTransformer
@@ -280,6 +748,8 @@ public class UrlToPathMapper {
         public SiteUrlMapper(String uriStr, String pathStr) {
             fPathToUri = newRegexpUrlTransformer(pathStr, uriStr);
             fUriToPath = newRegexpUrlTransformer(uriStr, pathStr);
+            fPathToUri.fSite = this;
+            fUriToPath.fSite = this;
         }
 
         /**
@@ -346,6 +816,35 @@ public class UrlToPathMapper {
             return fUriToPath;
         }
 
+        /**
+         * Returns <code>true</code> if the configuration of this site can not
+         * be changed anymore.
+         * 
+         * @return <code>true</code> if this site mapper is read-only
+         */
+        public boolean isReadOnly() {
+            return fUriToPath.isReadOnly() && fPathToUri.isReadOnly();
+        }
+
+        /**
+         * Returns a read-only copy of this site mapper with all rules
+         * compiled. If this object is already read-only then it is returned
+         * as is.
+         * 
+         * @return a read-only copy of this site mapper
+         */
+        private SiteUrlMapper newReadOnlyCopy() {
+            if (isReadOnly()) {
+                return this;
+            }
+            SiteUrlMapper copy = new SiteUrlMapper(
+                getUriPrefix(),
+                getPathPrefix());
+            copy.fUriToPath.setReadOnlyRules(fUriToPath);
+            copy.fPathToUri.setReadOnlyRules(fPathToUri);
+            return copy;
+        }
+
         /**
          * Creates and returns a newly created {@link RegexpUrlTransformer}
          * instance.
@@ -360,6 +859,16 @@ public class UrlToPathMapper {
             return new RegexpUrlTransformer(uriPrefix, pathPrefix);
         }
 
+        /**
+         * This method is called when transformation rules of this site are
+         * changed.
+         */
+        private void onChange() {
+            if (fMapper != null) {
+                fMapper.onChange();
+            }
+        }
+
         /**
          * Transforms the given URL to the resulting path and returns the result
          * of this operation.
@@ -393,22 +902,317 @@ public class UrlToPathMapper {
             return fUriToPath.transform(uri);
         }
 
+        /**
+         * Transforms the URL defined by the specified region of the given
+         * character sequence to a local path and appends it to the buffer.
+         * 
+         * @param uri the character sequence containing the URL
+         * @param begin the start position of the URL
+         * @param end the end position of the URL
+         * @param out the buffer where the resulting path is appended
+         * @return <code>true</code> if the URL was transformed; otherwise the
+         *         buffer is not changed
+         */
+        public boolean uriToPath(
+            CharSequence uri,
+            int begin,
+            int end,
+            StringBuilder out) {
+            return fUriToPath.transform(uri, begin, end, out);
+        }
+
     }
 
     /**
-     * Defines mapping of URL prefixes to the corresponding
+     * Returns a new builder used to create read-only mappers.
+     * 
+     * @return a new builder
+     */
+    public static UrlToPathMapper.Builder builder() {
+        return new UrlToPathMapper.Builder();
+    }
+
+    /**
+     * Characters which could appear in normalized URLs and paths (see the
+     * {@link #isNormalized(String)} method).
+     */
+    private static final boolean[] NORMALIZED_CHARS = new boolean[128];
+
+    static {
+        String chars = "abcdefghijklmnopqrstuvwxyz"
+            + "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "0123456789"
+            + "-._~:/?#[]@!$&'()*+,;=%";
+        for (int i = 0; i < chars.length(); i++) {
+            NORMALIZED_CHARS[chars.charAt(i)] = true;
+        }
+    }
+
+    /**
+     * This object is stored in caches to mark inputs without results.
+     */
+    private static final Uri NO_RESULT = new Uri("");
+
+    /**
+     * Returns the position of the first query or fragment delimiter in the
+     * given string or the length of the string if there is no such
+     * delimiters.
+     * 
+     * @param str the string to check
+     * @return the end of the URL or path without query and fragment
+     */
+    private static int getKeyEnd(String str) {
+        return getKeyEnd(str, 0, str.length());
+    }
+
+    /**
+     * Returns the position of the first query or fragment delimiter in the
+     * specified region of the given sequence or the end of the region.
+     */
+    private static int getKeyEnd(CharSequence str, int begin, int end) {
+        for (int i = begin; i < end; i++) {
+            char ch = str.charAt(i);
+            if (ch == '?' || ch == '#') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static boolean isHex(char ch) {
+        return (ch >= '0' && ch <= '9') || (ch >= 'A' && ch <= 'F');
+    }
+
+    /**
+     * Returns <code>true</code> if the given URL or path is already in its
+     * normalized form, so it would not be changed by parsing and serializing
+     * it with the {@link Uri} class. This method is conservative - it could
+     * reject some normalized strings. Accepted strings contain only printable
+     * ASCII characters and escape sequences with upper-case digits; the scheme
+     * and the host (if any) are in lower case and they are followed by a path
+     * without empty or dot ("." and "..") segments.
+     * 
+     * @param str the string to check
+     * @return <code>true</code> if the given string is normalized
+     */
+    static boolean isNormalized(String str) {
+        return isNormalized(str, 0, str.length());
+    }
+
+    /**
+     * Returns <code>true</code> if the specified region of the given
+     * character sequence is a normalized URL or path (see the
+     * {@link #isNormalized(String)} method).
+     * 
+     * @param str the character sequence to check
+     * @param begin the start position of the region
+     * @param end the end position of the region
+     * @return <code>true</code> if the region is normalized
+     */
+    static boolean isNormalized(CharSequence str, int begin, int end) {
+        int pos = begin;
+        int colon = -1;
+        for (int i = begin; i < end; i++) {
+            char ch = str.charAt(i);
+            if (ch == ':') {
+                colon = i;
+                break;
+            }
+            if (ch == '/' || ch == '?' || ch == '#') {
+                break;
+            }
+        }
+        if (colon >= 0) {
+            if (colon == begin
+                || colon + 3 > end
+                || str.charAt(colon + 1) != '/'
+                || str.charAt(colon + 2) != '/') {
+                return false;
+            }
+            for (int i = begin; i < colon; i++) {
+                char ch = str.charAt(i);
+                boolean valid = (ch >= 'a' && ch <= 'z')
+                    || (i > begin && ((ch >= '0' && ch <= '9')
+                        || ch == '+'
+                        || ch == '-'
+                        || ch == '.'));
+                if (!valid) {
+                    return false;
+                }
+            }
+            int hostBegin = colon + 3;
+            pos = hostBegin;
+            while (pos < end && str.charAt(pos) != '/') {
+                char ch = str.charAt(pos);
+                if (ch == '?' || ch == '#' || (ch >= 'A' && ch <= 'Z')) {
+                    return false;
+                }
+                pos++;
+            }
+            if (pos == hostBegin || pos == end || str.charAt(pos - 1) == ':') {
+                return false;
+            }
+        }
+        boolean inPath = true;
+        for (int i = pos; i < end; i++) {
+            char ch = str.charAt(i);
+            if (ch >= NORMALIZED_CHARS.length || !NORMALIZED_CHARS[ch]) {
+                return false;
+            }
+            if (ch == '%') {
+                if (i + 2 >= end
+                    || !isHex(str.charAt(i + 1))
+                    || !isHex(str.charAt(i + 2))) {
+                    return false;
+                }
+            } else if (ch == '?' || ch == '#') {
+                if (i == end - 1) {
+                    return false;
+                }
+                inPath = false;
+            } else if (inPath) {
+                if (ch == '/' && i + 1 < end && str.charAt(i + 1) == '/') {
+                    return false;
+                }
+                if (ch == '.' && (i == pos || str.charAt(i - 1) == '/')) {
+                    int next = i + 1;
+                    if (next < end && str.charAt(next) == '.') {
+                        next++;
+                    }
+                    char nextChar = next < end ? str.charAt(next) : '/';
+                    if (nextChar == '/' || nextChar == '?' || nextChar == '#') {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if the specified region of the given
+     * character sequence starts with the prefix.
+     */
+    private static boolean startsWith(
+        CharSequence str,
+        int begin,
+        int end,
+        String prefix) {
+        int len = prefix.length();
+        if (end - begin < len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (str.charAt(begin + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a new site mapper with normalized URL and path prefixes. The
+     * returned object is not registered in any mapper; it could be
+     * configured in any thread and registered later with the
+     * {@link #addSite(SiteUrlMapper)} method.
+     * 
+     * @param baseUri the base URL
+     * @param basePath the corresponding path prefix
+     * @return a newly created {@link SiteUrlMapper} instance
+     */
+    public static SiteUrlMapper newSite(Uri baseUri, Uri basePath) {
+        String uriStr = SiteUrlMapper.getUriKey(baseUri);
+        String pathStr = SiteUrlMapper.getPathKey(basePath, true);
+        return new SiteUrlMapper(uriStr, pathStr);
+    }
+
+    /**
+     * The filter of hosts of registered sites; it is used to reject URLs of
+     * unknown sites before the prefix index is traversed.
+     */
+    private final HostFilter fHostFilter = new HostFilter();
+
+    /**
+     * The optional metrics of this mapper.
+     */
+    private volatile MapperMetrics fMetrics;
+
+    /**
+     * The optional cache of path-to-URL transformations.
+     */
+    private volatile LruCache<String, Uri> fPathToUriCache;
+
+    /**
+     * Defines mapping of path prefixes to the corresponding
      * {@link SiteUrlMapper} instances.
      */
-    private PathManager<SiteUrlMapper> fPathToUrlTranslators = new PathManager<SiteUrlMapper>();
+    private final UrlPrefixTrie<SiteUrlMapper> fPathToUrlTranslators = new UrlPrefixTrie<SiteUrlMapper>();
 
     /**
      * Defines mapping of URL prefixes to the corresponding
-     * {@link SiteUrlMapper} instances.
+     * {@link SiteUrlMapper} instances. Prefixes are partitioned by hosts.
      */
-    private PathManager<SiteUrlMapper> fUrlToPathTranslators = new PathManager<SiteUrlMapper>();
+    private final HostPartitionedIndex<SiteUrlMapper> fUrlToPathTranslators = new HostPartitionedIndex<SiteUrlMapper>();
 
     /**
-     * Defines a new URL-to-path mapping for one site.
+     * This flag is <code>true</code> if this mapper can not be modified.
+     */
+    private final boolean fReadOnly;
+
+    /**
+     * All registered site mappers in the order of their registration. Keys
+     * are URL prefixes of sites.
+     */
+    private final Map<String, SiteUrlMapper> fSites = new LinkedHashMap<String, SiteUrlMapper>();
+
+    /**
+     * The optional cache of URL-to-path transformations.
+     */
+    private volatile LruCache<String, Uri> fUriToPathCache;
+
+    /**
+     * This counter is incremented each time when this mapper is modified. It
+     * is used to avoid caching of results calculated with an obsolete
+     * configuration.
+     */
+    private volatile int fVersion;
+
+    /**
+     * Sites with wildcard host patterns in URL prefixes. They are used only
+     * when there is no site with a literal prefix matching the URL or path.
+     */
+    private final WildcardSiteIndex<SiteUrlMapper> fWildcardSites = new WildcardSiteIndex<SiteUrlMapper>();
+
+    /**
+     * Creates a new empty mutable mapper.
+     */
+    public UrlToPathMapper() {
+        fReadOnly = false;
+    }
+
+    /**
+     * Creates a read-only snapshot of the given mapper. All site mappers of
+     * the given object are copied and their rules are compiled. Read-only site
+     * mappers are shared between the original and the new mapper.
+     * 
+     * @param mapper the mapper to copy
+     */
+    protected UrlToPathMapper(UrlToPathMapper mapper) {
+        for (SiteUrlMapper site : mapper.fSites.values()) {
+            registerSite(site.newReadOnlyCopy());
+        }
+        fReadOnly = true;
+    }
+
+    /**
+     * Defines a new URL-to-path mapping for one site. The host of the base URL
+     * could start with wildcard labels ("http://*.blogspot.com/"); in this
+     * case the site is used for all hosts matching the pattern and labels
+     * matched by wildcards could be referenced in the path prefix ("$1" is
+     * the leftmost label, "$2" is the next one and so on): with the
+     * "blogs/$1" path prefix the "http://foo.blogspot.com/a.html" URL is
+     * mapped to "blogs/foo/a.html". Such sites are used only when there is
+     * no site with a literal prefix matching the URL.
      * 
      * @param baseUri the base URL
      * @param basePath the corresponding path prefix
@@ -426,14 +1230,281 @@ public class UrlToPathMapper {
      * @param baseUri the base URL
      * @param basePath the corresponding path prefix
      * @return a newly created {@link SiteUrlMapper} instance
+     * @see #addBase(String, String)
      */
     public SiteUrlMapper addBase(Uri baseUri, Uri basePath) {
-        String uriStr = SiteUrlMapper.getUriKey(baseUri);
-        String pathStr = SiteUrlMapper.getPathKey(basePath, true);
-        SiteUrlMapper translator = new SiteUrlMapper(uriStr, pathStr);
-        fPathToUrlTranslators.add(pathStr, translator);
-        fUrlToPathTranslators.add(uriStr, translator);
-        return translator;
+        checkWritable();
+        return addSite(newSite(baseUri, basePath));
+    }
+
+    /**
+     * Registers the given site mapper. URL and path prefixes of the site
+     * should be already normalized (see the {@link #addBase(Uri, Uri)}
+     * method); they are used as is. If there is already a site with the same
+     * URL prefix then it is replaced by the new one. A mutable site mapper
+     * should not be registered in more than one mapper.
+     * 
+     * @param site the site mapper to register
+     * @return the registered site mapper
+     * @throws IllegalArgumentException if the site has an invalid wildcard
+     *         host pattern or path template (see
+     *         {@link #addBase(String, String)}); in this case this mapper is
+     *         not changed
+     */
+    public SiteUrlMapper addSite(SiteUrlMapper site) {
+        checkWritable();
+        registerSite(site);
+        if (!site.isReadOnly()) {
+            site.fMapper = this;
+        }
+        onChange();
+        return site;
+    }
+
+    /**
+     * Puts the given result in the cache and returns it. The result is not
+     * kept in the cache if this mapper was changed after the specified
+     * version.
+     * 
+     * @param cache the cache where the result should be stored
+     * @param key the key of the result
+     * @param result the result to store
+     * @param version the version of this mapper used to calculate the result
+     * @return the cached value
+     */
+    private Uri cacheResult(
+        LruCache<String, Uri> cache,
+        String key,
+        Uri result,
+        int version) {
+        Uri value = result != null ? result : NO_RESULT;
+        cache.put(key, value);
+        if (fVersion != version) {
+            cache.remove(key);
+        }
+        return value;
+    }
+
+    /**
+     * Throws an exception if this mapper is read-only.
+     */
+    private void checkWritable() {
+        if (fReadOnly) {
+            throw new UnsupportedOperationException(
+                "Read-only mappers can not be changed");
+        }
+    }
+
+    /**
+     * Transforms the given path to an absolute URL without using caches.
+     * 
+     * @param path the path to transform to an URL
+     * @return an URL corresponding to the given path
+     */
+    private Uri doPathToUri(Uri path) {
+        OperationMetrics metrics = getOperationMetrics(false);
+        long start = startSample(metrics);
+        String key = SiteUrlMapper.getPathKey(path, false);
+        String str = transform(false, key, key.length(), key, metrics, start);
+        return toUri(str);
+    }
+
+    /**
+     * Transforms the given absolute URL to the corresponding local path
+     * without using caches.
+     * 
+     * @param uri the absolute URL to transformate to path
+     * @return an path corresponding to the given URL
+     */
+    private Uri doUriToPath(Uri uri) {
+        OperationMetrics metrics = getOperationMetrics(true);
+        long start = startSample(metrics);
+        String uriStr = uri.toString();
+        if (!fHostFilter.mayContain(uriStr, 0, uriStr.length())) {
+            onUnknownHost(metrics, start);
+            return null;
+        }
+        String key = SiteUrlMapper.getUriKey(uri);
+        String str = transform(true, key, key.length(), uriStr, metrics, start);
+        return toUri(str);
+    }
+
+    /**
+     * Finds the site corresponding to the key in the specified region of the
+     * given sequence and appends the path of the URL to the buffer.
+     * 
+     * @return <code>true</code> if the URL was transformed
+     */
+    private boolean doUriToPath(
+        CharSequence str,
+        int begin,
+        int keyEnd,
+        int end,
+        StringBuilder out,
+        OperationMetrics metrics,
+        long start) {
+        SiteUrlMapper translator = fUrlToPathTranslators.getNearestValue(
+            str,
+            begin,
+            keyEnd);
+        if (translator == null && !fWildcardSites.isEmpty()) {
+            return transformWildcard(
+                true,
+                str,
+                begin,
+                end,
+                out,
+                metrics,
+                start);
+        }
+        if (metrics == null) {
+            return translator != null
+                && translator.uriToPath(str, begin, end, out);
+        }
+        boolean sampled = start != MapperMetrics.NOT_SAMPLED;
+        long lookupEnd = sampled ? System.nanoTime() : 0;
+        boolean result = false;
+        if (translator != null) {
+            SiteUrlMapper.RegexpUrlTransformer transformer = translator
+                .getUriToPath();
+            SiteMetrics siteMetrics = metrics.newSiteMetrics(
+                transformer.getFromPrefix(),
+                transformer.getRuleSetMatcher().getRuleCount());
+            result = transformer.transform(str, begin, end, out, siteMetrics);
+        } else {
+            metrics.onMiss();
+        }
+        if (sampled) {
+            metrics.record(start, lookupEnd, System.nanoTime());
+        }
+        return result;
+    }
+
+    /**
+     * Returns metrics of this mapper or <code>null</code> if metrics are
+     * disabled.
+     * 
+     * @return metrics of this mapper
+     * @see #setMetrics(MapperMetrics)
+     */
+    public MapperMetrics getMetrics() {
+        return fMetrics;
+    }
+
+    /**
+     * Returns metrics of URL-to-path or path-to-URL transformations or
+     * <code>null</code> if metrics are disabled.
+     */
+    private OperationMetrics getOperationMetrics(boolean uriToPath) {
+        MapperMetrics metrics = fMetrics;
+        if (metrics == null) {
+            return null;
+        }
+        return uriToPath
+            ? metrics.getUriToPathMetrics()
+            : metrics.getPathToUriMetrics();
+    }
+
+    /**
+     * Returns the cache of path-to-URL transformations or <code>null</code>
+     * if caching is disabled.
+     * 
+     * @return the cache of path-to-URL transformations
+     * @see #setCacheSize(int)
+     */
+    public LruCache<String, Uri> getPathToUriCache() {
+        return fPathToUriCache;
+    }
+
+    /**
+     * Returns all registered site mappers in the order of their registration.
+     * 
+     * @return an unmodifiable list of all site mappers
+     */
+    public List<SiteUrlMapper> getSiteMappers() {
+        return Collections.unmodifiableList(new ArrayList<SiteUrlMapper>(
+            fSites.values()));
+    }
+
+    /**
+     * Returns the cache of URL-to-path transformations or <code>null</code>
+     * if caching is disabled.
+     * 
+     * @return the cache of URL-to-path transformations
+     * @see #setCacheSize(int)
+     */
+    public LruCache<String, Uri> getUriToPathCache() {
+        return fUriToPathCache;
+    }
+
+    /**
+     * Returns <code>true</code> if the given normalized path is relative and
+     * it has no scheme.
+     */
+    private boolean isRelativePath(String path) {
+        int len = path.length();
+        if (len > 0 && path.charAt(0) == '/') {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            char ch = path.charAt(i);
+            if (ch == ':') {
+                return false;
+            }
+            if (ch == '/' || ch == '?' || ch == '#') {
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if this mapper is a read-only snapshot which
+     * can not be modified.
+     * 
+     * @return <code>true</code> if this mapper is read-only
+     */
+    public boolean isReadOnly() {
+        return fReadOnly;
+    }
+
+    /**
+     * Returns the normalized form of the given transformation result.
+     */
+    private String normalize(String str) {
+        if (str == null || isNormalized(str)) {
+            return str;
+        }
+        return new Uri(str).toString();
+    }
+
+    /**
+     * This method is called each time when the configuration of this mapper is
+     * changed. It removes all cached results.
+     */
+    private void onChange() {
+        fVersion++;
+        LruCache<String, Uri> cache = fUriToPathCache;
+        if (cache != null) {
+            cache.clear();
+        }
+        cache = fPathToUriCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Updates metrics for an URL rejected by the host filter.
+     */
+    private void onUnknownHost(OperationMetrics metrics, long start) {
+        if (metrics != null) {
+            metrics.onMiss();
+            if (start != MapperMetrics.NOT_SAMPLED) {
+                long end = System.nanoTime();
+                metrics.record(start, end, end);
+            }
+        }
     }
 
     /**
@@ -443,8 +1514,20 @@ public class UrlToPathMapper {
      * @return an URL corresponding to the given path
      */
     public Uri pathToUri(String path) {
-        Uri p = new Uri(path);
-        return pathToUri(p);
+        LruCache<String, Uri> cache = fPathToUriCache;
+        if (cache == null) {
+            return doPathToUri(new Uri(path));
+        }
+        Uri result = cache.get(path);
+        if (result == null) {
+            int version = fVersion;
+            result = cacheResult(
+                cache,
+                path,
+                doPathToUri(new Uri(path)),
+                version);
+        }
+        return result != NO_RESULT ? result : null;
     }
 
     /**
@@ -454,16 +1537,249 @@ public class UrlToPathMapper {
      * @return an URL corresponding to the given path
      */
     public Uri pathToUri(Uri path) {
-        String key = SiteUrlMapper.getPathKey(path, false);
-        SiteUrlMapper tranlator = fPathToUrlTranslators.getNearestValue(key);
-        Uri result = null;
-        if (tranlator != null) {
-            String str = tranlator.pathToUri(key);
-            result = toUri(str);
+        LruCache<String, Uri> cache = fPathToUriCache;
+        if (cache == null) {
+            return doPathToUri(path);
+        }
+        String key = path.toString();
+        Uri result = cache.get(key);
+        if (result == null) {
+            int version = fVersion;
+            result = cacheResult(cache, key, doPathToUri(path), version);
+        }
+        return result != NO_RESULT ? result : null;
+    }
+
+    /**
+     * Adds the given site to the internal indexes. If there is already a site
+     * with the same URL prefix then it is removed from all indexes. Sites
+     * with wildcard host patterns are validated before any index is
+     * modified, so invalid sites do not change this mapper.
+     * 
+     * @param site the site to add
+     * @throws IllegalArgumentException if the site has an invalid wildcard
+     *         host pattern or path template
+     */
+    private void registerSite(SiteUrlMapper site) {
+        String uriStr = site.getUriPrefix();
+        String pathStr = site.getPathPrefix();
+        boolean wildcard = WildcardSiteIndex.isWildcardPrefix(uriStr);
+        if (wildcard) {
+            WildcardSiteIndex.checkPattern(uriStr, pathStr);
+        }
+        SiteUrlMapper prev = fSites.remove(uriStr);
+        if (prev != null) {
+            String prevPath = prev.getPathPrefix();
+            if (fPathToUrlTranslators.get(prevPath) == prev) {
+                fPathToUrlTranslators.remove(prevPath);
+            }
+        } else {
+            fHostFilter.add(uriStr);
+        }
+        fSites.put(uriStr, site);
+        if (wildcard) {
+            fWildcardSites.put(uriStr, pathStr, site);
+            return;
+        }
+        fPathToUrlTranslators.put(pathStr, site);
+        fUrlToPathTranslators.put(uriStr, site);
+    }
+
+    /**
+     * Transforms the given path to an absolute URL and returns it as a
+     * string. This method gives the same results as the
+     * {@link #pathToUri(String)} method, but for normalized relative paths
+     * it does not create intermediate {@link Uri} objects. This method does
+     * not use result caches.
+     * 
+     * @param path the path to transform to an URL
+     * @return an URL corresponding to the given path or <code>null</code> if
+     *         there is no such an URL
+     */
+    public String pathToUriString(String path) {
+        if (!isNormalized(path) || !isRelativePath(path)) {
+            return toString(doPathToUri(new Uri(path)));
+        }
+        OperationMetrics metrics = getOperationMetrics(false);
+        long start = startSample(metrics);
+        int end = getKeyEnd(path);
+        String result = transform(false, path, end, path, metrics, start);
+        return normalize(result);
+    }
+
+    /**
+     * Enables or disables caching of transformation results. If the given
+     * size is a positive value then this method creates new caches for URL
+     * to path and path to URL transformations; each cache keeps at most the
+     * specified number of results (including negative ones). Otherwise caching
+     * is disabled. Caches are cleared each time when the configuration of this
+     * mapper is changed.
+     * 
+     * @param maxSize the maximal number of results in each cache
+     * @return reference to this object
+     */
+    public UrlToPathMapper setCacheSize(int maxSize) {
+        if (maxSize > 0) {
+            fUriToPathCache = new LruCache<String, Uri>(maxSize);
+            fPathToUriCache = new LruCache<String, Uri>(maxSize);
+        } else {
+            fUriToPathCache = null;
+            fPathToUriCache = null;
+        }
+        return this;
+    }
+
+    /**
+     * Enables or disables collecting of metrics. If the given object is
+     * <code>null</code> then metrics are disabled; in this case they cost
+     * just one field read per transformation.
+     * 
+     * @param metrics the object collecting metrics of this mapper
+     * @return reference to this object
+     */
+    public UrlToPathMapper setMetrics(MapperMetrics metrics) {
+        fMetrics = metrics;
+        return this;
+    }
+
+    /**
+     * Returns the current time if the current call should be measured or
+     * {@link MapperMetrics#NOT_SAMPLED} otherwise.
+     */
+    private long startSample(OperationMetrics metrics) {
+        return metrics != null
+            ? metrics.startSample()
+            : MapperMetrics.NOT_SAMPLED;
+    }
+
+    /**
+     * Finds the site corresponding to the specified key and applies its
+     * transformations to the given string.
+     * 
+     * @param uriToPath if this flag is <code>true</code> then URL-to-path
+     *        transformations are applied; otherwise path-to-URL
+     *        transformations are used
+     * @param key the key used to find the site
+     * @param keyEnd the end of the key in the given key string
+     * @param str the string to transform
+     * @param metrics metrics to update; it could be <code>null</code>
+     * @param start the start time of the sampled call or
+     *        {@link MapperMetrics#NOT_SAMPLED}
+     * @return the result of the transformation or <code>null</code> if there
+     *         is no corresponding site
+     */
+    private String transform(
+        boolean uriToPath,
+        String key,
+        int keyEnd,
+        String str,
+        OperationMetrics metrics,
+        long start) {
+        SiteUrlMapper translator = uriToPath
+            ? fUrlToPathTranslators.getNearestValue(key, 0, keyEnd)
+            : fPathToUrlTranslators.getNearestValue(key, 0, keyEnd);
+        if (translator == null && !fWildcardSites.isEmpty()) {
+            StringBuilder out = new StringBuilder();
+            return transformWildcard(
+                uriToPath,
+                str,
+                0,
+                str.length(),
+                out,
+                metrics,
+                start) ? out.toString() : null;
+        }
+        if (metrics == null) {
+            if (translator == null) {
+                return null;
+            }
+            return uriToPath
+                ? translator.uriToPath(str)
+                : translator.pathToUri(str);
+        }
+        boolean sampled = start != MapperMetrics.NOT_SAMPLED;
+        long lookupEnd = sampled ? System.nanoTime() : 0;
+        String result = null;
+        if (translator != null) {
+            SiteUrlMapper.RegexpUrlTransformer transformer = uriToPath
+                ? translator.getUriToPath()
+                : translator.getPathToUri();
+            SiteMetrics siteMetrics = metrics.newSiteMetrics(
+                transformer.getFromPrefix(),
+                transformer.getRuleSetMatcher().getRuleCount());
+            result = transformer.transform(str, siteMetrics);
+        } else {
+            metrics.onMiss();
+        }
+        if (sampled) {
+            metrics.record(start, lookupEnd, System.nanoTime());
         }
         return result;
     }
 
+    /**
+     * Transforms the URL or path defined by the specified region of the given
+     * sequence using sites with wildcard host patterns and appends the result
+     * to the buffer.
+     * 
+     * @param uriToPath if this flag is <code>true</code> then the region
+     *        contains an URL to transform to a path; otherwise it contains a
+     *        path
+     * @return <code>true</code> if the URL or path was transformed
+     */
+    private boolean transformWildcard(
+        boolean uriToPath,
+        CharSequence str,
+        int begin,
+        int end,
+        StringBuilder out,
+        OperationMetrics metrics,
+        long start) {
+        int[] match = new int[WildcardSiteIndex.MATCH_SIZE];
+        SiteUrlMapper site = uriToPath
+            ? fWildcardSites.find(str, begin, end, match)
+            : fWildcardSites.findPath(str, begin, end, match);
+        boolean sampled = metrics != null
+            && start != MapperMetrics.NOT_SAMPLED;
+        long lookupEnd = sampled ? System.nanoTime() : 0;
+        if (site != null) {
+            SiteUrlMapper.RegexpUrlTransformer transformer = uriToPath
+                ? site.getUriToPath()
+                : site.getPathToUri();
+            SiteMetrics siteMetrics = metrics != null ? metrics
+                .newSiteMetrics(
+                    transformer.getFromPrefix(),
+                    transformer.getRuleSetMatcher().getRuleCount()) : null;
+            int pos = out.length();
+            if (uriToPath) {
+                WildcardSiteIndex.appendPath(
+                    transformer.getToPrefix(),
+                    str,
+                    match,
+                    out);
+            } else {
+                WildcardSiteIndex.appendUrl(
+                    transformer.getToPrefix(),
+                    str,
+                    match,
+                    out);
+            }
+            transformer.transformSuffix(
+                str,
+                match[0],
+                end,
+                pos,
+                out,
+                siteMetrics);
+        } else if (metrics != null) {
+            metrics.onMiss();
+        }
+        if (sampled) {
+            metrics.record(start, lookupEnd, System.nanoTime());
+        }
+        return site != null;
+    }
+
     @Override
     public String toString() {
         return ""
@@ -475,6 +1791,14 @@ public class UrlToPathMapper {
             + "";
     }
 
+    /**
+     * Returns the string representation of the given URL or
+     * <code>null</code> if the URL is <code>null</code>.
+     */
+    private String toString(Uri uri) {
+        return uri != null ? uri.toString() : null;
+    }
+
     /**
      * Transforms the given string to an absolute URL.
      * 
@@ -492,8 +1816,20 @@ public class UrlToPathMapper {
      * @return an path corresponding to the given URL
      */
     public Uri uriToPath(String uri) {
-        Uri u = new Uri(uri);
-        return uriToPath(u);
+        LruCache<String, Uri> cache = fUriToPathCache;
+        if (cache == null) {
+            return doUriToPath(new Uri(uri));
+        }
+        Uri result = cache.get(uri);
+        if (result == null) {
+            int version = fVersion;
+            result = cacheResult(
+                cache,
+                uri,
+                doUriToPath(new Uri(uri)),
+                version);
+        }
+        return result != NO_RESULT ? result : null;
     }
 
     /**
@@ -503,14 +1839,98 @@ public class UrlToPathMapper {
      * @return an path corresponding to the given URL
      */
     public Uri uriToPath(Uri uri) {
-        String key = SiteUrlMapper.getUriKey(uri);
-        SiteUrlMapper tranlator = fUrlToPathTranslators.getNearestValue(key);
-        Uri result = null;
-        if (tranlator != null) {
-            String str = tranlator.uriToPath(uri.toString());
-            result = toUri(str);
+        LruCache<String, Uri> cache = fUriToPathCache;
+        if (cache == null) {
+            return doUriToPath(uri);
         }
-        return result;
+        String key = uri.toString();
+        Uri result = cache.get(key);
+        if (result == null) {
+            int version = fVersion;
+            result = cacheResult(cache, key, doUriToPath(uri), version);
+        }
+        return result != NO_RESULT ? result : null;
+    }
+
+    /**
+     * Transforms the absolute URL defined by the specified region of the given
+     * character sequence (for example a link in a document buffer) to the
+     * corresponding local path and appends it to the buffer. This method gives
+     * the same results as the {@link #uriToPathString(String)} method; for
+     * normalized URLs it does not create intermediate strings or {@link Uri}
+     * objects: the site is found and the rules are applied directly to the
+     * region and results of rules with simple replacements are copied from
+     * the sequence to the buffer. Small objects are still created for each
+     * call: a {@link java.util.regex.Matcher} for each evaluated rule step, a
+     * {@link RuleSetMatcher.Match} and, for sites with wildcard hosts, an
+     * array of match offsets. This method does not use result caches.
+     * 
+     * @param uri the character sequence containing the URL
+     * @param begin the start position of the URL
+     * @param end the end position of the URL
+     * @param out the buffer where the resulting path is appended
+     * @return <code>true</code> if the URL was transformed; otherwise the
+     *         buffer is not changed
+     */
+    public boolean uriToPath(
+        CharSequence uri,
+        int begin,
+        int end,
+        StringBuilder out) {
+        if (!isNormalized(uri, begin, end)) {
+            String str = uri.subSequence(begin, end).toString();
+            String result = toString(doUriToPath(new Uri(str)));
+            if (result == null) {
+                return false;
+            }
+            out.append(result);
+            return true;
+        }
+        OperationMetrics metrics = getOperationMetrics(true);
+        long start = startSample(metrics);
+        if (!fHostFilter.mayContain(uri, begin, end)) {
+            onUnknownHost(metrics, start);
+            return false;
+        }
+        int keyEnd = getKeyEnd(uri, begin, end);
+        int pos = out.length();
+        if (!doUriToPath(uri, begin, keyEnd, end, out, metrics, start)) {
+            return false;
+        }
+        if (!isNormalized(out, pos, out.length())) {
+            String result = new Uri(out.substring(pos)).toString();
+            out.setLength(pos);
+            out.append(result);
+        }
+        return true;
+    }
+
+    /**
+     * Transforms the given absolute URL to the corresponding local path and
+     * returns it as a string. This method gives the same results as the
+     * {@link #uriToPath(String)} method, but for normalized URLs it does not
+     * create intermediate {@link Uri} objects: the query and the fragment are
+     * skipped by scanning the string, the site is found by the URL prefix and
+     * the transformation is applied directly to the given string. This
+     * method does not use result caches.
+     * 
+     * @param uri the absolute URL to transform to a path
+     * @return a path corresponding to the given URL or <code>null</code> if
+     *         there is no such a path
+     */
+    public String uriToPathString(String uri) {
+        if (!isNormalized(uri)) {
+            return toString(doUriToPath(new Uri(uri)));
+        }
+        OperationMetrics metrics = getOperationMetrics(true);
+        long start = startSample(metrics);
+        if (!fHostFilter.mayContain(uri, 0, uri.length())) {
+            onUnknownHost(metrics, start);
+            return null;
+        }
+        int end = getKeyEnd(uri);
+        String result = transform(true, uri, end, uri, metrics, start);
+        return normalize(result);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,139 @@
+/**
+ * 
+ */
+package org.ubimix.pageset;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.ubimix.commons.uri.Uri;
+
+/**
+ * This class keeps a reference to the current read-only
+ * {@link UrlToPathMapper} snapshot and allows to atomically replace it by a
+ * new one. Readers never take locks: each transformation method reads the
+ * current snapshot once and performs the whole operation with it, so
+ * in-flight lookups finish with the snapshot they started on even if it is
+ * replaced concurrently.
+ * 
+ * <pre>
+ * UrlToPathMapper.Builder builder = UrlToPathMapper.builder();
+ * loader.configure(configUrl, xml, builder);
+ * holder.setMapper(builder.build());
+ * </pre>
+ * 
+ * @author kotelnikov
+ */
+public class UrlToPathMapperHolder {
+
+    private final AtomicReference<UrlToPathMapper> fMapper;
+
+    /**
+     * Creates a new holder with an empty mapper.
+     */
+    public UrlToPathMapperHolder() {
+        this(UrlToPathMapper.builder().build());
+    }
+
+    /**
+     * Creates a new holder with the specified read-only mapper.
+     * 
+     * @param mapper the initial read-only mapper
+     */
+    public UrlToPathMapperHolder(UrlToPathMapper mapper) {
+        checkMapper(mapper);
+        fMapper = new AtomicReference<UrlToPathMapper>(mapper);
+    }
+
+    private void checkMapper(UrlToPathMapper mapper) {
+        if (mapper == null) {
+            throw new IllegalArgumentException("Mapper can not be null");
+        }
+        if (!mapper.isReadOnly()) {
+            throw new IllegalArgumentException(
+                "Only read-only mappers could be published");
+        }
+    }
+
+    /**
+     * Atomically replaces the current mapper by the new one if the current
+     * mapper is the same as the expected one.
+     * 
+     * @param expected the expected current mapper
+     * @param mapper the new read-only mapper
+     * @return <code>true</code> if the mapper was replaced
+     */
+    public boolean compareAndSetMapper(
+        UrlToPathMapper expected,
+        UrlToPathMapper mapper) {
+        checkMapper(mapper);
+        return fMapper.compareAndSet(expected, mapper);
+    }
+
+    /**
+     * Returns the current mapper snapshot.
+     * 
+     * @return the current mapper snapshot
+     */
+    public UrlToPathMapper getMapper() {
+        return fMapper.get();
+    }
+
+    /**
+     * Transforms the given path to an absolute URL using the current mapper.
+     * 
+     * @param path the path to transform to an URL
+     * @return an URL corresponding to the given path
+     */
+    public Uri pathToUri(String path) {
+        return fMapper.get().pathToUri(path);
+    }
+
+    /**
+     * Transforms the given path to an absolute URL using the current mapper.
+     * 
+     * @param path the path to transform to an URL
+     * @return an URL corresponding to the given path
+     */
+    public Uri pathToUri(Uri path) {
+        return fMapper.get().pathToUri(path);
+    }
+
+    /**
+     * Atomically replaces the current mapper and returns the previous one.
+     * 
+     * @param mapper the new read-only mapper
+     * @return the previous mapper
+     */
+    public UrlToPathMapper setMapper(UrlToPathMapper mapper) {
+        checkMapper(mapper);
+        return fMapper.getAndSet(mapper);
+    }
+
+    @Override
+    public String toString() {
+        return "UrlToPathMapperHolder{" + fMapper.get() + "}";
+    }
+
+    /**
+     * Transforms the given absolute URL to a local path using the current
+     * mapper.
+     * 
+     * @param uri the absolute URL to transform to a path
+     * @return a path corresponding to the given URL
+     */
+    public Uri uriToPath(String uri) {
+        return fMapper.get().uriToPath(uri);
+    }
+
+    /**
+     * Transforms the given absolute URL to a local path using the current
+     * mapper.
+     * 
+     * @param uri the absolute URL to transform to a path
+     * @return a path corresponding to the given URL
+     */
+    public Uri uriToPath(Uri uri) {
+        return fMapper.get().uriToPath(uri);
+    }
+
+}
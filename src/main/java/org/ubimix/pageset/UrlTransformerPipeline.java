@@ -0,0 +1,368 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.ubimix.commons.uri.Uri;
+
+/**
+ * An asynchronous transformation stage built around an
+ * {@link IUrlTransformer} (for example the download or localize transformers
+ * of a {@link PageSetConfig}). Producers submit URLs without waiting for
+ * their transformation; results are delivered to an {@link IListener}.
+ * <ul>
+ * <li>URLs are grouped in batches of a fixed size (see
+ * {@link #setBatchSize(int)}); each batch is transformed by one task of the
+ * executor.</li>
+ * <li>The number of batches in flight (submitted but not yet delivered) is
+ * bounded (see {@link #setMaxInFlight(int)}). When this limit is reached the
+ * {@link #submit(Uri)} method blocks the producer until a batch is
+ * delivered, so a fast producer can not flood the executor and the
+ * memory.</li>
+ * <li>In the ordered mode (the default) results are delivered in the order
+ * of submission; batches completed too early wait for previous ones. In the
+ * unordered mode each batch is delivered as soon as it is transformed.</li>
+ * </ul>
+ * <p>
+ * Listener methods are never called concurrently. Errors thrown by the
+ * transformer are delivered to the {@link IListener#onError(Uri, Throwable)}
+ * method and do not stop the pipeline.
+ * </p>
+ * <p>
+ * The {@link #submit(Uri)}, {@link #flush()} and {@link #finish()} methods
+ * are synchronized; they are expected to be called by one producer thread.
+ * The configuration can not be changed after the first submitted URL.
+ * </p>
+ *
+ * <pre>
+ * UrlTransformerPipeline pipeline = new UrlTransformerPipeline(
+ *     config.getDownloadUrlTransformer(),
+ *     executor,
+ *     listener).setBatchSize(32).setMaxInFlight(8);
+ * for (Uri link : links) {
+ *     pipeline.submit(link);
+ * }
+ * pipeline.finish();
+ * </pre>
+ *
+ * @author kotelnikov
+ */
+public class UrlTransformerPipeline {
+
+    /**
+     * A batch of URLs transformed by one task.
+     */
+    private class Batch implements Runnable {
+
+        private Throwable[] fErrors;
+
+        private final Uri[] fResults;
+
+        private final long fSequence;
+
+        private int fSize;
+
+        private final Uri[] fUris;
+
+        public Batch(long sequence, int size) {
+            fSequence = sequence;
+            fUris = new Uri[size];
+            fResults = new Uri[size];
+        }
+
+        public void run() {
+            for (int i = 0; i < fSize; i++) {
+                try {
+                    fResults[i] = fTransformer.transform(fUris[i]);
+                } catch (Throwable t) {
+                    if (fErrors == null) {
+                        fErrors = new Throwable[fSize];
+                    }
+                    fErrors[i] = t;
+                }
+            }
+            complete(this);
+        }
+
+    }
+
+    /**
+     * Receives results of the pipeline.
+     */
+    public interface IListener {
+
+        /**
+         * This method is called when the transformer fails for the given
+         * URL.
+         *
+         * @param uri the submitted URL
+         * @param error the error thrown by the transformer
+         */
+        void onError(Uri uri, Throwable error);
+
+        /**
+         * This method is called with the result of the transformation of
+         * the given URL.
+         *
+         * @param uri the submitted URL
+         * @param result the result of the transformation; it could be
+         *        <code>null</code>
+         */
+        void onResult(Uri uri, Uri result);
+
+    }
+
+    /**
+     * The default number of URLs transformed by one task.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    /**
+     * The default maximal number of batches in flight.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+
+    private Batch fBatch;
+
+    private int fBatchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Transformed batches waiting for previous ones in the ordered mode.
+     * Keys are sequence numbers of batches.
+     */
+    private final Map<Long, Batch> fCompleted = new HashMap<Long, Batch>();
+
+    private final Object fDeliveryLock = new Object();
+
+    private final Executor fExecutor;
+
+    /**
+     * Permits of this semaphore correspond to batches which could be
+     * submitted; it is created with the first submitted URL.
+     */
+    private volatile Semaphore fInFlight;
+
+    private final IListener fListener;
+
+    /**
+     * The first exception thrown by the listener.
+     */
+    private RuntimeException fListenerError;
+
+    private int fMaxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    /**
+     * The sequence number of the next batch to deliver.
+     */
+    private long fNextDelivery;
+
+    /**
+     * The sequence number of the next created batch.
+     */
+    private long fNextSequence;
+
+    private boolean fOrdered = true;
+
+    private final IUrlTransformer fTransformer;
+
+    /**
+     * @param transformer the transformer applied to submitted URLs
+     * @param executor the executor running transformation tasks
+     * @param listener the listener receiving results
+     */
+    public UrlTransformerPipeline(
+        IUrlTransformer transformer,
+        Executor executor,
+        IListener listener) {
+        fTransformer = transformer;
+        fExecutor = executor;
+        fListener = listener;
+    }
+
+    private void checkNotStarted() {
+        if (fInFlight != null) {
+            throw new IllegalStateException("The pipeline is already started");
+        }
+    }
+
+    /**
+     * This method is called by tasks when the given batch is transformed.
+     */
+    private void complete(Batch batch) {
+        synchronized (fDeliveryLock) {
+            if (!fOrdered) {
+                deliver(batch);
+                return;
+            }
+            fCompleted.put(batch.fSequence, batch);
+            Batch next;
+            while ((next = fCompleted.remove(fNextDelivery)) != null) {
+                fNextDelivery++;
+                deliver(next);
+            }
+        }
+    }
+
+    private void deliver(Batch batch) {
+        try {
+            for (int i = 0; i < batch.fSize; i++) {
+                Throwable error = batch.fErrors != null
+                    ? batch.fErrors[i]
+                    : null;
+                if (error != null) {
+                    fListener.onError(batch.fUris[i], error);
+                } else {
+                    fListener.onResult(batch.fUris[i], batch.fResults[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            if (fListenerError == null) {
+                fListenerError = e;
+            }
+        } finally {
+            fInFlight.release();
+        }
+    }
+
+    /**
+     * Submits the current incomplete batch (if any) for transformation. If
+     * the executor rejects the batch then it stays the current one.
+     *
+     * @throws InterruptedException if the current thread was interrupted
+     *         while waiting for a free slot
+     */
+    public synchronized void flush() throws InterruptedException {
+        if (fBatch == null || fBatch.fSize == 0) {
+            return;
+        }
+        fInFlight.acquire();
+        Batch batch = fBatch;
+        fBatch = null;
+        try {
+            fExecutor.execute(batch);
+        } catch (RejectedExecutionException e) {
+            // Keep the batch to preserve its position in the sequence
+            fBatch = batch;
+            fInFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Submits the current incomplete batch and waits until all submitted URLs
+     * are delivered to the listener. The pipeline could be used again after
+     * this method.
+     *
+     * @throws InterruptedException if the current thread was interrupted
+     * @throws IllegalStateException if the listener has thrown an exception;
+     *         this exception is the cause of the returned error
+     */
+    public synchronized void finish() throws InterruptedException {
+        if (fInFlight == null) {
+            return;
+        }
+        flush();
+        fInFlight.acquire(fMaxInFlight);
+        fInFlight.release(fMaxInFlight);
+        RuntimeException error;
+        synchronized (fDeliveryLock) {
+            error = fListenerError;
+            fListenerError = null;
+        }
+        if (error != null) {
+            throw (IllegalStateException) new IllegalStateException(
+                "The listener has failed").initCause(error);
+        }
+    }
+
+    /**
+     * Returns the number of batches submitted but not yet delivered.
+     *
+     * @return the number of batches in flight
+     */
+    public int getInFlightCount() {
+        Semaphore inFlight = fInFlight;
+        return inFlight != null ? fMaxInFlight - inFlight.availablePermits() : 0;
+    }
+
+    /**
+     * Returns <code>true</code> if results are delivered in the order of
+     * submission.
+     *
+     * @return <code>true</code> if results are ordered
+     */
+    public boolean isOrdered() {
+        return fOrdered;
+    }
+
+    /**
+     * Sets the number of URLs transformed by one task.
+     *
+     * @param batchSize the number of URLs in one batch
+     * @return reference to this object
+     */
+    public synchronized UrlTransformerPipeline setBatchSize(int batchSize) {
+        checkNotStarted();
+        fBatchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    /**
+     * Sets the maximal number of batches submitted but not yet delivered.
+     *
+     * @param maxInFlight the maximal number of batches in flight
+     * @return reference to this object
+     */
+    public synchronized UrlTransformerPipeline setMaxInFlight(int maxInFlight) {
+        checkNotStarted();
+        fMaxInFlight = Math.max(1, maxInFlight);
+        return this;
+    }
+
+    /**
+     * Sets the delivery mode of results.
+     *
+     * @param ordered if it is <code>true</code> then results are delivered in
+     *        the order of submission; otherwise batches are delivered as soon
+     *        as they are transformed
+     * @return reference to this object
+     */
+    public synchronized UrlTransformerPipeline setOrdered(boolean ordered) {
+        checkNotStarted();
+        fOrdered = ordered;
+        return this;
+    }
+
+    /**
+     * Adds the given URL to the current batch. If the batch is full then it
+     * is submitted for transformation; in this case this method blocks while
+     * the maximal number of batches is in flight.
+     *
+     * @param uri the URL to transform
+     * @throws InterruptedException if the current thread was interrupted
+     *         while waiting for a free slot
+     */
+    public synchronized void submit(Uri uri) throws InterruptedException {
+        if (fInFlight == null) {
+            fInFlight = new Semaphore(fMaxInFlight);
+        }
+        if (fBatch != null && fBatch.fSize == fBatchSize) {
+            // A full batch previously rejected by the executor
+            flush();
+        }
+        if (fBatch == null) {
+            fBatch = new Batch(fNextSequence++, fBatchSize);
+        }
+        fBatch.fUris[fBatch.fSize++] = uri;
+        if (fBatch.fSize == fBatchSize) {
+            flush();
+        }
+    }
+
+}
@@ -0,0 +1,765 @@
+/**
+ *
+ */
+package org.ubimix.pageset;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An index of sites defined by URL prefixes with wildcard host patterns like
+ * "http://*.blogspot.com/". Each leading "*" label of the pattern matches
+ * exactly one label of the host; other labels, the scheme, the port and the
+ * path part of the prefix are matched literally. So one site defines
+ * mappings for all tenant subdomains of a platform.
+ * <p>
+ * Literal labels of patterns are kept in a trie of reversed domain labels
+ * ("com" - "blogspot"). A lookup walks host labels of the URL from the right
+ * to the left, comparing them in place, and selects the most specific
+ * pattern with the same number of remaining (wildcard) labels. The cost of a
+ * lookup depends only on the number of host labels, not on the number of
+ * registered patterns.
+ * </p>
+ * <p>
+ * Labels matched by wildcards are captured. Captured labels could be used in
+ * path templates of sites: "$1" is replaced by the first (leftmost) label,
+ * "$2" by the second one and so on. A path template referencing all captured
+ * labels could be mapped back to URLs (see
+ * {@link #findPath(CharSequence, int, int, int[])}).
+ * </p>
+ * <p>
+ * This class is not thread-safe. Instances could be safely shared between
+ * threads only if they are not modified after publication.
+ * </p>
+ *
+ * @author kotelnikov
+ * @param <T> the type of values associated with patterns
+ */
+class WildcardSiteIndex<T> {
+
+    /**
+     * A registered pattern.
+     */
+    private static class Entry<T> {
+
+        /**
+         * The number of leading wildcard labels of the host pattern.
+         */
+        private final int fLabelCount;
+
+        /**
+         * The path part of the URL prefix.
+         */
+        private final String fPath;
+
+        /**
+         * The path template; it could contain references to captured labels.
+         */
+        private String fPathTemplate;
+
+        /**
+         * The port part of the authority (":8080") or an empty string.
+         */
+        private final String fPort;
+
+        private final String fPrefix;
+
+        /**
+         * This flag is <code>true</code> if the path template references all
+         * captured labels, so paths could be mapped back to URLs.
+         */
+        private boolean fReversible;
+
+        private final String fScheme;
+
+        private T fValue;
+
+        public Entry(
+            String prefix,
+            String scheme,
+            String port,
+            String path,
+            int labelCount) {
+            fPrefix = prefix;
+            fScheme = scheme;
+            fPort = port;
+            fPath = path;
+            fLabelCount = labelCount;
+        }
+
+        /**
+         * Returns <code>true</code> if the path part of this pattern matches
+         * the specified region at a segment boundary.
+         */
+        public boolean matchesPath(CharSequence str, int begin, int end) {
+            int len = fPath.length();
+            if (!regionStartsWith(str, begin, end, fPath)) {
+                return false;
+            }
+            int pos = begin + len;
+            if (len == 0 || pos == end || fPath.charAt(len - 1) == '/') {
+                return true;
+            }
+            char ch = str.charAt(pos);
+            return ch == '/' || ch == '?' || ch == '#';
+        }
+
+        public void setValue(String pathTemplate, T value) {
+            fPathTemplate = pathTemplate;
+            fValue = value;
+            fReversible = true;
+            for (int i = 1; i <= fLabelCount; i++) {
+                if (pathTemplate.indexOf("$" + i) < 0) {
+                    fReversible = false;
+                    break;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * A node of the trie of reversed literal labels.
+     */
+    private static class Node<T> {
+
+        /**
+         * Children of this node; they are sorted by labels.
+         */
+        private Node<T>[] fChildren = newNodes(0);
+
+        /**
+         * Patterns with literal labels corresponding to this node.
+         */
+        private final List<Entry<T>> fEntries = new ArrayList<Entry<T>>();
+
+        /**
+         * Labels of children in the ascending order.
+         */
+        private String[] fLabels = new String[0];
+
+        /**
+         * Returns the child corresponding to the specified region or
+         * <code>null</code>.
+         */
+        public Node<T> getChild(CharSequence str, int begin, int end) {
+            int idx = indexOf(str, begin, end);
+            return idx >= 0 ? fChildren[idx] : null;
+        }
+
+        public Node<T> getOrCreateChild(String label) {
+            int idx = indexOf(label, 0, label.length());
+            if (idx >= 0) {
+                return fChildren[idx];
+            }
+            idx = -(idx + 1);
+            int len = fLabels.length;
+            String[] labels = new String[len + 1];
+            Node<T>[] children = newNodes(len + 1);
+            System.arraycopy(fLabels, 0, labels, 0, idx);
+            System.arraycopy(fChildren, 0, children, 0, idx);
+            System.arraycopy(fLabels, idx, labels, idx + 1, len - idx);
+            System.arraycopy(fChildren, idx, children, idx + 1, len - idx);
+            Node<T> child = new Node<T>();
+            labels[idx] = label;
+            children[idx] = child;
+            fLabels = labels;
+            fChildren = children;
+            return child;
+        }
+
+        /**
+         * Returns the index of the child with the label defined by the
+         * specified region or (-(insertion point) - 1).
+         */
+        private int indexOf(CharSequence str, int begin, int end) {
+            int low = 0;
+            int high = fLabels.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(fLabels[mid], str, begin, end);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+    }
+
+    /**
+     * The maximal number of wildcard labels in one host pattern.
+     */
+    public static final int MAX_LABELS = 8;
+
+    /**
+     * The size of arrays receiving results of matching. The first element is
+     * the end of the matched prefix; next elements are pairs of start and end
+     * positions of captured labels.
+     */
+    public static final int MATCH_SIZE = 1 + MAX_LABELS * 2;
+
+    /**
+     * Appends the given path template to the buffer; references to captured
+     * labels ("$1", "$2"...) are replaced by labels of the matched URL.
+     *
+     * @param template the path template
+     * @param str the character sequence containing the matched URL
+     * @param match the result of the matching (see
+     *        {@link #find(CharSequence, int, int, int[])})
+     * @param out the buffer where the result is appended
+     */
+    public static void appendPath(
+        String template,
+        CharSequence str,
+        int[] match,
+        StringBuilder out) {
+        int len = template.length();
+        for (int i = 0; i < len; i++) {
+            char ch = template.charAt(i);
+            int n = getReference(template, i);
+            if (n > 0) {
+                out.append(str, match[n * 2 - 1], match[n * 2]);
+                i++;
+            } else {
+                out.append(ch);
+            }
+        }
+    }
+
+    /**
+     * Appends the given URL pattern to the buffer; wildcard labels are
+     * replaced by labels captured from the matched path.
+     *
+     * @param pattern the URL prefix with a wildcard host pattern
+     * @param str the character sequence containing the matched path
+     * @param match the result of the matching (see
+     *        {@link #findPath(CharSequence, int, int, int[])})
+     * @param out the buffer where the result is appended
+     */
+    public static void appendUrl(
+        String pattern,
+        CharSequence str,
+        int[] match,
+        StringBuilder out) {
+        int hostBegin = pattern.indexOf("://") + 3;
+        int n = 0;
+        int pos = hostBegin;
+        while (pattern.startsWith("*.", pos)) {
+            pos += 2;
+            n++;
+        }
+        out.append(pattern, 0, hostBegin);
+        for (int i = 1; i <= n; i++) {
+            out.append(str, match[i * 2 - 1], match[i * 2]);
+            out.append('.');
+        }
+        out.append(pattern, pos, pattern.length());
+    }
+
+    /**
+     * Checks the given wildcard URL prefix and the corresponding path
+     * template and returns the number of wildcard labels of the prefix. This
+     * method does not modify any index, so it could be used to validate
+     * sites before their registration.
+     *
+     * @param prefix the URL prefix with a wildcard host pattern
+     * @param pathTemplate the path template corresponding to the prefix
+     * @return the number of wildcard labels of the prefix
+     * @throws IllegalArgumentException if the given prefix is not a valid
+     *         wildcard host pattern or if the template references unknown
+     *         labels
+     */
+    public static int checkPattern(String prefix, String pathTemplate) {
+        int authorityEnd = HostFilter.getAuthorityEnd(
+            prefix,
+            0,
+            prefix.length());
+        if (authorityEnd < 0 || !isWildcardPrefix(prefix)) {
+            throw new IllegalArgumentException(
+                "Not a wildcard host pattern: " + prefix);
+        }
+        int hostBegin = prefix.indexOf(':') + 3;
+        int hostEnd = getHostEnd(prefix, hostBegin, authorityEnd);
+        String host = prefix.substring(hostBegin, hostEnd);
+        if (host.indexOf('@') >= 0) {
+            throw new IllegalArgumentException(
+                "User information is not allowed in host patterns: " + prefix);
+        }
+        String[] labels = host.split("\\.", -1);
+        int labelCount = 0;
+        while (labelCount < labels.length && "*".equals(labels[labelCount])) {
+            labelCount++;
+        }
+        if (labelCount > MAX_LABELS) {
+            throw new IllegalArgumentException("Too many wildcard labels: "
+                + prefix);
+        }
+        for (int i = labelCount; i < labels.length; i++) {
+            String label = labels[i];
+            if (label.length() == 0 || label.indexOf('*') >= 0) {
+                throw new IllegalArgumentException(
+                    "Wildcards are allowed only in leading host labels: "
+                        + prefix);
+            }
+        }
+        for (int i = 0; i < pathTemplate.length(); i++) {
+            if (getReference(pathTemplate, i) > labelCount) {
+                throw new IllegalArgumentException(
+                    "The path template references an unknown label: "
+                        + pathTemplate);
+            }
+        }
+        return labelCount;
+    }
+
+    /**
+     * Compares the given label with the specified region.
+     */
+    private static int compare(
+        String label,
+        CharSequence str,
+        int begin,
+        int end) {
+        int len = Math.min(label.length(), end - begin);
+        for (int i = 0; i < len; i++) {
+            int cmp = label.charAt(i) - str.charAt(begin + i);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return label.length() - (end - begin);
+    }
+
+    /**
+     * Returns the start of the host in the authority starting at the given
+     * position (user information is skipped).
+     */
+    private static int getHostBegin(
+        CharSequence str,
+        int authorityBegin,
+        int authorityEnd) {
+        for (int i = authorityEnd - 1; i >= authorityBegin; i--) {
+            if (str.charAt(i) == '@') {
+                return i + 1;
+            }
+        }
+        return authorityBegin;
+    }
+
+    /**
+     * Returns the end of the host (the start of the port) in the specified
+     * region of the sequence.
+     */
+    private static int getHostEnd(CharSequence str, int begin, int end) {
+        for (int i = begin; i < end; i++) {
+            if (str.charAt(i) == ':') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Returns the number of the captured label referenced at the specified
+     * position of the template or 0.
+     */
+    private static int getReference(String template, int pos) {
+        if (template.charAt(pos) != '$' || pos + 1 >= template.length()) {
+            return 0;
+        }
+        int n = template.charAt(pos + 1) - '0';
+        return n > 0 && n <= MAX_LABELS ? n : 0;
+    }
+
+    /**
+     * Returns the literal prefix of the given path template used as the key
+     * in the index of templates: the part of the template up to the last '/'
+     * before the first reference to a captured label.
+     */
+    private static String getTemplateKey(String template) {
+        int len = template.length();
+        int i = 0;
+        while (i < len && getReference(template, i) == 0) {
+            i++;
+        }
+        return template.substring(0, template.lastIndexOf('/', i - 1) + 1);
+    }
+
+    /**
+     * Returns <code>true</code> if the host of the given URL prefix starts
+     * with a wildcard label ("http://*.foo.bar/").
+     *
+     * @param prefix the URL prefix to check
+     * @return <code>true</code> if the prefix defines a wildcard host pattern
+     */
+    public static boolean isWildcardPrefix(String prefix) {
+        int idx = prefix.indexOf("://");
+        if (idx <= 0) {
+            return false;
+        }
+        return prefix.startsWith("*.", idx + 3);
+    }
+
+    /**
+     * Returns <code>true</code> if the given character could appear in a host
+     * label.
+     */
+    private static boolean isLabelChar(char ch) {
+        return ch != '.'
+            && ch != '/'
+            && ch != '?'
+            && ch != '#'
+            && ch != ':'
+            && ch != '@';
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <T> Node<T>[] newNodes(int size) {
+        return new Node[size];
+    }
+
+    /**
+     * Returns <code>true</code> if the specified region starts with the given
+     * prefix.
+     */
+    private static boolean regionStartsWith(
+        CharSequence str,
+        int begin,
+        int end,
+        String prefix) {
+        int len = prefix.length();
+        if (end - begin < len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (str.charAt(begin + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * All patterns in the order of their registration.
+     */
+    private final List<Entry<T>> fEntries = new ArrayList<Entry<T>>();
+
+    private final Node<T> fRoot = new Node<T>();
+
+    /**
+     * Reversible patterns indexed by literal prefixes of their path
+     * templates (see {@link #getTemplateKey(String)}).
+     */
+    private final UrlPrefixTrie<List<Entry<T>>> fTemplates = new UrlPrefixTrie<List<Entry<T>>>();
+
+    public WildcardSiteIndex() {
+    }
+
+    /**
+     * Adds the given entry to the index of path templates. Entries with
+     * templates which can not be mapped back to URLs are not indexed.
+     */
+    private void addTemplate(Entry<T> entry) {
+        if (!entry.fReversible) {
+            return;
+        }
+        String key = getTemplateKey(entry.fPathTemplate);
+        List<Entry<T>> entries = fTemplates.get(key);
+        if (entries == null) {
+            entries = new ArrayList<Entry<T>>();
+            fTemplates.put(key, entries);
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * Finds the most specific pattern matching the URL defined by the
+     * specified region of the given sequence and returns the associated
+     * value. Patterns with more literal host labels are preferred; patterns
+     * with the same host are compared by lengths of their path parts.
+     *
+     * @param str the character sequence containing the URL
+     * @param begin the start position of the URL
+     * @param end the end position of the URL
+     * @param match an array of the {@link #MATCH_SIZE} size receiving the end
+     *        of the matched prefix and positions of captured labels
+     * @return the value associated with the matched pattern or
+     *         <code>null</code>
+     */
+    public T find(CharSequence str, int begin, int end, int[] match) {
+        int authorityEnd = HostFilter.getAuthorityEnd(str, begin, end);
+        if (authorityEnd < 0) {
+            return null;
+        }
+        int schemeEnd = begin;
+        while (str.charAt(schemeEnd) != ':') {
+            schemeEnd++;
+        }
+        int hostBegin = getHostBegin(str, schemeEnd + 3, authorityEnd);
+        int hostEnd = getHostEnd(str, hostBegin, authorityEnd);
+        int labelCount = 1;
+        for (int i = hostBegin; i < hostEnd; i++) {
+            if (str.charAt(i) == '.') {
+                labelCount++;
+            }
+        }
+        Entry<T> result = null;
+        Node<T> node = fRoot;
+        int pos = hostEnd;
+        while (node != null && labelCount > 0) {
+            Entry<T> entry = findEntry(
+                node,
+                labelCount,
+                str,
+                begin,
+                schemeEnd,
+                hostEnd,
+                authorityEnd,
+                end);
+            if (entry != null) {
+                result = entry;
+            }
+            int labelBegin = pos;
+            while (labelBegin > hostBegin
+                && str.charAt(labelBegin - 1) != '.') {
+                labelBegin--;
+            }
+            node = node.getChild(str, labelBegin, pos);
+            pos = labelBegin - 1;
+            labelCount--;
+        }
+        if (result == null) {
+            return null;
+        }
+        match[0] = authorityEnd + result.fPath.length();
+        pos = hostBegin;
+        for (int i = 1; i <= result.fLabelCount; i++) {
+            int labelEnd = pos;
+            while (labelEnd < hostEnd && str.charAt(labelEnd) != '.') {
+                labelEnd++;
+            }
+            match[i * 2 - 1] = pos;
+            match[i * 2] = labelEnd;
+            pos = labelEnd + 1;
+        }
+        return result.fValue;
+    }
+
+    /**
+     * Returns the entry of the given node matching the URL with the longest
+     * path part.
+     */
+    private Entry<T> findEntry(
+        Node<T> node,
+        int labelCount,
+        CharSequence str,
+        int begin,
+        int schemeEnd,
+        int hostEnd,
+        int authorityEnd,
+        int end) {
+        Entry<T> result = null;
+        for (Entry<T> entry : node.fEntries) {
+            if (entry.fLabelCount == labelCount
+                && compare(entry.fScheme, str, begin, schemeEnd) == 0
+                && compare(entry.fPort, str, hostEnd, authorityEnd) == 0
+                && entry.matchesPath(str, authorityEnd, end)
+                && (result == null || result.fPath.length() < entry.fPath
+                    .length())) {
+                result = entry;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds a pattern with the path template matching the path defined by
+     * the specified region of the given sequence and returns the associated
+     * value. References to captured labels in templates match non-empty
+     * labels. If more than one template matches then the longest match is
+     * selected. Patterns with templates which do not reference all captured
+     * labels are ignored.
+     * <p>
+     * Templates are indexed by their literal prefixes (up to the last '/'
+     * before the first reference), so only templates with a prefix of the
+     * path are checked; templates starting with a reference (like "$1/")
+     * are checked for all paths.
+     * </p>
+     *
+     * @param str the character sequence containing the path
+     * @param begin the start position of the path
+     * @param end the end position of the path
+     * @param match an array of the {@link #MATCH_SIZE} size receiving the end
+     *        of the matched template and positions of captured labels
+     * @return the value associated with the matched pattern or
+     *         <code>null</code>
+     */
+    public T findPath(CharSequence str, int begin, int end, int[] match) {
+        List<List<Entry<T>>> candidates = new ArrayList<List<Entry<T>>>();
+        if (fTemplates.getMatchingValues(str, begin, end, candidates) == 0) {
+            return null;
+        }
+        Entry<T> result = null;
+        int[] buf = new int[MATCH_SIZE];
+        for (List<Entry<T>> entries : candidates) {
+            for (Entry<T> entry : entries) {
+                int pos = matchTemplate(
+                    entry.fPathTemplate,
+                    str,
+                    begin,
+                    end,
+                    buf);
+                if (pos >= 0 && (result == null || pos > match[0])) {
+                    result = entry;
+                    System.arraycopy(buf, 0, match, 0, MATCH_SIZE);
+                    match[0] = pos;
+                }
+            }
+        }
+        return result != null ? result.fValue : null;
+    }
+
+    /**
+     * Returns <code>true</code> if this index does not contain any pattern.
+     *
+     * @return <code>true</code> if this index is empty
+     */
+    public boolean isEmpty() {
+        return fEntries.isEmpty();
+    }
+
+    /**
+     * Matches the given path template with the specified region and returns
+     * the end of the matched part or -1. The template should match at a
+     * segment boundary.
+     */
+    private int matchTemplate(
+        String template,
+        CharSequence str,
+        int begin,
+        int end,
+        int[] match) {
+        int len = template.length();
+        int pos = begin;
+        for (int i = 0; i < len; i++) {
+            int n = getReference(template, i);
+            if (n > 0) {
+                // The label ends before the next literal character
+                char stop = i + 2 < len ? template.charAt(i + 2) : '/';
+                int labelEnd = pos;
+                while (labelEnd < end) {
+                    char ch = str.charAt(labelEnd);
+                    if (ch == stop || !isLabelChar(ch)) {
+                        break;
+                    }
+                    labelEnd++;
+                }
+                if (labelEnd == pos) {
+                    return -1;
+                }
+                match[n * 2 - 1] = pos;
+                match[n * 2] = labelEnd;
+                pos = labelEnd;
+                i++;
+            } else {
+                char ch = template.charAt(i);
+                if (pos == end && ch == '/' && i == len - 1) {
+                    // The root of the site ("blogs/foo" for "blogs/$1/")
+                    return pos;
+                }
+                if (pos == end || str.charAt(pos) != ch) {
+                    return -1;
+                }
+                pos++;
+            }
+        }
+        if (len == 0 || pos == end || template.charAt(len - 1) == '/') {
+            return pos;
+        }
+        char ch = str.charAt(pos);
+        return ch == '/' || ch == '?' || ch == '#' ? pos : -1;
+    }
+
+    /**
+     * Associates the specified value and path template with the given
+     * wildcard URL prefix and returns the previous value associated with this
+     * prefix.
+     *
+     * @param prefix the URL prefix with a wildcard host pattern
+     *        ("http://*.foo.bar/")
+     * @param pathTemplate the path template corresponding to the prefix; it
+     *        could contain references to captured labels ("$1", "$2"...)
+     * @param value the value to associate with the prefix
+     * @return the previous value associated with the prefix
+     * @throws IllegalArgumentException if the given prefix is not a valid
+     *         wildcard host pattern
+     */
+    public T put(String prefix, String pathTemplate, T value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value can not be null");
+        }
+        int labelCount = checkPattern(prefix, pathTemplate);
+        int authorityEnd = HostFilter.getAuthorityEnd(
+            prefix,
+            0,
+            prefix.length());
+        int schemeEnd = prefix.indexOf(':');
+        int hostBegin = schemeEnd + 3;
+        int hostEnd = getHostEnd(prefix, hostBegin, authorityEnd);
+        String[] labels = prefix.substring(hostBegin, hostEnd).split("\\.");
+        Node<T> node = fRoot;
+        for (int i = labels.length - 1; i >= labelCount; i--) {
+            node = node.getOrCreateChild(labels[i]);
+        }
+        for (Entry<T> entry : node.fEntries) {
+            if (entry.fPrefix.equals(prefix)) {
+                T prev = entry.fValue;
+                removeTemplate(entry);
+                entry.setValue(pathTemplate, value);
+                addTemplate(entry);
+                return prev;
+            }
+        }
+        Entry<T> entry = new Entry<T>(
+            prefix,
+            prefix.substring(0, schemeEnd),
+            prefix.substring(hostEnd, authorityEnd),
+            prefix.substring(authorityEnd),
+            labelCount);
+        entry.setValue(pathTemplate, value);
+        node.fEntries.add(entry);
+        fEntries.add(entry);
+        addTemplate(entry);
+        return null;
+    }
+
+    /**
+     * Removes the given entry from the index of path templates.
+     */
+    private void removeTemplate(Entry<T> entry) {
+        if (!entry.fReversible) {
+            return;
+        }
+        String key = getTemplateKey(entry.fPathTemplate);
+        List<Entry<T>> entries = fTemplates.get(key);
+        entries.remove(entry);
+        if (entries.isEmpty()) {
+            fTemplates.remove(key);
+        }
+    }
+
+    /**
+     * Returns the number of patterns in this index.
+     *
+     * @return the number of patterns
+     */
+    public int size() {
+        return fEntries.size();
+    }
+
+}
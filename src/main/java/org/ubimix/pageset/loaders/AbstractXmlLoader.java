@@ -6,6 +6,8 @@ package org.ubimix.pageset.loaders;
 import org.ubimix.commons.uri.Uri;
 import org.ubimix.commons.xml.XmlException;
 import org.ubimix.commons.xml.XmlWrapper;
+import org.ubimix.pageset.UrlToPathMapper;
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper;
 
 /**
  * @author kotelnikov
@@ -38,4 +40,29 @@ public class AbstractXmlLoader {
         str = str.trim();
         return str.length() == 0;
     }
+
+    /**
+     * Creates a new site mapper corresponding to the given definition and
+     * compiles all its rules. The returned mapper is not registered in any
+     * {@link UrlToPathMapper}, so this method could be called for many sites
+     * in parallel.
+     * 
+     * @param configUrl the URL of the configuration file used to resolve
+     *        relative references
+     * @param site the site definition
+     * @return a new site mapper
+     */
+    public SiteUrlMapper newSite(Uri configUrl, SiteDefinition site) {
+        Uri baseUri = getUrl(configUrl, site.getBaseUrl());
+        String pathStr = site.getPath();
+        Uri basePath = !isEmpty(pathStr) ? new Uri(pathStr.trim()) : Uri.EMPTY;
+        SiteUrlMapper result = UrlToPathMapper.newSite(baseUri, basePath);
+        for (SiteDefinition.Rule rule : site.getUrlToPath()) {
+            result.addUriToPath(rule.getFrom(), rule.getTo());
+        }
+        for (SiteDefinition.Rule rule : site.getPathToUrl()) {
+            result.addPathToUri(rule.getFrom(), rule.getTo());
+        }
+        return result;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,181 @@
+/**
+ *
+ */
+package org.ubimix.pageset.loaders;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.pageset.UrlMapper;
+import org.ubimix.pageset.UrlToPathMapper;
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper;
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper.RegexpUrlTransformer;
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper.RegexpUrlTransformer.TransformationRule;
+
+/**
+ * This loader fills mappers with data from binary snapshots created by the
+ * {@link BinarySnapshotWriter}. Snapshot files are memory-mapped. URL and
+ * path prefixes stored in snapshots are already normalized, so they are not
+ * parsed again; regular expressions of transformation rules are compiled
+ * lazily, when a site is used for the first time. Lookup indexes are rebuilt
+ * from the stored prefixes when sites are added to the mapper.
+ * <p>
+ * Snapshots with an unknown format version are rejected with an
+ * {@link IOException}; in this case mappers are not modified. Usually such
+ * snapshots should be re-generated from the original XML configuration.
+ * </p>
+ *
+ * @author kotelnikov
+ */
+public class BinarySnapshotLoader {
+
+    /**
+     * The magic number identifying mapper snapshots ("UPMS").
+     */
+    public static final int MAGIC = 0x55504D53;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The current version of the snapshot format.
+     */
+    public static final int VERSION = 1;
+
+    public BinarySnapshotLoader() {
+    }
+
+    private void checkHeader(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < 8 || buf.getInt() != MAGIC) {
+            throw new IOException("Not a mapper snapshot");
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version: "
+                + version
+                + " (expected "
+                + VERSION
+                + ")");
+        }
+    }
+
+    /**
+     * Reads the snapshot from the given buffer and adds all sites and URLs to
+     * the specified mappers.
+     *
+     * @param buf the buffer containing the snapshot
+     * @param mapper the URL-to-path mapper to fill; it could be
+     *        <code>null</code>
+     * @param urlMapper the URL mapper to fill; it could be <code>null</code>
+     * @throws IOException if the buffer does not contain a valid snapshot or
+     *         if the snapshot version is not supported
+     */
+    public void configure(
+        ByteBuffer buf,
+        UrlToPathMapper mapper,
+        UrlMapper urlMapper) throws IOException {
+        List<SiteUrlMapper> sites = new ArrayList<SiteUrlMapper>();
+        List<String[]> urls = new ArrayList<String[]>();
+        try {
+            checkHeader(buf);
+            int siteCount = buf.getInt();
+            for (int i = 0; i < siteCount; i++) {
+                String uriPrefix = readString(buf);
+                String pathPrefix = readString(buf);
+                SiteUrlMapper site = new SiteUrlMapper(uriPrefix, pathPrefix);
+                readRules(buf, site.getUriToPath());
+                readRules(buf, site.getPathToUri());
+                sites.add(site);
+            }
+            int typeCount = buf.getInt();
+            for (int i = 0; i < typeCount; i++) {
+                String type = readString(buf);
+                int count = buf.getInt();
+                for (int j = 0; j < count; j++) {
+                    String key = readString(buf);
+                    String url = readString(buf);
+                    urls.add(new String[] { type, key, url });
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            IOException error = new IOException("Truncated mapper snapshot");
+            error.initCause(e);
+            throw error;
+        }
+        if (mapper != null) {
+            for (SiteUrlMapper site : sites) {
+                mapper.addSite(site);
+            }
+        }
+        if (urlMapper != null) {
+            for (String[] url : urls) {
+                Uri uri = url[2] != null ? new Uri(url[2]) : null;
+                urlMapper.setUrlByKey(url[0], url[1], uri);
+            }
+        }
+    }
+
+    /**
+     * Memory-maps the given snapshot file and adds all sites and URLs to the
+     * specified mappers.
+     *
+     * @param file the snapshot file
+     * @param mapper the URL-to-path mapper to fill; it could be
+     *        <code>null</code>
+     * @param urlMapper the URL mapper to fill; it could be <code>null</code>
+     * @throws IOException if the file can not be read or if it does not
+     *         contain a valid snapshot
+     */
+    public void configure(
+        File file,
+        UrlToPathMapper mapper,
+        UrlMapper urlMapper) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            MappedByteBuffer buf = channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                0,
+                channel.size());
+            configure(buf, mapper, urlMapper);
+        } finally {
+            input.close();
+        }
+    }
+
+    private void readRules(ByteBuffer buf, RegexpUrlTransformer transformer)
+        throws IOException {
+        int count = buf.getInt();
+        for (int i = 0; i < count; i++) {
+            String from = readString(buf);
+            String to = readString(buf);
+            if (from == null) {
+                throw new IOException("Bad mapper snapshot: empty rule");
+            }
+            TransformationRule rule = new TransformationRule(from, to, true);
+            transformer.addTranformation(rule);
+        }
+    }
+
+    private String readString(ByteBuffer buf) {
+        int len = buf.getInt();
+        if (len < 0) {
+            return null;
+        }
+        if (len > buf.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+}
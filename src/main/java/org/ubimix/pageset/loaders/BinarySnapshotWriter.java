@@ -0,0 +1,156 @@
+/**
+ *
+ */
+package org.ubimix.pageset.loaders;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.pageset.UrlMapper;
+import org.ubimix.pageset.UrlToPathMapper;
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper;
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper.RegexpUrlTransformer;
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper.RegexpUrlTransformer.TransformationRule;
+
+/**
+ * This class writes fully configured mappers in a compact binary form which
+ * could be loaded by the {@link BinarySnapshotLoader} much faster than the
+ * original XML configuration. Snapshots contain normalized URL and path
+ * prefixes of all sites (so they are not parsed again), sources of all
+ * transformation rules and URLs of all types defined in the
+ * {@link UrlMapper}.
+ * <p>
+ * Lookup indexes of mappers (prefix trees, host partitions and the host
+ * filter) are not written: they are rebuilt by the loader from the stored
+ * prefixes in time linear in the total prefix length, without parsing or
+ * compiling regular expressions. So the format does not depend on the
+ * internal layout of these indexes and it remains valid when they change.
+ * </p>
+ * <p>
+ * The format of snapshots:
+ * </p>
+ *
+ * <pre>
+ * int    magic number ({@link BinarySnapshotLoader#MAGIC})
+ * int    format version ({@link BinarySnapshotLoader#VERSION})
+ * int    number of sites (-1 if there is no URL-to-path section)
+ *        for each site:
+ *        str  URL prefix
+ *        str  path prefix
+ *        int  number of URL-to-path rules; for each rule: str from, str to
+ *        int  number of path-to-URL rules; for each rule: str from, str to
+ * int    number of URL types (-1 if there is no URL section)
+ *        for each type:
+ *        str  type
+ *        int  number of URLs; for each URL: str base key, str URL
+ * </pre>
+ * <p>
+ * Each string is written as a length (-1 for <code>null</code> values)
+ * followed by UTF-8 bytes.
+ * </p>
+ *
+ * @author kotelnikov
+ */
+public class BinarySnapshotWriter {
+
+    public BinarySnapshotWriter() {
+    }
+
+    /**
+     * Writes a snapshot of the given mappers in the specified file.
+     *
+     * @param file the file to write
+     * @param mapper the URL-to-path mapper to write; it could be
+     *        <code>null</code>
+     * @param urlMapper the URL mapper to write; it could be <code>null</code>
+     * @throws IOException
+     */
+    public void write(File file, UrlToPathMapper mapper, UrlMapper urlMapper)
+        throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            write(out, mapper, urlMapper);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the given mappers in the specified stream. The
+     * stream is not closed by this method.
+     *
+     * @param output the stream where the snapshot should be written
+     * @param mapper the URL-to-path mapper to write; it could be
+     *        <code>null</code>
+     * @param urlMapper the URL mapper to write; it could be <code>null</code>
+     * @throws IOException
+     */
+    public void write(
+        OutputStream output,
+        UrlToPathMapper mapper,
+        UrlMapper urlMapper) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            output));
+        out.writeInt(BinarySnapshotLoader.MAGIC);
+        out.writeInt(BinarySnapshotLoader.VERSION);
+        if (mapper != null) {
+            List<SiteUrlMapper> sites = mapper.getSiteMappers();
+            out.writeInt(sites.size());
+            for (SiteUrlMapper site : sites) {
+                writeString(out, site.getUriPrefix());
+                writeString(out, site.getPathPrefix());
+                writeRules(out, site.getUriToPath());
+                writeRules(out, site.getPathToUri());
+            }
+        } else {
+            out.writeInt(-1);
+        }
+        if (urlMapper != null) {
+            Set<String> types = urlMapper.getTypes();
+            out.writeInt(types.size());
+            for (String type : types) {
+                writeString(out, type);
+                Map<String, Uri> urls = urlMapper.getUrlsByKey(type);
+                out.writeInt(urls.size());
+                for (Map.Entry<String, Uri> entry : urls.entrySet()) {
+                    writeString(out, entry.getKey());
+                    Uri uri = entry.getValue();
+                    writeString(out, uri != null ? uri.toString() : null);
+                }
+            }
+        } else {
+            out.writeInt(-1);
+        }
+        out.flush();
+    }
+
+    private void writeRules(DataOutputStream out, RegexpUrlTransformer rules)
+        throws IOException {
+        List<TransformationRule> list = rules.getTransformationRules();
+        out.writeInt(list.size());
+        for (TransformationRule rule : list) {
+            writeString(out, rule.getExpression());
+            writeString(out, rule.getReplacement());
+        }
+    }
+
+    private void writeString(DataOutputStream out, String str)
+        throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = str.getBytes(BinarySnapshotLoader.UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+}
@@ -0,0 +1,354 @@
+/**
+ *
+ */
+package org.ubimix.pageset.loaders;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.commons.xml.XmlException;
+import org.ubimix.commons.xml.XmlWrapper;
+import org.ubimix.commons.xml.XmlWrapper.XmlContext;
+import org.ubimix.pageset.PageSetConfig;
+import org.ubimix.pageset.PageSetConfigRegistry;
+import org.ubimix.pageset.UrlToPathMapper;
+
+/**
+ * This registry loads page set configurations on demand from XML files
+ * stored in one directory. The configuration with the key "foo" is loaded
+ * from the file "foo.xml" using the
+ * {@link XmlPageSetConfigLoader#configureSites(PageSetConfig.Builder, Uri, XmlWrapper)}
+ * method when it is requested for the first time.
+ * <p>
+ * Loaded configurations are kept in memory while the number of
+ * configurations and their total weight are in the limits defined by the
+ * {@link #setMaxSize(int)} and {@link #setMaxWeight(long)} methods. The
+ * weight of a configuration is the number of sites in its URL-to-path mapper
+ * (plus one); it is used as an estimation of the memory used by the
+ * configuration. When limits are exceeded then the least recently used
+ * configurations are evicted. Evicted configurations are re-loaded on the
+ * next request.
+ * </p>
+ * <p>
+ * Configurations explicitly registered with the
+ * {@link #registerPageSetConfig(String, PageSetConfig)} method have priority
+ * over files and they are never evicted. If many threads request the same
+ * configuration at the same time then it is loaded only once; all threads
+ * wait for the result of this loading.
+ * </p>
+ *
+ * @author kotelnikov
+ */
+public class LazyPageSetConfigRegistry extends PageSetConfigRegistry {
+
+    /**
+     * A loaded (or loading) configuration.
+     */
+    private static class Entry {
+
+        private volatile long fLastAccess;
+
+        /**
+         * A copy of the last access time used to sort entries; it is used
+         * only by the eviction under the registry lock.
+         */
+        private long fSortKey;
+
+        private final FutureTask<PageSetConfig> fTask;
+
+        private long fWeight;
+
+        public Entry(FutureTask<PageSetConfig> task) {
+            fTask = task;
+            fLastAccess = System.nanoTime();
+        }
+
+    }
+
+    private final File fDirectory;
+
+    private final ConcurrentMap<String, Entry> fEntries = new ConcurrentHashMap<String, Entry>();
+
+    private final XmlPageSetConfigLoader fLoader = new XmlPageSetConfigLoader();
+
+    private volatile int fMaxSize = Integer.MAX_VALUE;
+
+    private volatile long fMaxWeight = Long.MAX_VALUE;
+
+    /**
+     * The total weight of loaded configurations. It is guarded by this
+     * object.
+     */
+    private long fWeight;
+
+    /**
+     * @param directory the directory containing XML configurations
+     */
+    public LazyPageSetConfigRegistry(File directory) {
+        fDirectory = directory;
+    }
+
+    /**
+     * Evicts configurations until the number and the total weight of loaded
+     * configurations are in the limits. The specified entry is not evicted.
+     */
+    private synchronized void evict(Entry keep) {
+        if (fEntries.size() <= fMaxSize && fWeight <= fMaxWeight) {
+            return;
+        }
+        List<Map.Entry<String, Entry>> entries = new ArrayList<Map.Entry<String, Entry>>();
+        for (Map.Entry<String, Entry> e : fEntries.entrySet()) {
+            Entry entry = e.getValue();
+            if (entry != keep && entry.fTask.isDone()) {
+                entry.fSortKey = entry.fLastAccess;
+                entries.add(e);
+            }
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Entry>>() {
+            public int compare(
+                Map.Entry<String, Entry> o1,
+                Map.Entry<String, Entry> o2) {
+                long a = o1.getValue().fSortKey;
+                long b = o2.getValue().fSortKey;
+                return a < b ? -1 : a == b ? 0 : 1;
+            }
+        });
+        for (Map.Entry<String, Entry> e : entries) {
+            if (fEntries.size() <= fMaxSize && fWeight <= fMaxWeight) {
+                break;
+            }
+            remove(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Returns the directory containing XML configurations.
+     *
+     * @return the directory containing XML configurations
+     */
+    public File getDirectory() {
+        return fDirectory;
+    }
+
+    /**
+     * Returns the file of the configuration with the specified key or
+     * <code>null</code> if the key is not a valid file name.
+     *
+     * @param key the key of the configuration
+     * @return the file containing the configuration
+     */
+    protected File getFile(String key) {
+        if (key == null
+            || key.length() == 0
+            || key.indexOf('/') >= 0
+            || key.indexOf('\\') >= 0
+            || key.startsWith(".")) {
+            return null;
+        }
+        return new File(fDirectory, key + ".xml");
+    }
+
+    /**
+     * Returns the number of configurations loaded from files and kept in
+     * memory.
+     *
+     * @return the number of loaded configurations
+     */
+    public int getLoadedCount() {
+        return fEntries.size();
+    }
+
+    /**
+     * Returns a registered configuration with the specified key. If there is
+     * no such a configuration then it is loaded from the corresponding file.
+     * This method returns <code>null</code> if there is no file for the given
+     * key.
+     *
+     * @param key the key of the page set configuration
+     * @return a {@link PageSetConfig} instance corresponding to the specified
+     *         key
+     * @throws IllegalStateException if the configuration file can not be
+     *         loaded
+     */
+    @Override
+    public PageSetConfig getPageSetConfig(final String key) {
+        PageSetConfig result = super.getPageSetConfig(key);
+        if (result != null) {
+            return result;
+        }
+        Entry entry = fEntries.get(key);
+        boolean loaded = false;
+        if (entry == null) {
+            FutureTask<PageSetConfig> task = new FutureTask<PageSetConfig>(
+                new Callable<PageSetConfig>() {
+                    public PageSetConfig call() throws Exception {
+                        return loadPageSetConfig(key);
+                    }
+                });
+            Entry newEntry = new Entry(task);
+            entry = fEntries.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+                task.run();
+                loaded = true;
+            }
+        }
+        entry.fLastAccess = System.nanoTime();
+        try {
+            result = entry.fTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                "Interrupted while loading the configuration " + key,
+                e);
+        } catch (ExecutionException e) {
+            remove(key, entry);
+            throw new IllegalStateException(
+                "Can not load the configuration " + key,
+                e.getCause());
+        }
+        if (loaded) {
+            if (result == null) {
+                remove(key, entry);
+            } else {
+                setWeight(key, entry, getWeight(result));
+                evict(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the weight of the given configuration. This implementation
+     * returns the number of sites in the URL-to-path mapper plus one.
+     *
+     * @param config the configuration
+     * @return the weight of the configuration
+     */
+    protected long getWeight(PageSetConfig config) {
+        UrlToPathMapper mapper = config.getUrlToPathMapper();
+        return mapper != null ? mapper.getSiteMappers().size() + 1 : 1;
+    }
+
+    /**
+     * Removes a loaded configuration from memory. It is re-loaded on the next
+     * request.
+     *
+     * @param key the key of the configuration
+     */
+    public void invalidate(String key) {
+        Entry entry = fEntries.get(key);
+        if (entry != null) {
+            remove(key, entry);
+        }
+    }
+
+    /**
+     * Removes all loaded configurations from memory.
+     */
+    public void invalidateAll() {
+        for (Map.Entry<String, Entry> e : fEntries.entrySet()) {
+            remove(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Loads the configuration with the specified key. This method returns
+     * <code>null</code> if there is no file for the given key.
+     *
+     * @param key the key of the configuration
+     * @return the loaded configuration
+     * @throws IOException
+     * @throws XmlException
+     */
+    protected PageSetConfig loadPageSetConfig(String key)
+        throws IOException,
+        XmlException {
+        File file = getFile(key);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        String xml = readFile(file);
+        XmlContext context = XmlContext.builder().build();
+        XmlWrapper wrapper = context.readXML(xml);
+        Uri configUrl = new Uri(file.toURI().toString());
+        PageSetConfig.Builder builder = PageSetConfig.builder();
+        fLoader.configureSites(builder, configUrl, wrapper);
+        return builder.build();
+    }
+
+    private String readFile(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            Reader reader = new InputStreamReader(input, "UTF-8");
+            StringBuilder buf = new StringBuilder();
+            char[] array = new char[1024 * 8];
+            int len;
+            while ((len = reader.read(array)) > 0) {
+                buf.append(array, 0, len);
+            }
+            return buf.toString();
+        } finally {
+            input.close();
+        }
+    }
+
+    private synchronized void remove(String key, Entry entry) {
+        if (fEntries.remove(key, entry)) {
+            fWeight -= entry.fWeight;
+        }
+    }
+
+    /**
+     * Sets the weight of the loaded configuration if it is still kept in
+     * memory.
+     */
+    private synchronized void setWeight(String key, Entry entry, long weight) {
+        if (fEntries.get(key) == entry) {
+            entry.fWeight = weight;
+            fWeight += weight;
+        }
+    }
+
+    /**
+     * Sets the maximal number of configurations loaded from files and kept
+     * in memory.
+     *
+     * @param maxSize the maximal number of loaded configurations
+     * @return reference to this object
+     */
+    public LazyPageSetConfigRegistry setMaxSize(int maxSize) {
+        fMaxSize = maxSize;
+        evict(null);
+        return this;
+    }
+
+    /**
+     * Sets the maximal total weight of configurations loaded from files and
+     * kept in memory (see the {@link #getWeight(PageSetConfig)} method).
+     *
+     * @param maxWeight the maximal total weight of loaded configurations
+     * @return reference to this object
+     */
+    public LazyPageSetConfigRegistry setMaxWeight(long maxWeight) {
+        fMaxWeight = maxWeight;
+        evict(null);
+        return this;
+    }
+
+}
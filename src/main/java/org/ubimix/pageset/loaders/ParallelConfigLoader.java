@@ -0,0 +1,247 @@
+/**
+ *
+ */
+package org.ubimix.pageset.loaders;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.commons.xml.XmlException;
+import org.ubimix.commons.xml.XmlWrapper;
+import org.ubimix.pageset.RuleSetMatcher;
+import org.ubimix.pageset.UrlToPathMapper;
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper;
+
+/**
+ * This loader fills {@link UrlToPathMapper}s using all available processors.
+ * Loading is split in two phases:
+ * <ul>
+ * <li>the parse phase reads raw site definitions (see {@link SiteDefinition})
+ * from configuration files; different files are parsed in parallel;</li>
+ * <li>the compile phase creates site mappers and compiles regular
+ * expressions of their rules, including the combined matchers of all rules
+ * of each site (see {@link RuleSetMatcher}); sites of all files are compiled
+ * in parallel by batches.</li>
+ * </ul>
+ * <p>
+ * Finally compiled sites are registered in the mapper in one thread, in the
+ * order of files and in the order of sites in each file. So the result is
+ * exactly the same as with sequential loading of the same files.
+ * </p>
+ *
+ * @author kotelnikov
+ */
+public class ParallelConfigLoader {
+
+    /**
+     * Sites parsed from one configuration file.
+     */
+    private static class ParsedConfig {
+
+        private final Uri fConfigUrl;
+
+        private final List<SiteDefinition> fSites;
+
+        public ParsedConfig(Uri configUrl, List<SiteDefinition> sites) {
+            fConfigUrl = configUrl;
+            fSites = sites;
+        }
+
+    }
+
+    /**
+     * The number of compile tasks created for each thread; more tasks give a
+     * better balance when sites have very different numbers of rules.
+     */
+    private static final int TASKS_PER_THREAD = 4;
+
+    private final ExecutorService fExecutor;
+
+    private final int fThreads;
+
+    /**
+     * Creates a loader using its own pool of threads for each loading; the
+     * number of threads is the number of available processors.
+     */
+    public ParallelConfigLoader() {
+        this(null, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a loader using the given executor. The executor is not shut
+     * down by this object.
+     *
+     * @param executor the executor running parse and compile tasks
+     * @param threads the number of threads of the executor; it is used to
+     *        split the compile phase in tasks
+     */
+    public ParallelConfigLoader(ExecutorService executor, int threads) {
+        fExecutor = executor;
+        fThreads = Math.max(1, threads);
+    }
+
+    /**
+     * Compiles the given sites in parallel and registers them in the
+     * specified mapper.
+     */
+    private void compile(
+        ExecutorService executor,
+        List<ParsedConfig> configs,
+        UrlToPathMapper mapper) throws IOException {
+        final List<Uri> urls = new ArrayList<Uri>();
+        final List<SiteDefinition> sites = new ArrayList<SiteDefinition>();
+        for (ParsedConfig config : configs) {
+            for (SiteDefinition site : config.fSites) {
+                urls.add(config.fConfigUrl);
+                sites.add(site);
+            }
+        }
+        final StreamingXmlConfigLoader loader = new StreamingXmlConfigLoader();
+        final SiteUrlMapper[] result = new SiteUrlMapper[sites.size()];
+        int batchSize = Math.max(1, result.length
+            / (fThreads * TASKS_PER_THREAD));
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < result.length; i += batchSize) {
+            final int begin = i;
+            final int end = Math.min(result.length, i + batchSize);
+            futures.add(executor.submit(new Callable<Object>() {
+                public Object call() {
+                    for (int j = begin; j < end; j++) {
+                        SiteUrlMapper site = loader.newSite(
+                            urls.get(j),
+                            sites.get(j));
+                        site.getUriToPath().getRuleSetMatcher();
+                        site.getPathToUri().getRuleSetMatcher();
+                        result[j] = site;
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            getResult(future);
+        }
+        for (SiteUrlMapper site : result) {
+            mapper.addSite(site);
+        }
+    }
+
+    /**
+     * Loads all the given XML configuration files and adds their sites to
+     * the specified mapper. Files are parsed with the
+     * {@link StreamingXmlConfigLoader}.
+     *
+     * @param files the configuration files
+     * @param mapper the mapper to fill
+     * @throws IOException
+     */
+    public void configure(List<File> files, UrlToPathMapper mapper)
+        throws IOException {
+        ExecutorService executor = getExecutor();
+        try {
+            List<Future<ParsedConfig>> futures = new ArrayList<Future<ParsedConfig>>();
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<ParsedConfig>() {
+                    public ParsedConfig call() throws IOException {
+                        return parse(file);
+                    }
+                }));
+            }
+            List<ParsedConfig> configs = new ArrayList<ParsedConfig>();
+            for (Future<ParsedConfig> future : futures) {
+                configs.add(getResult(future));
+            }
+            compile(executor, configs, mapper);
+        } finally {
+            release(executor);
+        }
+    }
+
+    /**
+     * Loads all sites from the given XML document and adds them to the
+     * specified mapper. The document is parsed in the current thread (XPath
+     * evaluation); sites are compiled in parallel.
+     *
+     * @param configUrl the URL of the XML configuration file; it is used to
+     *        resolve relative references in the configuration
+     * @param xml the XML document containing configuration
+     * @param mapper the mapper to fill
+     * @throws XmlException
+     * @throws IOException
+     */
+    public void configure(Uri configUrl, XmlWrapper xml, UrlToPathMapper mapper)
+        throws XmlException,
+        IOException {
+        XmlUrlToPathMapperLoader loader = new XmlUrlToPathMapperLoader();
+        List<SiteDefinition> sites = loader.readSites(xml);
+        List<ParsedConfig> configs = new ArrayList<ParsedConfig>();
+        configs.add(new ParsedConfig(configUrl, sites));
+        ExecutorService executor = getExecutor();
+        try {
+            compile(executor, configs, mapper);
+        } finally {
+            release(executor);
+        }
+    }
+
+    private ExecutorService getExecutor() {
+        return fExecutor != null ? fExecutor : Executors
+            .newFixedThreadPool(fThreads);
+    }
+
+    /**
+     * Returns the result of the given task. Errors of tasks are re-thrown.
+     */
+    private <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            IOException error = new IOException("Loading interrupted");
+            error.initCause(e);
+            throw error;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            IOException error = new IOException("Can not load configuration");
+            error.initCause(cause);
+            throw error;
+        }
+    }
+
+    private ParsedConfig parse(File file) throws IOException {
+        StreamingXmlConfigLoader loader = new StreamingXmlConfigLoader();
+        InputStream input = new FileInputStream(file);
+        try {
+            List<SiteDefinition> sites = loader.readSites(input);
+            return new ParsedConfig(new Uri(file.toURI().toString()), sites);
+        } finally {
+            input.close();
+        }
+    }
+
+    private void release(ExecutorService executor) {
+        if (executor != fExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,206 @@
+/**
+ *
+ */
+package org.ubimix.pageset.loaders;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class keeps raw (not resolved and not compiled) values defined for
+ * one site in XML configurations:
+ *
+ * <pre>
+ * &lt;site path="wiki" baseUrl="http://en.wikipedia.org/wiki/">
+ *     &lt;url2path from="^(.*)$" to="$1.html" />
+ *     &lt;path2url from="^(.*)\.html$" to="$1" />
+ *     &lt;url key="xsl" value="../xsl/transform-wikipedia.xsl" />
+ * &lt;/site>
+ * </pre>
+ *
+ * @author kotelnikov
+ */
+public class SiteDefinition {
+
+    /**
+     * One regexp transformation rule.
+     */
+    public static class Rule {
+
+        private final String fFrom;
+
+        private final String fTo;
+
+        public Rule(String from, String to) {
+            fFrom = from;
+            fTo = to;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Rule)) {
+                return false;
+            }
+            Rule o = (Rule) obj;
+            return SiteDefinition.equals(fFrom, o.fFrom)
+                && SiteDefinition.equals(fTo, o.fTo);
+        }
+
+        public String getFrom() {
+            return fFrom;
+        }
+
+        public String getTo() {
+            return fTo;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = fFrom != null ? fFrom.hashCode() : 0;
+            result = result * 31 + (fTo != null ? fTo.hashCode() : 0);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "{" + fFrom + " => " + fTo + "}";
+        }
+    }
+
+    private String fBaseUrl;
+
+    private String fPath;
+
+    private List<Rule> fPathToUrl = new ArrayList<Rule>();
+
+    private List<Rule> fUrlToPath = new ArrayList<Rule>();
+
+    private Map<String, String> fUrls = new LinkedHashMap<String, String>();
+
+    public SiteDefinition() {
+    }
+
+    public SiteDefinition addPathToUrl(String from, String to) {
+        fPathToUrl.add(new Rule(from, to));
+        return this;
+    }
+
+    public SiteDefinition addUrlToPath(String from, String to) {
+        fUrlToPath.add(new Rule(from, to));
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof SiteDefinition)) {
+            return false;
+        }
+        SiteDefinition o = (SiteDefinition) obj;
+        return equals(fBaseUrl, o.fBaseUrl)
+            && equals(fPath, o.fPath)
+            && fUrlToPath.equals(o.fUrlToPath)
+            && fPathToUrl.equals(o.fPathToUrl)
+            && fUrls.equals(o.fUrls);
+    }
+
+    private static boolean equals(String first, String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /**
+     * Returns the base URL of the site as it is defined in the configuration.
+     *
+     * @return the base URL of the site
+     */
+    public String getBaseUrl() {
+        return fBaseUrl;
+    }
+
+    /**
+     * Returns the path prefix of the site as it is defined in the
+     * configuration.
+     *
+     * @return the path prefix of the site
+     */
+    public String getPath() {
+        return fPath;
+    }
+
+    /**
+     * Returns an unmodifiable list of path-to-URL rules.
+     *
+     * @return a list of path-to-URL rules
+     */
+    public List<Rule> getPathToUrl() {
+        return Collections.unmodifiableList(fPathToUrl);
+    }
+
+    /**
+     * Returns an unmodifiable list of URL-to-path rules.
+     *
+     * @return a list of URL-to-path rules
+     */
+    public List<Rule> getUrlToPath() {
+        return Collections.unmodifiableList(fUrlToPath);
+    }
+
+    /**
+     * Returns an unmodifiable map of URLs of various types associated with
+     * this site.
+     *
+     * @return a map of URL types and the corresponding (not resolved) URLs
+     */
+    public Map<String, String> getUrls() {
+        return Collections.unmodifiableMap(fUrls);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = fBaseUrl != null ? fBaseUrl.hashCode() : 0;
+        result = result * 31 + (fPath != null ? fPath.hashCode() : 0);
+        result = result * 31 + fUrlToPath.hashCode();
+        result = result * 31 + fPathToUrl.hashCode();
+        result = result * 31 + fUrls.hashCode();
+        return result;
+    }
+
+    public SiteDefinition setBaseUrl(String baseUrl) {
+        fBaseUrl = baseUrl;
+        return this;
+    }
+
+    public SiteDefinition setPath(String path) {
+        fPath = path;
+        return this;
+    }
+
+    public SiteDefinition setUrl(String key, String value) {
+        fUrls.put(key, value);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "{baseUrl="
+            + fBaseUrl
+            + ", path="
+            + fPath
+            + ", url2path="
+            + fUrlToPath
+            + ", path2url="
+            + fPathToUrl
+            + ", urls="
+            + fUrls
+            + "}";
+    }
+
+}
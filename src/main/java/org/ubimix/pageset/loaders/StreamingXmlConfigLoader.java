@@ -0,0 +1,376 @@
+/**
+ *
+ */
+package org.ubimix.pageset.loaders;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.pageset.UrlMapper;
+import org.ubimix.pageset.UrlToPathMapper;
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper;
+
+/**
+ * This loader reads site configurations using a streaming (StAX) XML parser.
+ * It accepts the same XML format as the {@link XmlUrlToPathMapperLoader} and
+ * the {@link XmlUrlMapperLoader} classes, but it reads the document in one
+ * forward pass and it keeps in memory only one &lt;site> element at a time.
+ * So it is suitable for very big configurations with hundreds of thousands
+ * of sites.
+ * <p>
+ * As with XPath-based loaders, all values could be defined as attributes or
+ * as child elements. All &lt;site> elements of the document are loaded
+ * independently of their position.
+ * </p>
+ *
+ * @author kotelnikov
+ */
+public class StreamingXmlConfigLoader extends AbstractXmlLoader {
+
+    /**
+     * Instances of this type are notified about each site read from the
+     * configuration.
+     */
+    public interface ISiteListener {
+
+        /**
+         * This method is called for each site read from the configuration.
+         *
+         * @param site the site definition
+         * @throws IOException
+         */
+        void onSite(SiteDefinition site) throws IOException;
+    }
+
+    private static final String TAG_BASE_URL = "baseUrl";
+
+    private static final String TAG_FROM = "from";
+
+    private static final String TAG_KEY = "key";
+
+    private static final String TAG_PATH = "path";
+
+    private static final String TAG_PATH_TO_URL = "path2url";
+
+    private static final String TAG_SITE = "site";
+
+    private static final String TAG_TO = "to";
+
+    private static final String TAG_URL = "url";
+
+    private static final String TAG_URL_TO_PATH = "url2path";
+
+    private static final String TAG_VALUE = "value";
+
+    private XMLInputFactory fFactory;
+
+    public StreamingXmlConfigLoader() {
+        fFactory = XMLInputFactory.newInstance();
+        fFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        fFactory.setProperty(
+            XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+            Boolean.FALSE);
+        fFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    }
+
+    /**
+     * Reads all sites from the given stream and adds them to the specified
+     * mappers.
+     *
+     * @param configUrl the URL of the XML configuration file; it is used to
+     *        resolve relative references in the configuration
+     * @param input the stream containing the XML configuration
+     * @param mapper the URL-to-path mapper to fill; it could be
+     *        <code>null</code>
+     * @param urlMapper the URL mapper to fill; it could be <code>null</code>
+     * @throws IOException
+     */
+    public void configure(
+        Uri configUrl,
+        InputStream input,
+        UrlToPathMapper mapper,
+        UrlMapper urlMapper) throws IOException {
+        XMLStreamReader reader;
+        try {
+            reader = fFactory.createXMLStreamReader(input);
+        } catch (XMLStreamException e) {
+            throw toIOException(e);
+        }
+        configure(configUrl, reader, mapper, urlMapper);
+    }
+
+    /**
+     * Reads all sites from the given reader and adds them to the specified
+     * mappers.
+     *
+     * @param configUrl the URL of the XML configuration file; it is used to
+     *        resolve relative references in the configuration
+     * @param input the reader containing the XML configuration
+     * @param mapper the URL-to-path mapper to fill; it could be
+     *        <code>null</code>
+     * @param urlMapper the URL mapper to fill; it could be <code>null</code>
+     * @throws IOException
+     */
+    public void configure(
+        Uri configUrl,
+        Reader input,
+        UrlToPathMapper mapper,
+        UrlMapper urlMapper) throws IOException {
+        XMLStreamReader reader;
+        try {
+            reader = fFactory.createXMLStreamReader(input);
+        } catch (XMLStreamException e) {
+            throw toIOException(e);
+        }
+        configure(configUrl, reader, mapper, urlMapper);
+    }
+
+    private void configure(
+        final Uri configUrl,
+        XMLStreamReader reader,
+        final UrlToPathMapper mapper,
+        final UrlMapper urlMapper) throws IOException {
+        read(reader, new ISiteListener() {
+            public void onSite(SiteDefinition site) {
+                if (mapper != null) {
+                    configureSite(configUrl, site, mapper);
+                }
+                if (urlMapper != null) {
+                    configureUrls(configUrl, site, urlMapper);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds the given site to the specified URL-to-path mapper and returns the
+     * newly created site mapper.
+     *
+     * @param configUrl the URL of the configuration file used to resolve
+     *        relative references
+     * @param site the site definition
+     * @param mapper the mapper to fill
+     * @return the newly created site mapper
+     */
+    public SiteUrlMapper configureSite(
+        Uri configUrl,
+        SiteDefinition site,
+        UrlToPathMapper mapper) {
+        return mapper.addSite(newSite(configUrl, site));
+    }
+
+    /**
+     * Adds URLs defined for the given site to the specified URL mapper.
+     *
+     * @param configUrl the URL of the configuration file used to resolve
+     *        relative references
+     * @param site the site definition
+     * @param mapper the mapper to fill
+     */
+    public void configureUrls(
+        Uri configUrl,
+        SiteDefinition site,
+        UrlMapper mapper) {
+        Uri baseUri = getUrl(configUrl, site.getBaseUrl());
+        for (Map.Entry<String, String> entry : site.getUrls().entrySet()) {
+            Uri uri = getUrl(configUrl, entry.getValue());
+            mapper.setUrl(entry.getKey(), baseUri, uri);
+        }
+    }
+
+    private String getAttribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        return value != null ? value : "";
+    }
+
+    /**
+     * Reads all sites from the given stream and notifies the specified
+     * listener about each of them.
+     *
+     * @param input the stream containing the XML configuration
+     * @param listener the listener to notify
+     * @throws IOException
+     */
+    public void read(InputStream input, ISiteListener listener)
+        throws IOException {
+        try {
+            read(fFactory.createXMLStreamReader(input), listener);
+        } catch (XMLStreamException e) {
+            throw toIOException(e);
+        }
+    }
+
+    /**
+     * Reads all sites from the given reader and notifies the specified
+     * listener about each of them.
+     *
+     * @param input the reader containing the XML configuration
+     * @param listener the listener to notify
+     * @throws IOException
+     */
+    public void read(Reader input, ISiteListener listener) throws IOException {
+        try {
+            read(fFactory.createXMLStreamReader(input), listener);
+        } catch (XMLStreamException e) {
+            throw toIOException(e);
+        }
+    }
+
+    private void read(XMLStreamReader reader, ISiteListener listener)
+        throws IOException {
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT
+                    && TAG_SITE.equals(reader.getLocalName())) {
+                    SiteDefinition site = readSite(reader);
+                    listener.onSite(site);
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw toIOException(e);
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // Ignore it
+            }
+        }
+    }
+
+    /**
+     * Reads an element with two values defined as attributes or as child
+     * elements. The reader should be positioned on the start tag of the
+     * element; after this method it is positioned on the corresponding end
+     * tag.
+     */
+    private String[] readPair(
+        XMLStreamReader reader,
+        String first,
+        String second) throws XMLStreamException {
+        String[] result = {
+            getAttribute(reader, first),
+            getAttribute(reader, second) };
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if (first.equals(name) && isEmpty(result[0])) {
+                    result[0] = readText(reader);
+                } else if (second.equals(name) && isEmpty(result[1])) {
+                    result[1] = readText(reader);
+                } else {
+                    readText(reader);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a list of all sites defined in the given stream.
+     *
+     * @param input the stream containing the XML configuration
+     * @return a list of all site definitions
+     * @throws IOException
+     */
+    public List<SiteDefinition> readSites(InputStream input)
+        throws IOException {
+        final List<SiteDefinition> result = new ArrayList<SiteDefinition>();
+        read(input, new ISiteListener() {
+            public void onSite(SiteDefinition site) {
+                result.add(site);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Reads one &lt;site> element. The reader should be positioned on the
+     * start tag of the element.
+     */
+    private SiteDefinition readSite(XMLStreamReader reader)
+        throws XMLStreamException {
+        SiteDefinition site = new SiteDefinition();
+        site.setBaseUrl(getAttribute(reader, TAG_BASE_URL));
+        site.setPath(getAttribute(reader, TAG_PATH));
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if (TAG_URL_TO_PATH.equals(name)) {
+                    String[] pair = readPair(reader, TAG_FROM, TAG_TO);
+                    site.addUrlToPath(pair[0], pair[1]);
+                } else if (TAG_PATH_TO_URL.equals(name)) {
+                    String[] pair = readPair(reader, TAG_FROM, TAG_TO);
+                    site.addPathToUrl(pair[0], pair[1]);
+                } else if (TAG_URL.equals(name)) {
+                    String[] pair = readPair(reader, TAG_KEY, TAG_VALUE);
+                    if (!isEmpty(pair[0])) {
+                        site.setUrl(pair[0], pair[1]);
+                    }
+                } else if (TAG_BASE_URL.equals(name)
+                    && isEmpty(site.getBaseUrl())) {
+                    site.setBaseUrl(readText(reader));
+                } else if (TAG_PATH.equals(name) && isEmpty(site.getPath())) {
+                    site.setPath(readText(reader));
+                } else {
+                    readText(reader);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        return site;
+    }
+
+    /**
+     * Returns the text content of the current element (including texts of all
+     * child elements). The reader should be positioned on the start tag of
+     * the element; after this method it is positioned on the corresponding end
+     * tag.
+     */
+    private String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder buf = new StringBuilder();
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    buf.append(
+                        reader.getTextCharacters(),
+                        reader.getTextStart(),
+                        reader.getTextLength());
+                    break;
+            }
+        }
+        return buf.toString();
+    }
+
+    private IOException toIOException(XMLStreamException e) {
+        IOException error = new IOException(e.getMessage());
+        error.initCause(e);
+        return error;
+    }
+
+}
@@ -0,0 +1,321 @@
+/**
+ *
+ */
+package org.ubimix.pageset.loaders;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.pageset.UrlToPathMapper;
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper;
+import org.ubimix.pageset.UrlToPathMapperHolder;
+
+/**
+ * This class re-loads an XML configuration file when it is changed and
+ * publishes the new mapper in an {@link UrlToPathMapperHolder}. Readers of
+ * the holder are never blocked: they use the previous mapper until the new
+ * one is completely built.
+ * <p>
+ * Reloading is incremental. Sites of the new configuration are compared with
+ * sites of the previous one by their base URLs (see {@link SiteDefinition}).
+ * Compiled read-only site mappers of unchanged sites are re-used as is; only
+ * added and changed sites are created and their rules are compiled. Removed
+ * sites are just not copied in the new mapper. The index of sites is rebuilt
+ * in the order of the new configuration, so the result is the same as after
+ * a full reload.
+ * </p>
+ * <p>
+ * The file is checked by polling its modification time and size: on demand
+ * (see the {@link #reload()} method) or periodically in a background thread
+ * (see the {@link #start(long)} method). File systems store modification
+ * times with a limited resolution, so an edit keeping the size of the file
+ * could keep its modification time as well. While the modification time is
+ * within this resolution from the time of the last check, the content of the
+ * file is read on each check and compared with the previous one by its
+ * checksum. If the new configuration can not be read then the current mapper
+ * is kept and the error is available with the {@link #getLastError()} method.
+ * </p>
+ *
+ * @author kotelnikov
+ */
+public class XmlConfigReloader {
+
+    /**
+     * The maximal resolution of file modification times in milliseconds.
+     */
+    private static final long MODIFICATION_TIME_RESOLUTION = 2000;
+
+    private static byte[] readFile(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[1024 * 8];
+            int len;
+            while ((len = input.read(buf)) >= 0) {
+                out.write(buf, 0, len);
+            }
+        } finally {
+            input.close();
+        }
+        return out.toByteArray();
+    }
+
+    private int fAdded;
+
+    private int fChanged;
+
+    /**
+     * The time of the last check of the file content.
+     */
+    private long fCheckTime = -1;
+
+    /**
+     * The checksum of the file content used by the current configuration.
+     */
+    private long fChecksum = -1;
+
+    private final Uri fConfigUrl;
+
+    /**
+     * Definitions of sites of the current configuration. Keys are base URLs.
+     */
+    private Map<String, SiteDefinition> fDefinitions = new HashMap<String, SiteDefinition>();
+
+    private ScheduledExecutorService fExecutor;
+
+    private final File fFile;
+
+    private final UrlToPathMapperHolder fHolder;
+
+    private volatile Exception fLastError;
+
+    private long fLastModified = -1;
+
+    private long fLength = -1;
+
+    private final StreamingXmlConfigLoader fLoader = new StreamingXmlConfigLoader();
+
+    private int fRemoved;
+
+    /**
+     * Compiled read-only site mappers of the current configuration. Keys are
+     * base URLs.
+     */
+    private Map<String, SiteUrlMapper> fSites = new HashMap<String, SiteUrlMapper>();
+
+    /**
+     * @param file the XML configuration file
+     * @param holder the holder where new mappers are published
+     */
+    public XmlConfigReloader(File file, UrlToPathMapperHolder holder) {
+        fFile = file;
+        fHolder = holder;
+        fConfigUrl = new Uri(file.toURI().toString());
+    }
+
+    /**
+     * Loads the configuration if it was changed and publishes the new
+     * mapper.
+     */
+    private boolean doReload() throws IOException {
+        long checkTime = System.currentTimeMillis();
+        long lastModified = fFile.lastModified();
+        long length = fFile.length();
+        if (lastModified == fLastModified
+            && length == fLength
+            && fCheckTime - lastModified > MODIFICATION_TIME_RESOLUTION) {
+            // Later edits can not have the same modification time
+            return false;
+        }
+        byte[] content = readFile(fFile);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        long checksum = crc.getValue();
+        if (checksum == fChecksum) {
+            fLastModified = lastModified;
+            fLength = length;
+            fCheckTime = checkTime;
+            return false;
+        }
+        List<SiteDefinition> list = fLoader
+            .readSites(new ByteArrayInputStream(content));
+        Map<String, SiteDefinition> definitions = new LinkedHashMap<String, SiteDefinition>();
+        for (SiteDefinition definition : list) {
+            definitions.put(definition.getBaseUrl(), definition);
+        }
+
+        int added = 0;
+        int changed = 0;
+        Map<String, SiteUrlMapper> newSites = new HashMap<String, SiteUrlMapper>();
+        UrlToPathMapper.Builder builder = UrlToPathMapper.builder();
+        for (Map.Entry<String, SiteDefinition> entry : definitions.entrySet()) {
+            String baseUrl = entry.getKey();
+            SiteDefinition definition = entry.getValue();
+            SiteDefinition prev = fDefinitions.get(baseUrl);
+            SiteUrlMapper site = fSites.get(baseUrl);
+            if (prev != null && site != null && prev.equals(definition)) {
+                builder.addSite(site);
+            } else {
+                site = fLoader.configureSite(fConfigUrl, definition, builder);
+                if (prev == null) {
+                    added++;
+                } else {
+                    changed++;
+                }
+            }
+            newSites.put(baseUrl, site);
+        }
+        int removed = 0;
+        for (String baseUrl : fDefinitions.keySet()) {
+            if (!definitions.containsKey(baseUrl)) {
+                removed++;
+            }
+        }
+
+        UrlToPathMapper mapper = builder.build();
+        // Keep compiled read-only copies of new sites
+        Map<String, SiteUrlMapper> compiled = new HashMap<String, SiteUrlMapper>();
+        for (SiteUrlMapper site : mapper.getSiteMappers()) {
+            compiled.put(site.getUriPrefix(), site);
+        }
+        for (Map.Entry<String, SiteUrlMapper> entry : newSites.entrySet()) {
+            SiteUrlMapper site = compiled.get(entry.getValue().getUriPrefix());
+            entry.setValue(site);
+        }
+        fHolder.setMapper(mapper);
+
+        fDefinitions = definitions;
+        fSites = newSites;
+        fAdded = added;
+        fChanged = changed;
+        fRemoved = removed;
+        fLastModified = lastModified;
+        fLength = length;
+        fCheckTime = checkTime;
+        fChecksum = checksum;
+        return true;
+    }
+
+    /**
+     * Returns the number of sites added by the last reload.
+     *
+     * @return the number of added sites
+     */
+    public synchronized int getAddedCount() {
+        return fAdded;
+    }
+
+    /**
+     * Returns the number of sites changed by the last reload.
+     *
+     * @return the number of changed sites
+     */
+    public synchronized int getChangedCount() {
+        return fChanged;
+    }
+
+    /**
+     * Returns the configuration file.
+     *
+     * @return the configuration file
+     */
+    public File getFile() {
+        return fFile;
+    }
+
+    /**
+     * Returns the error of the last reload or <code>null</code> if it was
+     * successful.
+     *
+     * @return the error of the last reload
+     */
+    public Exception getLastError() {
+        return fLastError;
+    }
+
+    /**
+     * Returns the number of sites removed by the last reload.
+     *
+     * @return the number of removed sites
+     */
+    public synchronized int getRemovedCount() {
+        return fRemoved;
+    }
+
+    /**
+     * Loads the configuration file if it was changed since the last call and
+     * publishes the new mapper.
+     *
+     * @return <code>true</code> if a new mapper was published
+     * @throws IOException if the configuration can not be read; in this case
+     *         the current mapper is not changed
+     */
+    public synchronized boolean reload() throws IOException {
+        try {
+            boolean result = doReload();
+            fLastError = null;
+            return result;
+        } catch (IOException e) {
+            fLastError = e;
+            throw e;
+        } catch (RuntimeException e) {
+            fLastError = e;
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a background thread checking the configuration file
+     * periodically. Errors are available with the {@link #getLastError()}
+     * method.
+     *
+     * @param period the period between checks in milliseconds
+     */
+    public synchronized void start(long period) {
+        stop();
+        fExecutor = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "XmlConfigReloader-"
+                        + fFile.getName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        fExecutor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    reload();
+                } catch (Exception e) {
+                    // The error is available with getLastError()
+                }
+            }
+        }, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background thread started by the {@link #start(long)}
+     * method.
+     */
+    public synchronized void stop() {
+        if (fExecutor != null) {
+            fExecutor.shutdownNow();
+            fExecutor = null;
+        }
+    }
+
+}
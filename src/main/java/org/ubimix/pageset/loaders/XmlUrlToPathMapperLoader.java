@@ -1,16 +1,19 @@
 package org.ubimix.pageset.loaders;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.ubimix.commons.uri.Uri;
 import org.ubimix.commons.xml.XmlException;
 import org.ubimix.commons.xml.XmlWrapper;
 import org.ubimix.pageset.UrlToPathMapper;
-import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper;
 
 /**
  * This class is used to configure {@link CompositeSiteConfig} instances using
- * XML configurations.
+ * XML configurations. Base URLs of sites could contain wildcard host patterns
+ * like <code>baseUrl="http://*.blogspot.com/"</code>; labels matched by
+ * wildcards could be referenced in site paths like <code>path="blogs/$1"</code>
+ * (see {@link UrlToPathMapper#addBase(String, String)}).
  * 
  * @author kotelnikov
  */
@@ -83,38 +86,70 @@ public class XmlUrlToPathMapperLoader extends AbstractXmlLoader {
         Uri configUrl,
         XmlWrapper node,
         UrlToPathMapper mapper) throws XmlException {
-
-        String str = getValue(node, XPATH_BASE_URL);
-        Uri baseUri = getUrl(configUrl, str);
-
-        String pathStr = getValue(node, XPATH_PATH);
-        Uri basePath = !isEmpty(pathStr) ? new Uri(pathStr.trim()) : Uri.EMPTY;
-
-        SiteUrlMapper base = mapper.addBase(baseUri, basePath);
-
-        SiteUrlMapper.RegexpUrlTransformer pathToUri = base.getPathToUri();
-        SiteUrlMapper.RegexpUrlTransformer uriToPath = base.getUriToPath();
-        loadLinkConverter(node, XPATH_URL_TO_PATH, uriToPath);
-        loadLinkConverter(node, XPATH_PATH_TO_URL, pathToUri);
+        SiteDefinition site = readSite(node);
+        mapper.addSite(newSite(configUrl, site));
     }
 
     /**
-     * @param e the XML node containing regexp rules used to configure the
-     *        transformer
+     * @param e the XML node containing regexp rules
      * @param name the name of tags containing regexp transformations
-     * @param transformer the configuration object to define
+     * @param site the site definition where rules should be added
+     * @param urlToPath if this flag is <code>true</code> then rules are added
+     *        as URL-to-path rules; otherwise they are added as path-to-URL
+     *        rules
      * @throws XmlException
      */
     private void loadLinkConverter(
         XmlWrapper e,
         String name,
-        SiteUrlMapper.RegexpUrlTransformer transformer) throws XmlException {
+        SiteDefinition site,
+        boolean urlToPath) throws XmlException {
         List<XmlWrapper> list = e.evalList(name);
         for (XmlWrapper url2path : list) {
             String from = getValue(url2path, XPATH_FROM);
             String to = getValue(url2path, XPATH_TO);
-            transformer.addTranformation(from, to);
+            if (urlToPath) {
+                site.addUrlToPath(from, to);
+            } else {
+                site.addPathToUrl(from, to);
+            }
+        }
+    }
+
+    /**
+     * Reads raw values of a single site from the given XML object. Regular
+     * expressions are not compiled (see the
+     * {@link #newSite(Uri, SiteDefinition)} method).
+     * 
+     * @param node the XML document node (element) containing configuration
+     * @return the site definition
+     * @throws XmlException
+     */
+    public SiteDefinition readSite(XmlWrapper node) throws XmlException {
+        SiteDefinition site = new SiteDefinition();
+        site.setBaseUrl(getValue(node, XPATH_BASE_URL));
+        site.setPath(getValue(node, XPATH_PATH));
+        loadLinkConverter(node, XPATH_URL_TO_PATH, site, true);
+        loadLinkConverter(node, XPATH_PATH_TO_URL, site, false);
+        return site;
+    }
+
+    /**
+     * Reads raw values of all sites defined in the given XML object.
+     * 
+     * @param xml the XML document containing configuration
+     * @return a list of site definitions in the order of the document
+     * @throws XmlException
+     */
+    public List<SiteDefinition> readSites(XmlWrapper xml) throws XmlException {
+        List<SiteDefinition> result = new ArrayList<SiteDefinition>();
+        List<XmlWrapper> sites = xml.evalList(XPATH_SITE);
+        if (sites != null) {
+            for (XmlWrapper node : sites) {
+                result.add(readSite(node));
+            }
         }
+        return result;
     }
 
 }
@@ -11,6 +11,23 @@ public class AllTests {
         suite.addTestSuite(UrlToPathMapperTest.class);
         suite.addTestSuite(UrlMapperTest.class);
         suite.addTestSuite(XmlUrlToPathMapperLoaderTest.class);
+        suite.addTestSuite(UrlPrefixTrieTest.class);
+        suite.addTestSuite(RuleSetMatcherTest.class);
+        suite.addTestSuite(StreamingXmlConfigLoaderTest.class);
+        suite.addTestSuite(BinarySnapshotTest.class);
+        suite.addTestSuite(MapperMetricsTest.class);
+        suite.addTestSuite(PageSetConfigRegistryTest.class);
+        suite.addTestSuite(LazyPageSetConfigRegistryTest.class);
+        suite.addTestSuite(CompositeUriMapperTest.class);
+        suite.addTestSuite(MappingVerifierTest.class);
+        suite.addTestSuite(MappedPathIndexTest.class);
+        suite.addTestSuite(XmlConfigReloaderTest.class);
+        suite.addTestSuite(ParallelConfigLoaderTest.class);
+        suite.addTestSuite(UrlTransformerPipelineTest.class);
+        suite.addTestSuite(LinkRewriterTest.class);
+        suite.addTestSuite(HostFilterTest.class);
+        suite.addTestSuite(HostPartitionedIndexTest.class);
+        suite.addTestSuite(WildcardSiteIndexTest.class);
         // $JUnit-END$
         return suite;
     }
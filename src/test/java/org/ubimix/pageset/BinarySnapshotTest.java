@@ -0,0 +1,83 @@
+package org.ubimix.pageset;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.pageset.loaders.BinarySnapshotLoader;
+import org.ubimix.pageset.loaders.BinarySnapshotWriter;
+
+public class BinarySnapshotTest extends TestCase {
+
+    private BinarySnapshotLoader fLoader = new BinarySnapshotLoader();
+
+    private BinarySnapshotWriter fWriter = new BinarySnapshotWriter();
+
+    /**
+     * @param name
+     */
+    public BinarySnapshotTest(String name) {
+        super(name);
+    }
+
+    public void testBadVersion() throws Exception {
+        byte[] bytes = write(new UrlToPathMapper(), null);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        buf.putInt(4, BinarySnapshotLoader.VERSION + 1);
+        UrlToPathMapper mapper = new UrlToPathMapper();
+        try {
+            fLoader.configure(buf, mapper, null);
+            fail();
+        } catch (IOException e) {
+            assertTrue(mapper.getSiteMappers().isEmpty());
+        }
+        try {
+            fLoader.configure(ByteBuffer.wrap(new byte[] { 1, 2 }), null, null);
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    public void testRoundTrip() throws Exception {
+        UrlToPathMapper mapper = new UrlToPathMapper();
+        mapper
+            .addBase("http://en.wikipedia.org/wiki/", "wiki")
+            .addUriToPath("^(.*)$", "$1.html")
+            .addPathToUri("^(.*)\\.html$", "$1");
+        mapper.addBase("http://wikitravel.org/en/", "travel");
+        UrlMapper urlMapper = new UrlMapper();
+        Uri xsl = new Uri("http://www.foo.bar/xsl/wiki.xsl");
+        urlMapper.setUrl(
+            "xsl",
+            new Uri("http://en.wikipedia.org/wiki/"),
+            xsl);
+
+        byte[] bytes = write(mapper, urlMapper);
+        UrlToPathMapper newMapper = new UrlToPathMapper();
+        UrlMapper newUrlMapper = new UrlMapper();
+        fLoader.configure(ByteBuffer.wrap(bytes), newMapper, newUrlMapper);
+
+        assertEquals(2, newMapper.getSiteMappers().size());
+        Uri url = new Uri("http://en.wikipedia.org/wiki/France");
+        assertEquals(mapper.uriToPath(url), newMapper.uriToPath(url));
+        assertEquals("wiki/France.html", newMapper.uriToPath(url).toString());
+        assertEquals(url, newMapper.pathToUri("wiki/France.html"));
+        url = new Uri("http://wikitravel.org/en/Paris");
+        assertEquals("travel/Paris", newMapper.uriToPath(url).toString());
+        assertEquals(xsl, newUrlMapper.getUrl(
+            "xsl",
+            new Uri("http://en.wikipedia.org/wiki/France")));
+        assertNull(newUrlMapper.getUrl("xsl", url));
+    }
+
+    private byte[] write(UrlToPathMapper mapper, UrlMapper urlMapper)
+        throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fWriter.write(out, mapper, urlMapper);
+        return out.toByteArray();
+    }
+
+}
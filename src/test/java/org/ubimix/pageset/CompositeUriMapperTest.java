@@ -0,0 +1,96 @@
+package org.ubimix.pageset;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.uri.Uri;
+
+public class CompositeUriMapperTest extends TestCase {
+
+    private static class CountingMapper extends UrlMapper {
+
+        private int fCount;
+
+        @Override
+        public Uri getUrl(String type, Uri baseUrl) {
+            fCount++;
+            return super.getUrl(type, baseUrl);
+        }
+
+    }
+
+    /**
+     * @param name
+     */
+    public CompositeUriMapperTest(String name) {
+        super(name);
+    }
+
+    public void testChangedMapper() {
+        Uri base = new Uri("http://www.foo.bar/");
+        Uri page = new Uri("http://www.foo.bar/a.html");
+        Uri xsl = new Uri("http://www.foo.bar/x.xsl");
+        UrlMapper urlMapper = new UrlMapper();
+        urlMapper.setUrl("template", base, page);
+        CompositeUriMapper mapper = new CompositeUriMapper();
+        mapper.setNegativeCacheSize(16);
+        mapper.addUriMapper(urlMapper);
+        assertNull(mapper.getUrl("xsl", page));
+
+        // The index and the cache are reset when a mapper is changed
+        int version = urlMapper.getVersion();
+        urlMapper.setUrl("xsl", base, xsl);
+        assertTrue(version != urlMapper.getVersion());
+        assertEquals(xsl, urlMapper.getUrl("xsl", page));
+        assertEquals(xsl, mapper.getUrl("xsl", page));
+        urlMapper.setUrl("xsl", base, null);
+        assertNull(mapper.getUrl("xsl", page));
+        assertEquals(page, mapper.getUrl("template", page));
+    }
+
+    public void testTypeIndexAndNegativeCache() {
+        Uri base = new Uri("http://en.wikipedia.org/wiki/");
+        Uri page = new Uri("http://en.wikipedia.org/wiki/France");
+        Uri xsl = new Uri("http://www.foo.bar/wiki.xsl");
+        Uri template = new Uri("http://www.foo.bar/template.html");
+        CountingMapper xslMapper = new CountingMapper();
+        xslMapper.setUrl("xsl", base, xsl);
+        CountingMapper templateMapper = new CountingMapper();
+        templateMapper.setUrl("template", base, template);
+
+        CompositeUriMapper mapper = new CompositeUriMapper();
+        assertNull(mapper.getNegativeCache());
+        mapper.setNegativeCacheSize(16);
+        mapper.addUriMapper(xslMapper);
+        mapper.addUriMapper(templateMapper);
+        assertEquals(template, mapper.getUrl("template", page));
+        assertEquals(0, xslMapper.fCount);
+        assertEquals(1, templateMapper.fCount);
+        assertEquals(xsl, mapper.getUrl("xsl", page));
+        assertEquals(1, xslMapper.fCount);
+        assertEquals(1, templateMapper.fCount);
+
+        Uri unknown = new Uri("http://www.foo.bar/");
+        assertNull(mapper.getUrl("xsl", unknown));
+        assertNull(mapper.getUrl("xsl", unknown));
+        assertEquals(2, xslMapper.fCount);
+        assertEquals(1, mapper.getNegativeCache().getHitCount());
+
+        // The index and the cache are reset when mappers are changed
+        CountingMapper otherMapper = new CountingMapper();
+        otherMapper.setUrl("xsl", unknown, xsl);
+        mapper.addUriMapper(otherMapper);
+        assertEquals(xsl, mapper.getUrl("xsl", unknown));
+        mapper.removeUriMapper(otherMapper);
+        assertNull(mapper.getUrl("xsl", unknown));
+
+        // Untyped mappers are asked for all types
+        mapper.addUriMapper(new IUrlMapper() {
+            public Uri getUrl(String type, Uri uri) {
+                return "foo".equals(type) ? template : null;
+            }
+        });
+        assertEquals(template, mapper.getUrl("foo", page));
+        assertNull(mapper.getUrl(null, page));
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.ubimix.pageset;
+
+import junit.framework.TestCase;
+
+public class HostFilterTest extends TestCase {
+
+    /**
+     * @param name
+     */
+    public HostFilterTest(String name) {
+        super(name);
+    }
+
+    private boolean mayContain(HostFilter filter, String url) {
+        return filter.mayContain(url, 0, url.length());
+    }
+
+    public void testAcceptAll() throws Exception {
+        HostFilter filter = new HostFilter();
+        filter.add("http://www.foo.bar/");
+        assertFalse(mayContain(filter, "http://www.bar.foo/"));
+        filter.add("http://");
+        assertTrue(mayContain(filter, "http://www.bar.foo/"));
+
+        filter = new HostFilter();
+        filter.add("wiki/");
+        assertTrue(mayContain(filter, "http://www.bar.foo/"));
+    }
+
+    public void testFilter() throws Exception {
+        HostFilter filter = new HostFilter();
+        for (int i = 0; i < 10000; i++) {
+            filter.add("http://www" + i + ".foo.bar/wiki/");
+        }
+        filter.add("https://www.foo.bar:8443");
+        filter.add("file:///data/");
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(mayContain(filter, "http://www" + i + ".foo.bar/a"));
+        }
+        assertTrue(mayContain(filter, "HTTP://WWW1.foo.bar?q=1"));
+        assertTrue(mayContain(filter, "https://www.foo.bar:8443"));
+        assertTrue(mayContain(filter, "file:///data/a.html"));
+        assertFalse(mayContain(filter, "www1.foo.bar/"));
+        assertFalse(mayContain(filter, "mailto:a@foo.bar"));
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (mayContain(filter, "http://www" + i + ".bar.foo/a")) {
+                falsePositives++;
+            }
+        }
+        assertTrue("" + falsePositives, falsePositives < 100);
+    }
+
+    public void testMapper() throws Exception {
+        UrlToPathMapper mapper = new UrlToPathMapper();
+        mapper.addBase("http://www.foo.bar/", "foo");
+        mapper.addBase("http://www.bar.foo:8080/wiki/", "bar");
+        assertEquals(
+            "foo/a.html",
+            mapper.uriToPathString("http://www.foo.bar/a.html"));
+        assertEquals(
+            "bar/a",
+            mapper.uriToPathString("http://www.bar.foo:8080/wiki/a"));
+        assertNull(mapper.uriToPathString("http://www.bar.foo/wiki/a"));
+        assertNull(mapper.uriToPath("http://www.unknown.org/"));
+        assertNull(mapper.uriToPathString("http://www.unknown.org/"));
+    }
+
+    public void testWildcards() throws Exception {
+        HostFilter filter = new HostFilter();
+        filter.add("http://www.foo.bar/");
+        filter.add("http://*.blogspot.com/");
+        filter.add("http://*.*.example.com:8080/");
+        assertTrue(mayContain(filter, "http://www.foo.bar/"));
+        assertTrue(mayContain(filter, "http://foo.blogspot.com/a"));
+        assertTrue(mayContain(filter, "http://a.b.blogspot.com/a"));
+        assertTrue(mayContain(filter, "http://a.b.example.com:8080/a"));
+        assertFalse(mayContain(filter, "http://blogspot.com/a"));
+        assertFalse(mayContain(filter, "https://foo.blogspot.com/a"));
+        assertFalse(mayContain(filter, "http://a.b.example.com/a"));
+        assertFalse(mayContain(filter, "http://foo.blogspot.org/a"));
+    }
+
+}
@@ -0,0 +1,86 @@
+package org.ubimix.pageset;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class HostPartitionedIndexTest extends TestCase {
+
+    /**
+     * @param name
+     */
+    public HostPartitionedIndexTest(String name) {
+        super(name);
+    }
+
+    private String getNearestValue(
+        HostPartitionedIndex<String> index,
+        String key) {
+        return index.getNearestValue(key, 0, key.length());
+    }
+
+    public void testIndex() throws Exception {
+        HostPartitionedIndex<String> index;
+        index = new HostPartitionedIndex<String>();
+        index.put("http://www.foo.bar/", "foo");
+        index.put("http://www.foo.bar/wiki", "wiki");
+        index.put("http://www.bar.foo", "bar");
+        index.put("file:///data/", "data");
+        assertEquals(3, index.getHostCount());
+        assertEquals(4, index.size());
+        assertEquals("wiki", index.get("http://www.foo.bar/wiki"));
+        assertNull(index.get("http://www.foo.bar/wik"));
+
+        assertEquals("foo", getNearestValue(index, "http://www.foo.bar/a"));
+        assertEquals(
+            "wiki",
+            getNearestValue(index, "http://www.foo.bar/wiki"));
+        assertEquals(
+            "wiki",
+            getNearestValue(index, "http://www.foo.bar/wiki/France"));
+        assertEquals(
+            "foo",
+            getNearestValue(index, "http://www.foo.bar/wikipedia"));
+        assertEquals("bar", getNearestValue(index, "http://www.bar.foo"));
+        assertEquals("bar", getNearestValue(index, "http://www.bar.foo/a"));
+        assertNull(getNearestValue(index, "http://www.bar.foo.org/a"));
+        assertEquals("data", getNearestValue(index, "file:///data/a.txt"));
+        assertNull(getNearestValue(index, "file:///tmp/a.txt"));
+
+        // Prefixes without a complete authority
+        assertNull(getNearestValue(index, "http://www.unknown.org/"));
+        index.put("http://", "any");
+        assertEquals("any", getNearestValue(index, "http://www.unknown.org/"));
+        assertEquals("foo", getNearestValue(index, "http://www.foo.bar/"));
+        assertEquals(
+            "{http://=any, file:///data/=data, http://www.bar.foo=bar, "
+                + "http://www.foo.bar/=foo, http://www.foo.bar/wiki=wiki}",
+            index.toString());
+    }
+
+    public void testSameAsTrie() throws Exception {
+        HostPartitionedIndex<String> index;
+        index = new HostPartitionedIndex<String>();
+        UrlPrefixTrie<String> trie = new UrlPrefixTrie<String>();
+        Random random = new Random(17);
+        String[] paths = { "", "/", "/a", "/a/", "/a/b", "/b/c/" };
+        for (int i = 0; i < 5000; i++) {
+            String prefix = "http://h"
+                + random.nextInt(2000)
+                + ".org"
+                + paths[random.nextInt(paths.length)];
+            assertEquals(trie.put(prefix, prefix), index.put(prefix, prefix));
+        }
+        assertEquals(trie.size(), index.size());
+        String[] suffixes = { "", "/", "/a", "/a/x", "/ab", "/b/c/d", "?q" };
+        for (int i = 0; i < 20000; i++) {
+            String key = "http://h"
+                + random.nextInt(2500)
+                + ".org"
+                + suffixes[random.nextInt(suffixes.length)];
+            String control = trie.getNearestValue(key);
+            assertEquals(key, control, getNearestValue(index, key));
+        }
+    }
+
+}
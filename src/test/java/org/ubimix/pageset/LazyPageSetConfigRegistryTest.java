@@ -0,0 +1,135 @@
+package org.ubimix.pageset;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.commons.xml.XmlException;
+import org.ubimix.pageset.loaders.LazyPageSetConfigRegistry;
+
+public class LazyPageSetConfigRegistryTest extends TestCase {
+
+    private File fDirectory;
+
+    /**
+     * @param name
+     */
+    public LazyPageSetConfigRegistryTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        fDirectory = File.createTempFile("pagesets", "");
+        fDirectory.delete();
+        fDirectory.mkdirs();
+        writeConfig("wiki", "http://en.wikipedia.org/wiki/", "wiki");
+        writeConfig("travel", "http://wikitravel.org/en/", "travel");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : fDirectory.listFiles()) {
+            file.delete();
+        }
+        fDirectory.delete();
+        super.tearDown();
+    }
+
+    public void testEviction() throws Exception {
+        LazyPageSetConfigRegistry registry = new LazyPageSetConfigRegistry(
+            fDirectory).setMaxSize(1);
+        assertNull(registry.getPageSetConfig("unknown"));
+        assertNull(registry.getPageSetConfig("../wiki"));
+        assertEquals(0, registry.getLoadedCount());
+
+        PageSetConfig wiki = registry.getPageSetConfig("wiki");
+        assertNotNull(wiki);
+        Uri path = wiki.getUrlToPathMapper().uriToPath(
+            new Uri("http://en.wikipedia.org/wiki/France"));
+        assertEquals("wiki/France", path.toString());
+        assertSame(wiki, registry.getPageSetConfig("wiki"));
+
+        assertNotNull(registry.getPageSetConfig("travel"));
+        assertEquals(1, registry.getLoadedCount());
+        PageSetConfig newWiki = registry.getPageSetConfig("wiki");
+        assertNotNull(newWiki);
+        assertNotSame(wiki, newWiki);
+
+        registry.registerPageSetConfig("travel", wiki);
+        assertSame(wiki, registry.getPageSetConfig("travel"));
+
+        registry.setMaxSize(10).setMaxWeight(3);
+        registry.getPageSetConfig("wiki");
+        registry.unregisterPageSetConfig("travel");
+        registry.getPageSetConfig("travel");
+        assertEquals(1, registry.getLoadedCount());
+    }
+
+    public void testSingleFlight() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final LazyPageSetConfigRegistry registry = new LazyPageSetConfigRegistry(
+            fDirectory) {
+            @Override
+            protected PageSetConfig loadPageSetConfig(String key)
+                throws IOException,
+                XmlException {
+                loads.incrementAndGet();
+                return super.loadPageSetConfig(key);
+            }
+        };
+        final PageSetConfig[] results = new PageSetConfig[8];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int idx = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        results[idx] = registry.getPageSetConfig("wiki");
+                    } catch (InterruptedException e) {
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, loads.get());
+        for (PageSetConfig result : results) {
+            assertSame(results[0], result);
+        }
+    }
+
+    private void writeConfig(String key, String baseUrl, String path)
+        throws IOException {
+        String xml = ""
+            + "<pageset>\n"
+            + "    <site path=\""
+            + path
+            + "\" baseUrl=\""
+            + baseUrl
+            + "\" />\n"
+            + "</pageset>";
+        OutputStream out = new FileOutputStream(new File(
+            fDirectory,
+            key + ".xml"));
+        try {
+            out.write(xml.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+}
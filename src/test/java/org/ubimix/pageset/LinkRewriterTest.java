@@ -0,0 +1,185 @@
+package org.ubimix.pageset;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.uri.Uri;
+
+public class LinkRewriterTest extends TestCase {
+
+    /**
+     * @param name
+     */
+    public LinkRewriterTest(String name) {
+        super(name);
+    }
+
+    private LinkRewriter newRewriter() {
+        UrlToPathMapper.Builder builder = UrlToPathMapper.builder();
+        builder
+            .addBase("http://www.foo.bar/", "foo")
+            .addUriToPath("^(.*)\\.php$", "$1.html")
+            .addUriToPath("^(.*)$", "$1");
+        final UrlToPathMapper mapper = builder.build();
+        PageSetConfig config = PageSetConfig
+            .builder()
+            .setDownloadUrlTransformer(IUrlTransformer.EMPTY)
+            .setLocalizeUrlTransformer(new IUrlTransformer() {
+                public Uri transform(Uri uri) {
+                    String path = mapper.uriToPathString(uri.toString());
+                    return path != null ? new Uri("/" + path) : null;
+                }
+            })
+            .build();
+        return new LinkRewriter(config);
+    }
+
+    private String read(File file) throws Exception {
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[(int) file.length()];
+            int len = 0;
+            while (len < buf.length) {
+                len += input.read(buf, len, buf.length - len);
+            }
+            return new String(buf, "UTF-8");
+        } finally {
+            input.close();
+        }
+    }
+
+    private String rewriteCss(LinkRewriter rewriter, String css)
+        throws Exception {
+        StringWriter writer = new StringWriter();
+        rewriter.rewriteCss(
+            new Uri("http://www.foo.bar/css/main.css"),
+            new StringReader(css),
+            writer);
+        return writer.toString();
+    }
+
+    private String rewriteHtml(LinkRewriter rewriter, String html)
+        throws Exception {
+        StringWriter writer = new StringWriter();
+        rewriter.rewriteHtml(
+            new Uri("http://www.foo.bar/docs/index.php"),
+            new StringReader(html),
+            writer);
+        return writer.toString();
+    }
+
+    public void testCss() throws Exception {
+        LinkRewriter rewriter = newRewriter();
+        assertEquals(
+            "body { background: url(/foo/img/a.png) }",
+            rewriteCss(rewriter, "body { background: url(../img/a.png) }"));
+        assertEquals(
+            "@import \"/foo/css/b.css\"; a{b:URL('/foo/css/c.png')}",
+            rewriteCss(rewriter, "@import \"b.css\"; a{b:URL( 'c.png' )}"));
+        assertEquals(
+            "/* url(a.png) */ a{content:'url(b)'}",
+            rewriteCss(rewriter, "/* url(a.png) */ a{content:'url(b)'}"));
+        assertEquals(
+            "a{b:url(data:image/png;base64,AAA)} x{b:url(http://x.y/a)}",
+            rewriteCss(
+                rewriter,
+                "a{b:url(data:image/png;base64,AAA)} x{b:url(http://x.y/a)}"));
+        assertEquals("a{b:myurl(x)}", rewriteCss(rewriter, "a{b:myurl(x)}"));
+
+        // Escaped characters do not end strings and references
+        assertEquals(
+            "a{content:\"\\\"\";background:url(/foo/css/a.png)}",
+            rewriteCss(rewriter, "a{content:\"\\\"\";background:url(a.png)}"));
+        assertEquals(
+            "a{b:url('a\\'b.png')} c{d:url(/foo/css/c.png)}",
+            rewriteCss(rewriter, "a{b:url('a\\'b.png')} c{d:url(c.png)}"));
+        assertEquals(
+            "a{b:url(a\\).png)} c{d:url(/foo/css/c.png)}",
+            rewriteCss(rewriter, "a{b:url(a\\).png)} c{d:url(c.png)}"));
+        assertEquals(
+            "@import 'a\\'.css'; c{d:url(/foo/css/c.png)}",
+            rewriteCss(rewriter, "@import 'a\\'.css'; c{d:url(c.png)}"));
+    }
+
+    public void testDirectory() throws Exception {
+        File dir = File.createTempFile("links", "");
+        dir.delete();
+        File source = new File(dir, "source");
+        File target = new File(dir, "target");
+        new File(source, "sub").mkdirs();
+        write(new File(source, "index.html"), "<a href=\"sub/page.php\">x</a>");
+        write(new File(source, "sub/style.css"), "a{b:url(../a.png)}");
+        write(new File(source, "image.png"), "...");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            int count = newRewriter().rewriteDirectory(
+                source,
+                target,
+                new Uri("http://www.foo.bar/"),
+                executor);
+            assertEquals(2, count);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(
+            "<a href=\"/foo/sub/page.html\">x</a>",
+            read(new File(target, "index.html")));
+        assertEquals(
+            "a{b:url(/foo/a.png)}",
+            read(new File(target, "sub/style.css")));
+        assertFalse(new File(target, "image.png").exists());
+    }
+
+    public void testHtml() throws Exception {
+        LinkRewriter rewriter = newRewriter();
+        assertEquals(
+            "<a href=\"/foo/docs/page.html\" title='a > b'>page</a>",
+            rewriteHtml(rewriter, "<a href=page.php title='a > b'>page</a>"));
+        assertEquals(
+            "<img src='/foo/img/a.png' alt=\"\"/>",
+            rewriteHtml(rewriter, "<img src='../img/a.png' alt=\"\"/>"));
+        assertEquals(
+            "<a HREF=\"/foo/docs/a.php?x=1&amp;y=2\">",
+            rewriteHtml(rewriter, "<a HREF=\"a.php?x=1&amp;y=2\">"));
+        assertEquals(
+            "<a href=\"#top\"><a href=\"mailto:a@b.c\"><a href=\"http://x.y/\">",
+            rewriteHtml(
+                rewriter,
+                "<a href=\"#top\"><a href=\"mailto:a@b.c\"><a href=\"http://x.y/\">"));
+        assertEquals(
+            "<!-- <a href=\"a.php\"> --><!DOCTYPE html>1 < 2",
+            rewriteHtml(
+                rewriter,
+                "<!-- <a href=\"a.php\"> --><!DOCTYPE html>1 < 2"));
+        assertEquals(
+            "<div style=\"background:url(/foo/a.png)\">",
+            rewriteHtml(rewriter, "<div style=\"background:url(/a.png)\">"));
+        assertEquals(
+            "<style>a{b:url(/foo/docs/a.png)}</style><p>",
+            rewriteHtml(rewriter, "<style>a{b:url(a.png)}</style><p>"));
+        assertEquals(
+            "<script>var s = '<a href=\"a.php\">';</script><a href=\"/foo/docs/b.html\">",
+            rewriteHtml(
+                rewriter,
+                "<script>var s = '<a href=\"a.php\">';</script><a href=\"b.php\">"));
+    }
+
+    private void write(File file, String content) throws Exception {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package org.ubimix.pageset;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class MappedPathIndexTest extends TestCase {
+
+    private File fFile;
+
+    /**
+     * @param name
+     */
+    public MappedPathIndexTest(String name) {
+        super(name);
+    }
+
+    private UrlToPathMapper newMapper(String rule) {
+        UrlToPathMapper.Builder builder = UrlToPathMapper.builder();
+        builder
+            .addBase("http://en.wikipedia.org/wiki/", "wiki")
+            .addUriToPath("^(.*)$", rule)
+            .addPathToUri("^(.*)\\.html$", "$1");
+        return builder.build();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        fFile = File.createTempFile("index", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        fFile.delete();
+        new File(fFile.getPath() + ".lock").delete();
+    }
+
+    public void testIndex() throws Exception {
+        UrlToPathMapper mapper = newMapper("$1.html");
+        long hash = MappedPathIndex.getConfigHash(mapper);
+        assertFalse(hash == MappedPathIndex
+            .getConfigHash(newMapper("$1.htm")));
+
+        // Small chunks: entries and tables are spread over many chunks
+        MappedPathIndex index = new MappedPathIndex(fFile, hash, 1000, 12);
+        String base = "http://en.wikipedia.org/wiki/";
+        for (int i = 0; i < 1000; i++) {
+            String path = index.uriToPath(mapper, base + "Page" + i);
+            assertEquals(mapper.uriToPathString(base + "Page" + i), path);
+        }
+        assertEquals(1000, index.size());
+        assertFalse(index.put(base + "Page0", "wiki/Other.html"));
+        // The index is full
+        assertFalse(index.put(base + "Other", "wiki/Other.html"));
+        assertNull(index.getPath(base + "Other"));
+        index.close();
+
+        index = new MappedPathIndex(fFile, hash);
+        assertFalse(index.isStale());
+        assertEquals(1000, index.size());
+        for (int i = 0; i < 1000; i++) {
+            String url = base + "Page" + i;
+            String path = mapper.uriToPathString(url);
+            assertEquals(path, index.getPath(url));
+            assertEquals(url, index.getUrl(path));
+        }
+        assertNull(index.getPath(base + "Unknown"));
+        assertNull(index.getUrl("wiki/Unknown.html"));
+        try {
+            index.put(base + "Other", "wiki/Other.html");
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        index.close();
+
+        // Entries created by another configuration are ignored
+        index = new MappedPathIndex(fFile, hash + 1);
+        assertTrue(index.isStale());
+        assertEquals(0, index.size());
+        assertNull(index.getPath(base + "Page1"));
+        index.close();
+
+        // Readers opened before the index is re-created see the new index
+        MappedPathIndex oldReader = new MappedPathIndex(fFile, hash);
+        MappedPathIndex newReader = new MappedPathIndex(fFile, hash + 1);
+        assertEquals(base + "Page1", oldReader.getUrl("wiki/Page1.html"));
+        assertTrue(newReader.isStale());
+
+        index = new MappedPathIndex(fFile, hash + 1, 10, 12);
+        assertEquals(0, index.size());
+        assertNull(index.getPath(base + "Page1"));
+        assertTrue(index.put(base + "Page1", "wiki/Page1.htm"));
+        assertEquals("wiki/Page1.htm", index.getPath(base + "Page1"));
+
+        assertTrue(oldReader.isStale());
+        assertNull(oldReader.getPath(base + "Page1"));
+        assertFalse(newReader.isStale());
+        assertEquals(1, newReader.size());
+        assertEquals("wiki/Page1.htm", newReader.getPath(base + "Page1"));
+        oldReader.close();
+        newReader.close();
+
+        // Only one writer could use the index
+        try {
+            new MappedPathIndex(fFile, hash + 1, 10, 12);
+            fail();
+        } catch (IOException e) {
+        }
+        index.close();
+        index = new MappedPathIndex(fFile, hash + 1, 10, 12);
+        assertEquals(1, index.size());
+        index.close();
+    }
+
+    public void testInvalidFile() throws Exception {
+        try {
+            new MappedPathIndex(fFile, 0);
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package org.ubimix.pageset;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.pageset.MapperMetrics.OperationMetrics;
+import org.ubimix.pageset.MapperMetrics.SiteMetrics;
+
+public class MapperMetricsTest extends TestCase {
+
+    /**
+     * @param name
+     */
+    public MapperMetricsTest(String name) {
+        super(name);
+    }
+
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(5000);
+        assertEquals(100, histogram.getCount());
+        assertEquals(149, histogram.getMean());
+        assertEquals(127, histogram.getPercentile(50));
+        assertEquals(127, histogram.getPercentile(99));
+        assertEquals(8191, histogram.getPercentile(100));
+    }
+
+    public void testMetrics() throws Exception {
+        UrlToPathMapper mapper = new UrlToPathMapper();
+        mapper
+            .addBase("http://en.wikipedia.org/wiki/", "wiki")
+            .addUriToPath("^(.*)\\.php$", "$1.html")
+            .addUriToPath("^(.*)$", "$1.htm")
+            .addPathToUri("^(.*)\\.html$", "$1");
+        assertNull(mapper.getMetrics());
+        MapperMetrics metrics = new MapperMetrics(1);
+        mapper.setMetrics(metrics);
+
+        mapper.uriToPath(new Uri("http://en.wikipedia.org/wiki/France"));
+        mapper.uriToPath(new Uri("http://en.wikipedia.org/wiki/Paris"));
+        mapper.uriToPath(new Uri("http://en.wikipedia.org/wiki/Index.php"));
+        mapper.uriToPathString("http://www.foo.bar/");
+        mapper.pathToUri("wiki/France.htm");
+
+        OperationMetrics uriToPath = metrics.getUriToPathMetrics();
+        assertEquals(1, uriToPath.getMissCount());
+        assertEquals(4, uriToPath.getTotalLatency().getCount());
+        assertEquals(4, uriToPath.getLookupLatency().getCount());
+        SiteMetrics site = uriToPath
+            .getSiteMetrics("http://en.wikipedia.org/wiki/");
+        assertNotNull(site);
+        assertEquals(3, site.getHitCount());
+        assertEquals(0, site.getFallThroughCount());
+        assertEquals(1, site.getRuleCount(0));
+        assertEquals(2, site.getRuleCount(1));
+        assertEquals(0, site.getRuleCount(10));
+
+        // Counters are re-created when a site gets more rules
+        assertSame(site, uriToPath.newSiteMetrics(site.getPrefix(), 1));
+        SiteMetrics bigger = uriToPath.newSiteMetrics(site.getPrefix(), 3);
+        assertNotSame(site, bigger);
+        assertEquals(0, bigger.getHitCount());
+        bigger.onRule(2);
+        bigger.onRule(5);
+        assertEquals(2, bigger.getHitCount());
+        assertEquals(1, bigger.getRuleCount(2));
+        assertEquals(0, bigger.getRuleCount(5));
+        site = bigger;
+
+        OperationMetrics pathToUri = metrics.getPathToUriMetrics();
+        site = pathToUri.getSiteMetrics("wiki/");
+        assertNotNull(site);
+        assertEquals(0, site.getHitCount());
+        assertEquals(1, site.getFallThroughCount());
+
+        metrics.reset();
+        assertTrue(uriToPath.getSiteMetrics().isEmpty());
+        assertEquals(0, uriToPath.getTotalLatency().getCount());
+
+        mapper.setMetrics(null);
+        mapper.uriToPath(new Uri("http://en.wikipedia.org/wiki/France"));
+        assertTrue(uriToPath.getSiteMetrics().isEmpty());
+    }
+
+    public void testStripedCounter() {
+        StripedCounter counter = new StripedCounter(3);
+        counter.increment();
+        counter.add(10);
+        assertEquals(11, counter.get());
+        counter.reset();
+        assertEquals(0, counter.get());
+    }
+
+}
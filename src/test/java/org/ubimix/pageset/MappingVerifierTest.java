@@ -0,0 +1,78 @@
+package org.ubimix.pageset;
+
+import java.io.StringReader;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.ubimix.pageset.MappingVerifier.Report;
+import org.ubimix.pageset.MappingVerifier.Type;
+import org.ubimix.pageset.MappingVerifier.Violation;
+
+public class MappingVerifierTest extends TestCase {
+
+    /**
+     * @param name
+     */
+    public MappingVerifierTest(String name) {
+        super(name);
+    }
+
+    public void testVerify() throws Exception {
+        UrlToPathMapper.Builder builder = UrlToPathMapper.builder();
+        builder
+            .addBase("http://en.wikipedia.org/wiki/", "wikipedia")
+            .addUriToPath("^$", "index.html")
+            .addUriToPath("^Main$", "index.html")
+            .addUriToPath("^(.*)$", "$1.html")
+            .addPathToUri("^index\\.html$", "Main")
+            .addPathToUri("^(.+)\\.html$", "$1");
+        UrlToPathMapper mapper = builder.build();
+
+        StringBuilder corpus = new StringBuilder();
+        corpus.append("# Known URLs\n");
+        for (int i = 0; i < 100; i++) {
+            corpus.append("http://en.wikipedia.org/wiki/Page" + i + "\n");
+        }
+        corpus.append("\n");
+        corpus.append("http://en.wikipedia.org/wiki/Main\n");
+        corpus.append("http://en.wikipedia.org/wiki/Main\n");
+        corpus.append("http://en.wikipedia.org/wiki/\n");
+        corpus.append("http://www.foo.bar/\n");
+
+        MappingVerifier verifier = new MappingVerifier(mapper)
+            .setThreads(4)
+            .setBatchSize(7);
+        Report report = verifier.verify(new StringReader(corpus.toString()));
+        assertEquals(104, report.getCount());
+        assertEquals(1, report.getUnmappedCount());
+        assertEquals(1, report.getRoundTripCount());
+        assertEquals(0, report.getErrorCount());
+        assertEquals(3, report.getViolationCount());
+        // Only one of the colliding URLs is reported
+        assertEquals(1, report.getCollisionCount());
+
+        List<Violation> violations = report.getViolations();
+        assertEquals(3, violations.size());
+        for (Violation violation : violations) {
+            if (violation.getType() == Type.UNMAPPED) {
+                assertEquals("http://www.foo.bar/", violation.getUrl());
+                assertNull(violation.getPath());
+            } else if (violation.getType() == Type.ROUND_TRIP) {
+                assertEquals(
+                    "http://en.wikipedia.org/wiki/",
+                    violation.getUrl());
+                assertEquals(
+                    "http://en.wikipedia.org/wiki/Main",
+                    violation.getResult());
+            }
+        }
+
+        verifier.setCollisionDetection(false).setMaxViolations(1);
+        report = verifier.verify(new StringReader(corpus.toString()));
+        assertEquals(2, report.getViolationCount());
+        assertEquals(0, report.getCollisionCount());
+        assertEquals(1, report.getViolations().size());
+    }
+
+}
@@ -0,0 +1,49 @@
+package org.ubimix.pageset;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class PageSetConfigRegistryTest extends TestCase {
+
+    /**
+     * @param name
+     */
+    public PageSetConfigRegistryTest(String name) {
+        super(name);
+    }
+
+    public void testRegistry() {
+        PageSetConfigRegistry registry = new PageSetConfigRegistry();
+        PageSetConfig a = PageSetConfig.builder();
+        PageSetConfig b = PageSetConfig.builder();
+        PageSetConfig c = PageSetConfig.builder();
+        assertNull(registry.getPageSetConfig("a"));
+
+        registry.registerPageSetConfig("a", a);
+        assertSame(a, registry.getPageSetConfig("a"));
+
+        Map<String, PageSetConfig> snapshot = registry.getPageSetConfigs();
+        Map<String, PageSetConfig> configs = new HashMap<String, PageSetConfig>();
+        configs.put("b", b);
+        configs.put("c", c);
+        registry.registerPageSetConfigs(configs);
+        assertEquals(1, snapshot.size());
+        assertEquals(3, registry.getPageSetConfigs().size());
+
+        assertFalse(registry.replacePageSetConfig("a", b, c));
+        assertSame(a, registry.getPageSetConfig("a"));
+        assertTrue(registry.replacePageSetConfig("a", a, c));
+        assertSame(c, registry.getPageSetConfig("a"));
+        assertFalse(registry.replacePageSetConfig("a", null, b));
+        assertTrue(registry.replacePageSetConfig("d", null, b));
+        assertSame(b, registry.getPageSetConfig("d"));
+
+        assertSame(b, registry.unregisterPageSetConfig("b"));
+        assertNull(registry.unregisterPageSetConfig("b"));
+        assertNull(registry.getPageSetConfig("b"));
+        assertEquals(3, registry.getPageSetConfigs().size());
+    }
+
+}
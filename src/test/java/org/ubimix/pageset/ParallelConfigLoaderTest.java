@@ -0,0 +1,143 @@
+package org.ubimix.pageset;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.commons.xml.XmlWrapper;
+import org.ubimix.commons.xml.XmlWrapper.XmlContext;
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper;
+import org.ubimix.pageset.loaders.ParallelConfigLoader;
+import org.ubimix.pageset.loaders.StreamingXmlConfigLoader;
+import org.ubimix.pageset.loaders.XmlUrlToPathMapperLoader;
+
+public class ParallelConfigLoaderTest extends TestCase {
+
+    private List<File> fFiles = new ArrayList<File>();
+
+    /**
+     * @param name
+     */
+    public ParallelConfigLoaderTest(String name) {
+        super(name);
+    }
+
+    private void assertSameSites(
+        UrlToPathMapper first,
+        UrlToPathMapper second) {
+        List<SiteUrlMapper> firstSites = first.getSiteMappers();
+        List<SiteUrlMapper> secondSites = second.getSiteMappers();
+        assertEquals(firstSites.size(), secondSites.size());
+        for (int i = 0; i < firstSites.size(); i++) {
+            SiteUrlMapper a = firstSites.get(i);
+            SiteUrlMapper b = secondSites.get(i);
+            assertEquals(a.getUriPrefix(), b.getUriPrefix());
+            assertEquals(a.getPathPrefix(), b.getPathPrefix());
+            assertEquals(a.toString(), b.toString());
+        }
+    }
+
+    private String newConfig(int file, int siteCount) {
+        StringBuilder buf = new StringBuilder("<pageset>\n");
+        for (int i = 0; i < siteCount; i++) {
+            // The last file re-defines some sites of the first one
+            int site = file == 2 && i % 10 == 0 ? i : file * siteCount + i;
+            buf.append("<site path=\"site" + site + "-" + file + "\"");
+            buf.append(" baseUrl=\"http://www.site" + site + ".com/\">\n");
+            buf.append("<url2path from=\"^(.*)\\.php$\" to=\"$1.html\" />\n");
+            buf.append("<url2path from=\"^(.*)$\" to=\"$1-"
+                + i
+                + ".html\" />\n");
+            buf.append("<path2url from=\"^(.*)\\.html$\" to=\"$1\" />\n");
+            buf.append("</site>\n");
+        }
+        buf.append("</pageset>");
+        return buf.toString();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : fFiles) {
+            file.delete();
+        }
+    }
+
+    public void testFiles() throws Exception {
+        UrlToPathMapper sequential = new UrlToPathMapper();
+        StreamingXmlConfigLoader streamingLoader = new StreamingXmlConfigLoader();
+        for (int i = 0; i < 3; i++) {
+            File file = File.createTempFile("config", ".xml");
+            fFiles.add(file);
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(newConfig(i, 100).getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            Uri configUrl = new Uri(file.toURI().toString());
+            InputStream input = new FileInputStream(file);
+            try {
+                streamingLoader.configure(configUrl, input, sequential, null);
+            } finally {
+                input.close();
+            }
+        }
+        assertEquals(290, sequential.getSiteMappers().size());
+
+        UrlToPathMapper parallel = new UrlToPathMapper();
+        new ParallelConfigLoader().configure(fFiles, parallel);
+        assertSameSites(sequential, parallel);
+        assertEquals(
+            "site10-2/foo-10.html",
+            parallel.uriToPath("http://www.site10.com/foo").toString());
+
+        // Matchers of all rules are compiled by the loader and re-used by
+        // read-only snapshots
+        UrlToPathMapper.Builder builder = UrlToPathMapper.builder();
+        new ParallelConfigLoader().configure(fFiles, builder);
+        List<SiteUrlMapper> copies = builder.build().getSiteMappers();
+        List<SiteUrlMapper> sites = builder.getSiteMappers();
+        for (int i = 0; i < sites.size(); i++) {
+            SiteUrlMapper copy = copies.get(i);
+            SiteUrlMapper site = sites.get(i);
+            assertSame(
+                copy.getUriToPath().getRuleSetMatcher(),
+                site.getUriToPath().getRuleSetMatcher());
+            assertSame(
+                copy.getPathToUri().getRuleSetMatcher(),
+                site.getPathToUri().getRuleSetMatcher());
+        }
+    }
+
+    public void testXml() throws Exception {
+        String xml = newConfig(0, 50);
+        Uri configUrl = new Uri("http://www.foo.bar/config.xml");
+        XmlContext context = XmlContext.builder().build();
+        XmlWrapper wrapper = context.readXML(xml);
+        UrlToPathMapper sequential = new XmlUrlToPathMapperLoader().configure(
+            configUrl,
+            wrapper);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            UrlToPathMapper parallel = new UrlToPathMapper();
+            new ParallelConfigLoader(executor, 3).configure(
+                configUrl,
+                wrapper,
+                parallel);
+            assertSameSites(sequential, parallel);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
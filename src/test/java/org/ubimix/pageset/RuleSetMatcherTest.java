@@ -0,0 +1,268 @@
+/**
+ * 
+ */
+package org.ubimix.pageset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper.RegexpUrlTransformer.TransformationRule;
+
+/**
+ * @author kotelnikov
+ */
+public class RuleSetMatcherTest extends TestCase {
+
+    /**
+     * @param name
+     */
+    public RuleSetMatcherTest(String name) {
+        super(name);
+    }
+
+    private RuleSetMatcher newMatcher(String... rules) {
+        List<TransformationRule> list = new ArrayList<TransformationRule>();
+        for (int i = 0; i < rules.length; i += 2) {
+            list.add(new TransformationRule(rules[i], rules[i + 1]));
+        }
+        return new RuleSetMatcher(list);
+    }
+
+    public void testCombinable() throws Exception {
+        assertTrue(RuleSetMatcher.isCombinable("^(.*)\\.html$"));
+        assertTrue(RuleSetMatcher.isCombinable("^(?:a|b)(?=c)(?<!d)\\\\$"));
+        assertFalse(RuleSetMatcher.isCombinable("^(.*)/\\1$"));
+        assertFalse(RuleSetMatcher.isCombinable("^(?<name>.*)$"));
+        assertFalse(RuleSetMatcher.isCombinable("(?i)^abc$"));
+        assertFalse(RuleSetMatcher.isCombinable("^a\\Q.b"));
+        assertFalse(RuleSetMatcher.isCombinable("^\\Qa.b\\E$"));
+
+        // An unterminated quotation is valid in a separate expression
+        RuleSetMatcher matcher = newMatcher(
+            "^(.*)\\.html$",
+            "$1",
+            "^a\\Q.b",
+            "quoted",
+            "^(.*)$",
+            "$1.html");
+        assertEquals("x", matcher.process("x.html"));
+        assertEquals("quoted", matcher.process("a.b"));
+        assertEquals("ab.html", matcher.process("ab"));
+    }
+
+    public void testReplacementTemplate() throws Exception {
+        assertTrue(ReplacementTemplate.isAnchored("^(.*)\\.html$"));
+        assertTrue(ReplacementTemplate.isAnchored("^(a|b)[|$]$"));
+        assertFalse(ReplacementTemplate.isAnchored("(.*)"));
+        assertFalse(ReplacementTemplate.isAnchored("^a|b$"));
+        assertFalse(ReplacementTemplate.isAnchored("^a\\$"));
+        assertFalse(ReplacementTemplate.isAnchored("(?m)^a$"));
+
+        // Templates give the same results as Matcher#replaceAll
+        String[] rules = {
+            "(.*)",
+            "$1.html",
+            "^(.*)$",
+            "$1.html",
+            "^(a)?(b*)$",
+            "[$1|$2]",
+            "^(.)(.)(.)(.)(.)(.)(.)(.)(.)(.)(.*)$",
+            "$10-$11-$1\\$2\\\\",
+            "^([\\s\\S]*?)$",
+            "<$1>",
+            "^(.*)\\.php\\?id=(\\d+)$",
+            "$1/$2.html",
+            "^Main$",
+            "index.html" };
+        String[] inputs = {
+            "",
+            "b",
+            "abb",
+            "abcdefghijklm",
+            "abc\n",
+            "index.php?id=12",
+            "Main" };
+        for (int i = 0; i < rules.length; i += 2) {
+            TransformationRule rule = new TransformationRule(
+                rules[i],
+                rules[i + 1]);
+            Pattern regexp = Pattern.compile(rules[i]);
+            for (String input : inputs) {
+                Matcher matcher = regexp.matcher(input);
+                String control = matcher.matches() ? matcher
+                    .replaceAll(rules[i + 1]) : null;
+                assertEquals(rules[i] + " / " + input, control, rule
+                    .process(input));
+            }
+        }
+    }
+
+    public void testPrefilter() throws Exception {
+        LiteralPrefilter prefilter = LiteralPrefilter
+            .newPrefilter("^wiki/(.*)\\.php\\?id=(\\d+)$");
+        assertEquals("wiki/", prefilter.getPrefix());
+        assertEquals(".php?id=", prefilter.getInfix());
+        assertEquals("", prefilter.getSuffix());
+        assertTrue(prefilter.accepts("wiki/a.php?id=1"));
+        assertFalse(prefilter.accepts("wiki/a.php"));
+        assertFalse(prefilter.accepts("docs/a.php?id=1"));
+
+        prefilter = LiteralPrefilter.newPrefilter("(.*)\\.html?");
+        assertEquals("", prefilter.getPrefix());
+        assertEquals(".htm", prefilter.getInfix());
+        assertEquals("", prefilter.getSuffix());
+        prefilter = LiteralPrefilter.newPrefilter("^Main$");
+        assertTrue(prefilter.accepts("Main"));
+        assertFalse(prefilter.accepts("Main2"));
+
+        assertNull(LiteralPrefilter.newPrefilter("^(.*)$"));
+        assertNull(LiteralPrefilter.newPrefilter("^a.*|b$"));
+        assertNull(LiteralPrefilter.newPrefilter("(?i)^abc$"));
+        assertNull(LiteralPrefilter.newPrefilter("\\Qa.b\\E"));
+
+        // Prefilters never change results of rules
+        String[] patterns = {
+            "^$",
+            "^Main$",
+            "^wiki/(.*)$",
+            "(.*)\\.php\\?id=(\\d+)",
+            "^a+b$",
+            "^ab?c$",
+            "^a{2}b$",
+            "^[]x]y$",
+            "^\\x41\\u0042C$",
+            "^\\cAb$",
+            "^\\0101x$",
+            "^\\p{Lu}x\\$$",
+            "^(?:a|b)c(?=d).*$",
+            "^x\\bx$",
+            "^a\\.\\-b(c|d)e*$",
+            "^.{2,}end$" };
+        String[] inputs = {
+            "",
+            "Main",
+            "wiki/France",
+            "wiki/",
+            "index.php?id=12",
+            "index.php?id=",
+            "ab",
+            "aaab",
+            "ac",
+            "abc",
+            "aab",
+            "]y",
+            "xy",
+            "ABC",
+            "\u0001b",
+            "Ax",
+            "Ax$",
+            "acd",
+            "bcdd",
+            "x x",
+            "a.-bc",
+            "a.-bdee",
+            "xxend",
+            "end" };
+        for (String pattern : patterns) {
+            TransformationRule rule = new TransformationRule(pattern, "");
+            Pattern regexp = Pattern.compile(pattern);
+            for (String input : inputs) {
+                assertEquals(
+                    pattern + " / " + input,
+                    regexp.matcher(input).matches(),
+                    rule.matches(input));
+            }
+        }
+    }
+
+    public void testFirstMatchWins() throws Exception {
+        RuleSetMatcher matcher = newMatcher(
+            "^$",
+            "index.html",
+            "^Main$",
+            "index.html",
+            "^(a)(b)$",
+            "$2$1",
+            "^(.*)/\\1$",
+            "double-$1",
+            "^x(.*)$",
+            "X$1",
+            "^(.*)$",
+            "$1.html");
+        assertEquals(6, matcher.getRuleCount());
+        assertEquals(0, matcher.indexOf(""));
+        assertEquals(1, matcher.indexOf("Main"));
+        assertEquals(2, matcher.indexOf("ab"));
+        assertEquals(3, matcher.indexOf("xy/xy"));
+        assertEquals(4, matcher.indexOf("xy/z"));
+        assertEquals(5, matcher.indexOf("France"));
+
+        assertEquals("index.html", matcher.process(""));
+        assertEquals("ba", matcher.process("ab"));
+        assertEquals("double-xy", matcher.process("xy/xy"));
+        assertEquals("Xy/z", matcher.process("xy/z"));
+        assertEquals("France.html", matcher.process("France"));
+
+        matcher = newMatcher("^wiki/(.*)$", "$1", "^(.*)\\.php$", "$1");
+        assertEquals(-1, matcher.indexOf("foo/bar"));
+        assertNull(matcher.process("foo/bar"));
+        assertEquals("index", matcher.process("index.php"));
+    }
+
+    public void testSingleMatch() throws Exception {
+        RuleSetMatcher matcher = newMatcher(
+            "^(x)(y)$",
+            "$2$1",
+            "^wiki/(.*)$",
+            "$1",
+            "^(a)/(.*)\\.php$",
+            "$2-$1-$0",
+            "^(.*)/\\1$",
+            "double-$1");
+        final int[] count = new int[1];
+        final String value = "<a/index.php>";
+        CharSequence str = new CharSequence() {
+            public char charAt(int index) {
+                count[0]++;
+                return value.charAt(index);
+            }
+
+            public int length() {
+                return value.length();
+            }
+
+            public CharSequence subSequence(int start, int end) {
+                return value.subSequence(start, end);
+            }
+
+            @Override
+            public String toString() {
+                return value;
+            }
+        };
+        int begin = 1;
+        int end = value.length() - 1;
+        RuleSetMatcher.Match match = new RuleSetMatcher.Match();
+        assertEquals(2, matcher.indexOf(str, begin, end, match));
+        assertEquals(2, match.getRuleIndex());
+        // The result is built from groups of the match: only copied
+        // characters (17) and the last character of the string (checked for
+        // line terminators) are read from the sequence
+        count[0] = 0;
+        StringBuilder buf = new StringBuilder();
+        matcher.apply(match, str, begin, end, buf);
+        assertEquals("index-a-a/index.php", buf.toString());
+        assertEquals(18, count[0]);
+
+        // Rules evaluated individually
+        assertEquals(3, matcher.indexOf("b/b", 0, 3, match));
+        assertEquals("double-b", matcher.apply(match, "b/b"));
+        assertEquals(-1, matcher.indexOf("b/c", 0, 3, match));
+        assertEquals(-1, match.getRuleIndex());
+    }
+
+}
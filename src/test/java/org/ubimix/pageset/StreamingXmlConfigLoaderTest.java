@@ -0,0 +1,70 @@
+package org.ubimix.pageset;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.uri.Uri;
+import org.ubimix.pageset.loaders.StreamingXmlConfigLoader;
+
+public class StreamingXmlConfigLoaderTest extends TestCase {
+
+    private StreamingXmlConfigLoader fConfigLoader = new StreamingXmlConfigLoader();
+
+    /**
+     * @param name
+     */
+    public StreamingXmlConfigLoaderTest(String name) {
+        super(name);
+    }
+
+    public void testAttributesAndElements() throws Exception {
+        String xml = ""
+            + "<pageset>\n"
+            + "    <site path=\"\" baseUrl=\"http://en.wikipedia.org/wiki/\">\n"
+            + "        <url2path from=\"^(.*)$\" to=\"$1.html\" />\n"
+            + "        <path2url from=\"^(.*)\\.html$\" to=\"$1\" />\n"
+            + "        <url key=\"xsl\" value=\"../xsl/transform-wikipedia.xsl\" />\n"
+            + "    </site>\n"
+            + "    <sites>\n"
+            + "        <site>\n"
+            + "            <path2url><from>^(.*)\\.html$</from><to>$1</to></path2url>\n"
+            + "            <url2path>\n"
+            + "                <from>^(.*)$</from>\n"
+            + "                <to>$1.html</to>\n"
+            + "            </url2path>\n"
+            + "            <url><key>xsl</key><value>../xsl/travel.xsl</value></url>\n"
+            + "            <baseUrl>http://wikitravel.org/en/</baseUrl>\n"
+            + "            <path>travel</path>\n"
+            + "        </site>\n"
+            + "    </sites>\n"
+            + "</pageset>"
+            + "";
+        Uri configUrl = new Uri(
+            "http://www.foo.bar/siteconfigs/MySiteConfig.xml");
+        UrlToPathMapper mapper = new UrlToPathMapper();
+        UrlMapper urlMapper = new UrlMapper();
+        fConfigLoader.configure(
+            configUrl,
+            new StringReader(xml),
+            mapper,
+            urlMapper);
+
+        Uri url = new Uri("http://en.wikipedia.org/wiki/France");
+        Uri testPath = mapper.uriToPath(url);
+        assertEquals("France.html", testPath.toString());
+        assertEquals(url, mapper.pathToUri(testPath));
+        assertEquals(
+            configUrl.getResolved("../xsl/transform-wikipedia.xsl"),
+            urlMapper.getUrl("xsl", url));
+
+        url = new Uri("http://wikitravel.org/en/France");
+        testPath = mapper.uriToPath(url);
+        assertEquals("travel/France.html", testPath.toString());
+        assertEquals(url, mapper.pathToUri(testPath));
+        assertEquals(
+            configUrl.getResolved("../xsl/travel.xsl"),
+            urlMapper.getUrl("xsl", url));
+    }
+
+}
@@ -1,6 +1,11 @@
 package org.ubimix.pageset;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import junit.framework.TestCase;
 
@@ -21,6 +26,45 @@ public class UrlMapperTest extends TestCase {
         super(name);
     }
 
+    public void testGetUrls() {
+        Uri xsl = new Uri("http://www.foo.bar/xsl/wiki.xsl");
+        Uri template = new Uri("http://www.foo.bar/template.html");
+        Uri images = new Uri("http://www.foo.bar/xsl/images.xsl");
+        UrlMapper mapper = new UrlMapper();
+        mapper.setUrl("xsl", new Uri("http://en.wikipedia.org/wiki/"), xsl);
+        mapper.setUrl(
+            "template",
+            new Uri("http://en.wikipedia.org/"),
+            template);
+        mapper.setUrl(
+            "xsl",
+            new Uri("http://en.wikipedia.org/wiki/images/"),
+            images);
+        assertEquals(
+            new TreeSet<String>(Arrays.asList("template", "xsl")),
+            mapper.getTypes());
+
+        Uri page = new Uri("http://en.wikipedia.org/wiki/France");
+        Map<String, Uri> urls = mapper.getUrls(page);
+        assertEquals(2, urls.size());
+        assertEquals(xsl, urls.get("xsl"));
+        assertEquals(template, urls.get("template"));
+        assertEquals(xsl, mapper.getUrl("xsl", page));
+
+        page = new Uri("http://en.wikipedia.org/wiki/images/a.png");
+        Set<String> types = Collections.singleton("xsl");
+        urls = mapper.getUrls(types, page);
+        assertEquals(1, urls.size());
+        assertEquals(images, urls.get("xsl"));
+        assertEquals(images, mapper.getUrl("xsl", page));
+
+        page = new Uri("http://en.wikipedia.org/w/index.php");
+        assertEquals(template, mapper.getUrl("template", page));
+        assertNull(mapper.getUrl("xsl", page));
+        assertNull(mapper.getUrl("unknown", page));
+        assertTrue(mapper.getUrls(types, page).isEmpty());
+    }
+
     private IUrlMapper readConfig(String xml, Uri configUrl)
         throws XmlException,
         IOException {
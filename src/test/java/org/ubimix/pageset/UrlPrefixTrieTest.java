@@ -0,0 +1,90 @@
+/**
+ * 
+ */
+package org.ubimix.pageset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * @author kotelnikov
+ */
+public class UrlPrefixTrieTest extends TestCase {
+
+    /**
+     * @param name
+     */
+    public UrlPrefixTrieTest(String name) {
+        super(name);
+    }
+
+    public void testNearestValue() throws Exception {
+        UrlPrefixTrie<String> trie = new UrlPrefixTrie<String>();
+        trie.put("http://www.foo.bar", "foo");
+        trie.put("http://www.foo.bar/wiki", "wiki");
+        trie.put("http://www.foo.bar/wiki/images/", "images");
+        trie.put("http://www.foo.com/", "com");
+        assertEquals(4, trie.size());
+
+        assertEquals("foo", trie.getNearestValue("http://www.foo.bar"));
+        assertEquals("foo", trie.getNearestValue("http://www.foo.bar/"));
+        assertEquals("foo", trie.getNearestValue("http://www.foo.bar/x.html"));
+        assertEquals("wiki", trie.getNearestValue("http://www.foo.bar/wiki"));
+        assertEquals("wiki", trie.getNearestValue("http://www.foo.bar/wiki/A"));
+        assertEquals("foo", trie.getNearestValue("http://www.foo.bar/wikipedia"));
+        assertEquals(
+            "images",
+            trie.getNearestValue("http://www.foo.bar/wiki/images/a.png"));
+        assertEquals(
+            "wiki",
+            trie.getNearestValue("http://www.foo.bar/wiki/imagesA.png"));
+        assertEquals("com", trie.getNearestValue("http://www.foo.com/a/b"));
+        assertNull(trie.getNearestValue("http://www.foo.barz/"));
+        assertNull(trie.getNearestValue("http://www.foo.co"));
+        assertNull(trie.getNearestValue(""));
+
+        String str = "[http://www.foo.bar/wiki/A]";
+        assertEquals("wiki", trie.getNearestValue(str, 1, str.length() - 1));
+        assertEquals("foo", trie.getNearestValue(str, 1, 20));
+
+        List<String> list = new ArrayList<String>();
+        str = "http://www.foo.bar/wiki/images/a.png";
+        assertEquals(3, trie.getMatchingValues(str, 0, str.length(), list));
+        assertEquals(Arrays.asList("foo", "wiki", "images"), list);
+
+        trie.put("", "default");
+        assertEquals("default", trie.getNearestValue("http://www.foo.barz/"));
+        assertEquals("default", trie.getNearestValue(""));
+    }
+
+    public void testPutAndRemove() throws Exception {
+        UrlPrefixTrie<String> trie = new UrlPrefixTrie<String>();
+        assertTrue(trie.isEmpty());
+        assertNull(trie.put("wikipedia/", "a"));
+        assertNull(trie.put("wikipedia/images/", "b"));
+        assertNull(trie.put("wiki/", "c"));
+        assertEquals("c", trie.put("wiki/", "d"));
+        assertEquals(3, trie.size());
+        assertEquals("a", trie.get("wikipedia/"));
+        assertEquals("d", trie.get("wiki/"));
+        assertNull(trie.get("wiki"));
+        assertNull(trie.get("wikipedia/images"));
+
+        assertEquals("a", trie.remove("wikipedia/"));
+        assertNull(trie.remove("wikipedia/"));
+        assertEquals(2, trie.size());
+        assertNull(trie.getNearestValue("wikipedia/France.html"));
+        assertEquals("b", trie.getNearestValue("wikipedia/images/a.png"));
+        assertEquals("d", trie.getNearestValue("wiki/France.html"));
+        assertEquals("{wiki/=d, wikipedia/images/=b}", trie.toString());
+
+        assertEquals("d", trie.remove("wiki/"));
+        assertEquals("b", trie.remove("wikipedia/images/"));
+        assertTrue(trie.isEmpty());
+        assertNull(trie.getNearestValue("wikipedia/images/a.png"));
+    }
+
+}
@@ -26,6 +26,65 @@ public class UrlToPathMapperTest extends TestCase {
         super(name);
     }
 
+    public void testCache() throws Exception {
+        UrlToPathMapper transformer = new UrlToPathMapper();
+        transformer.setCacheSize(100);
+        SiteUrlMapper site = transformer.addBase(
+            "http://en.wikipedia.org/wiki/",
+            "wikipedia");
+        LruCache<String, Uri> cache = transformer.getUriToPathCache();
+        assertNotNull(cache);
+
+        testUriToPath(
+            transformer,
+            "http://en.wikipedia.org/wiki/France",
+            "wikipedia/France");
+        testUriToPath(
+            transformer,
+            "http://en.wikipedia.org/wiki/France",
+            "wikipedia/France");
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // Negative results are cached as well
+        assertNull(transformer.uriToPath("http://www.foo.bar/"));
+        assertNull(transformer.uriToPath("http://www.foo.bar/"));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.size());
+
+        // Caches are cleared when the configuration is changed
+        site.addUriToPath("^(.*)$", "$1.html");
+        assertEquals(0, cache.size());
+        testUriToPath(
+            transformer,
+            "http://en.wikipedia.org/wiki/France",
+            "wikipedia/France.html");
+        transformer.addBase("http://www.foo.bar/", "foo");
+        assertEquals(0, cache.size());
+        testUriToPath(
+            transformer,
+            "http://www.foo.bar/index.html",
+            "foo/index.html");
+
+        testPathToUri(
+            transformer,
+            "foo/index.html",
+            "http://www.foo.bar/index.html");
+        testPathToUri(
+            transformer,
+            "foo/index.html",
+            "http://www.foo.bar/index.html");
+        assertEquals(1, transformer.getPathToUriCache().getHitCount());
+
+        transformer.setCacheSize(0);
+        assertNull(transformer.getUriToPathCache());
+        assertNull(transformer.getPathToUriCache());
+        testUriToPath(
+            transformer,
+            "http://www.foo.bar/index.html",
+            "foo/index.html");
+    }
+
     private void testConvert(
         UrlToPathMapper transformer,
         String path,
@@ -214,6 +273,118 @@ public class UrlToPathMapperTest extends TestCase {
         assertEquals(control, test);
     }
 
+    public void testReadOnlySnapshot() throws Exception {
+        UrlToPathMapper.Builder builder = UrlToPathMapper.builder();
+        SiteUrlMapper site = builder
+            .addBase("http://en.wikipedia.org/wiki/", "/wikipedia")
+            .addUriToPath("^(.*)$", "$1.html");
+        UrlToPathMapper snapshot = builder.build();
+        assertTrue(snapshot.isReadOnly());
+        assertFalse(builder.isReadOnly());
+        testUriToPath(
+            snapshot,
+            "http://en.wikipedia.org/wiki/France",
+            "wikipedia/France.html");
+
+        try {
+            snapshot.addBase("http://www.foo.bar/", "foo");
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        // Changes of the builder are not visible in existing snapshots
+        site.addPathToUri("^(.+)\\.html$", "$1");
+        builder.addBase("http://www.foo.bar/", "foo");
+        assertNull(snapshot.uriToPath("http://www.foo.bar/index.html"));
+        testUriToPath(
+            snapshot,
+            "http://en.wikipedia.org/wiki/France",
+            "wikipedia/France.html");
+
+        UrlToPathMapperHolder holder = new UrlToPathMapperHolder(snapshot);
+        try {
+            holder.setMapper(builder);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        UrlToPathMapper newSnapshot = builder.build();
+        assertSame(snapshot, holder.setMapper(newSnapshot));
+        assertEquals(
+            new Uri("http://en.wikipedia.org/wiki/France"),
+            holder.pathToUri("wikipedia/France.html"));
+        assertEquals(
+            new Uri("http://en.wikipedia.org/wiki/France.html"),
+            snapshot.pathToUri("wikipedia/France.html"));
+        assertEquals(
+            new Uri("foo/index.html"),
+            holder.uriToPath("http://www.foo.bar/index.html"));
+        assertFalse(holder.compareAndSetMapper(snapshot, snapshot));
+        assertTrue(holder.compareAndSetMapper(newSnapshot, snapshot));
+        assertSame(snapshot, holder.getMapper());
+    }
+
+    public void testStringApi() throws Exception {
+        UrlToPathMapper transformer = new UrlToPathMapper();
+        transformer
+            .addBase("http://en.wikipedia.org/wiki/", "wiki")
+            .addUriToPath("^(.*)$", "$1.html")
+            .addPathToUri("^(.*)\\.html$", "$1");
+        transformer
+            .addBase("http://localhost:8080/", "abc")
+            .addUriToPath("^.*page=([^&]*).*$", "$1")
+            .addPathToUri("^(.*)$", "MyPage.jsp?page=$1&param=value");
+        String[] urls = {
+            "http://en.wikipedia.org/wiki/France",
+            "http://en.wikipedia.org/wiki/France#History",
+            "http://en.wikipedia.org/wiki/Caf%C3%A9",
+            "http://en.wikipedia.org/wiki//France",
+            "http://en.wikipedia.org/wiki/./France",
+            "http://en.wikipedia.org/wikipedia",
+            "http://localhost:8080/MyPage.jsp?x=Z&page=TOTO",
+            "http://www.foo.bar/" };
+        for (String url : urls) {
+            Uri control = transformer.uriToPath(new Uri(url));
+            String test = transformer.uriToPathString(url);
+            String str = control != null ? control.toString() : null;
+            assertEquals(url, str, test);
+        }
+        // URLs in a document buffer
+        StringBuilder buf = new StringBuilder();
+        for (String url : urls) {
+            String document = "<a href=\"" + url + "\">";
+            int begin = document.indexOf('"') + 1;
+            int end = document.lastIndexOf('"');
+            buf.setLength(0);
+            buf.append("path:");
+            boolean ok = transformer.uriToPath(document, begin, end, buf);
+            String test = ok ? buf.substring(5) : null;
+            assertEquals(url, transformer.uriToPathString(url), test);
+            if (!ok) {
+                assertEquals("path:", buf.toString());
+            }
+        }
+        String[] paths = {
+            "wiki/France.html",
+            "wiki/Caf%C3%A9.html",
+            "wiki//France.html",
+            "/wiki/France.html",
+            "abc/TOTO",
+            "unknown/path" };
+        for (String path : paths) {
+            Uri control = transformer.pathToUri(new Uri(path));
+            String test = transformer.pathToUriString(path);
+            String str = control != null ? control.toString() : null;
+            assertEquals(path, str, test);
+        }
+        assertTrue(UrlToPathMapper.isNormalized("http://www.foo.bar/a/b?c#d"));
+        assertTrue(UrlToPathMapper.isNormalized("a/b.html"));
+        assertFalse(UrlToPathMapper.isNormalized("HTTP://www.foo.bar/"));
+        assertFalse(UrlToPathMapper.isNormalized("http://WWW.foo.bar/"));
+        assertFalse(UrlToPathMapper.isNormalized("http://www.foo.bar"));
+        assertFalse(UrlToPathMapper.isNormalized("a/../b"));
+        assertFalse(UrlToPathMapper.isNormalized("a/b c"));
+        assertFalse(UrlToPathMapper.isNormalized("a/%e9"));
+    }
+
     private void testUriToPath(
         UrlToPathMapper transformer,
         String uri,
@@ -280,4 +451,85 @@ public class UrlToPathMapperTest extends TestCase {
         }
     }
 
+    public void testWildcardHosts() throws Exception {
+        UrlToPathMapper transformer = new UrlToPathMapper();
+        transformer
+            .addBase("http://*.blogspot.com/", "blogs/$1")
+            .addUriToPath("^(.*)\\.html$", "$1")
+            .addPathToUri("^(.*)$", "$1.html");
+        transformer.addBase("http://*.*.example.com/", "x/$2/$1");
+        transformer.addBase("http://www.blogspot.com/", "main");
+        transformer.addBase("http://*.blogspot.com:8080/", "test");
+
+        testConvert(
+            transformer,
+            "blogs/foo/2010/01/post",
+            "http://foo.blogspot.com/2010/01/post.html");
+        testConvert(
+            transformer,
+            "blogs/bar/about",
+            "http://bar.blogspot.com/about.html");
+        testConvert(transformer, "x/b/a/page", "http://a.b.example.com/page");
+        // Literal prefixes are preferred
+        testConvert(transformer, "main/index", "http://www.blogspot.com/index");
+        testUriToPath(transformer, "http://foo.blogspot.com:8080/a", "test/a");
+
+        assertNull(transformer.uriToPath("http://blogspot.com/a.html"));
+        assertNull(transformer.uriToPath("http://a.b.blogspot.com/a.html"));
+        assertNull(transformer.uriToPath("https://foo.blogspot.com/a.html"));
+        assertNull(transformer.uriToPath("http://b.example.com/page"));
+        // The path template does not reference all captured labels
+        assertNull(transformer.pathToUri("test/a"));
+
+        String[] urls = {
+            "http://foo.blogspot.com/2010/01/post.html",
+            "http://foo.blogspot.com/",
+            "http://a.b.example.com/page?q=1",
+            "http://foo.blogspot.org/",
+            "http://a.blogspot.com.org/" };
+        StringBuilder buf = new StringBuilder();
+        for (String url : urls) {
+            Uri control = transformer.uriToPath(new Uri(url));
+            String str = control != null ? control.toString() : null;
+            assertEquals(url, str, transformer.uriToPathString(url));
+            buf.setLength(0);
+            boolean ok = transformer.uriToPath(url, 0, url.length(), buf);
+            assertEquals(url, str, ok ? buf.toString() : null);
+        }
+        String[] paths = { "blogs/foo/a", "blogs/foo", "x/b/a/", "blogs" };
+        for (String path : paths) {
+            Uri control = transformer.pathToUri(new Uri(path));
+            String str = control != null ? control.toString() : null;
+            assertEquals(path, str, transformer.pathToUriString(path));
+        }
+
+        // Invalid wildcard sites do not change the mapper
+        int count = transformer.getSiteMappers().size();
+        try {
+            transformer.addBase("http://*.blogspot.com/", "x/$2");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals(count, transformer.getSiteMappers().size());
+        testConvert(
+            transformer,
+            "blogs/foo/about",
+            "http://foo.blogspot.com/about.html");
+
+        // Wildcard sites are copied to read-only snapshots
+        UrlToPathMapper.Builder builder = UrlToPathMapper.builder();
+        builder.addBase("http://*.blogspot.com/", "blogs/$1");
+        try {
+            builder.addBase("http://*.foo.com/", "x/$2");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        testConvert(
+            builder.build(),
+            "blogs/foo/about",
+            "http://foo.blogspot.com/about");
+    }
+
 }
@@ -0,0 +1,122 @@
+package org.ubimix.pageset;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.uri.Uri;
+
+public class UrlTransformerPipelineTest extends TestCase {
+
+    private static class Collector implements UrlTransformerPipeline.IListener {
+
+        private final List<String> fErrors = new ArrayList<String>();
+
+        private final List<String> fResults = new ArrayList<String>();
+
+        public void onError(Uri uri, Throwable error) {
+            fErrors.add(uri + "");
+        }
+
+        public void onResult(Uri uri, Uri result) {
+            fResults.add(result + "");
+        }
+
+    }
+
+    private ExecutorService fExecutor;
+
+    /**
+     * @param name
+     */
+    public UrlTransformerPipelineTest(String name) {
+        super(name);
+    }
+
+    private IUrlTransformer newTransformer() {
+        return new IUrlTransformer() {
+            public Uri transform(Uri uri) {
+                String str = uri.toString();
+                if (str.endsWith("/13")) {
+                    throw new IllegalArgumentException(str);
+                }
+                // Make later batches complete earlier
+                String suffix = str.substring(str.lastIndexOf('/') + 1);
+                if (Integer.parseInt(suffix) < 10) {
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return new Uri(str + ".html");
+            }
+        };
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        fExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        fExecutor.shutdownNow();
+        super.tearDown();
+    }
+
+    private Collector transform(boolean ordered) throws Exception {
+        Collector collector = new Collector();
+        UrlTransformerPipeline pipeline = new UrlTransformerPipeline(
+            newTransformer(),
+            fExecutor,
+            collector).setBatchSize(3).setMaxInFlight(2).setOrdered(ordered);
+        for (int i = 0; i < 100; i++) {
+            pipeline.submit(new Uri("http://www.foo.bar/" + i));
+            assertTrue(pipeline.getInFlightCount() <= 2);
+        }
+        pipeline.finish();
+        assertEquals(0, pipeline.getInFlightCount());
+        assertEquals(99, collector.fResults.size());
+        assertEquals(
+            Collections.singletonList("http://www.foo.bar/13"),
+            collector.fErrors);
+        try {
+            pipeline.setBatchSize(10);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        return collector;
+    }
+
+    public void testOrdered() throws Exception {
+        Collector collector = transform(true);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            if (i != 13) {
+                expected.add("http://www.foo.bar/" + i + ".html");
+            }
+        }
+        assertEquals(expected, collector.fResults);
+    }
+
+    public void testUnordered() throws Exception {
+        Collector collector = transform(false);
+        List<String> results = new ArrayList<String>(collector.fResults);
+        Collections.sort(results);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            if (i != 13) {
+                expected.add("http://www.foo.bar/" + i + ".html");
+            }
+        }
+        Collections.sort(expected);
+        assertEquals(expected, results);
+    }
+
+}
@@ -0,0 +1,117 @@
+package org.ubimix.pageset;
+
+import junit.framework.TestCase;
+
+public class WildcardSiteIndexTest extends TestCase {
+
+    /**
+     * @param name
+     */
+    public WildcardSiteIndexTest(String name) {
+        super(name);
+    }
+
+    private String find(WildcardSiteIndex<String> index, String url) {
+        int[] match = new int[WildcardSiteIndex.MATCH_SIZE];
+        String value = index.find(url, 0, url.length(), match);
+        return value != null ? value + ":" + url.substring(match[0]) : null;
+    }
+
+    private String findPath(WildcardSiteIndex<String> index, String path) {
+        int[] match = new int[WildcardSiteIndex.MATCH_SIZE];
+        String value = index.findPath(path, 0, path.length(), match);
+        return value != null ? value + ":" + path.substring(match[0]) : null;
+    }
+
+    public void testCaptures() throws Exception {
+        WildcardSiteIndex<String> index = new WildcardSiteIndex<String>();
+        index.put("http://*.*.foo.bar/", "x/$2-$1/", "x");
+        String url = "http://a.bc.foo.bar/page";
+        int[] match = new int[WildcardSiteIndex.MATCH_SIZE];
+        assertEquals("x", index.find(url, 0, url.length(), match));
+        StringBuilder buf = new StringBuilder();
+        WildcardSiteIndex.appendPath("x/$2-$1/", url, match, buf);
+        assertEquals("x/bc-a/", buf.toString());
+
+        String path = "x/bc-a/page";
+        assertEquals("x", index.findPath(path, 0, path.length(), match));
+        assertEquals("x/bc-a/".length(), match[0]);
+        buf.setLength(0);
+        WildcardSiteIndex.appendUrl("http://*.*.foo.bar/", path, match, buf);
+        assertEquals("http://a.bc.foo.bar/", buf.toString());
+    }
+
+    public void testIndex() throws Exception {
+        WildcardSiteIndex<String> index = new WildcardSiteIndex<String>();
+        assertTrue(index.isEmpty());
+        assertNull(index.put("http://*.blogspot.com/", "blogs/$1/", "blogs"));
+        assertNull(index.put("http://*.blogspot.com/feeds", "f/$1/", "feeds"));
+        assertNull(index.put("http://*.www.blogspot.com/", "w/$1/", "www"));
+        assertNull(index.put("http://*.com/", "com/$1/", "com"));
+        assertNull(index.put("http://*.*.com:8080/", "p/$1/$2/", "port"));
+        assertEquals("blogs", index.put(
+            "http://*.blogspot.com/",
+            "b/$1/",
+            "b"));
+        assertEquals(5, index.size());
+
+        assertEquals("b:a.html", find(index, "http://foo.blogspot.com/a.html"));
+        assertEquals("b:", find(index, "http://foo.blogspot.com/"));
+        assertEquals("feeds:", find(index, "http://foo.blogspot.com/feeds"));
+        assertEquals(
+            "feeds:/x",
+            find(index, "http://foo.blogspot.com/feeds/x"));
+        assertEquals("b:feedsx", find(index, "http://foo.blogspot.com/feedsx"));
+        assertEquals("www:a", find(index, "http://x.www.blogspot.com/a"));
+        assertEquals("com:a", find(index, "http://blogspot.com/a"));
+        assertEquals("port:a", find(index, "http://a.b.com:8080/a"));
+        assertNull(find(index, "http://a.b.blogspot.com/a"));
+        assertNull(find(index, "https://foo.blogspot.com/a"));
+        assertNull(find(index, "http://foo.blogspot.com:8081/a"));
+        assertNull(find(index, "http://foo.blogspot.org/a"));
+        assertNull(find(index, "foo.blogspot.com/a"));
+
+        assertEquals("b:a.html", findPath(index, "b/foo/a.html"));
+        assertEquals("b:", findPath(index, "b/foo"));
+        assertEquals("port:a", findPath(index, "p/a/b/a"));
+        assertNull(findPath(index, "b//a.html"));
+        assertNull(findPath(index, "b/foo.bar/a.html"));
+        assertNull(findPath(index, "c/foo/a.html"));
+
+        // Templates are re-indexed when patterns are replaced
+        index.put("http://*.blogspot.com/", "c/$1/", "c");
+        assertNull(findPath(index, "b/foo/a.html"));
+        assertEquals("c:a.html", findPath(index, "c/foo/a.html"));
+        index.put("http://*.example.com/", "$1-site/", "site");
+        assertEquals("site:a", findPath(index, "foo-site/a"));
+        assertEquals("c:a.html", findPath(index, "c/foo/a.html"));
+    }
+
+    public void testInvalidPatterns() throws Exception {
+        WildcardSiteIndex<String> index = new WildcardSiteIndex<String>();
+        String[] patterns = {
+            "http://www.foo.bar/",
+            "http://www.*.bar/",
+            "http://*.foo.*/",
+            "http://*..bar/",
+            "*.foo.bar/" };
+        for (String pattern : patterns) {
+            try {
+                index.put(pattern, "x", "x");
+                fail(pattern);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        try {
+            index.put("http://*.foo.bar/", "x/$2", "x");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertTrue(index.isEmpty());
+        assertTrue(WildcardSiteIndex.isWildcardPrefix("http://*.foo.bar/"));
+        assertFalse(WildcardSiteIndex.isWildcardPrefix("http://foo.bar/*"));
+    }
+
+}
@@ -0,0 +1,125 @@
+package org.ubimix.pageset;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+import org.ubimix.pageset.UrlToPathMapper.SiteUrlMapper;
+import org.ubimix.pageset.loaders.XmlConfigReloader;
+
+public class XmlConfigReloaderTest extends TestCase {
+
+    private File fFile;
+
+    /**
+     * @param name
+     */
+    public XmlConfigReloaderTest(String name) {
+        super(name);
+    }
+
+    private SiteUrlMapper getSite(UrlToPathMapper mapper, String prefix) {
+        for (SiteUrlMapper site : mapper.getSiteMappers()) {
+            if (site.getUriPrefix().equals(prefix)) {
+                return site;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        fFile = File.createTempFile("config", ".xml");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        fFile.delete();
+    }
+
+    public void testReload() throws Exception {
+        String wiki = ""
+            + "<site path=\"wiki\" baseUrl=\"http://en.wikipedia.org/wiki/\">"
+            + "<url2path from=\"^(.*)$\" to=\"$1.html\" />"
+            + "</site>";
+        String travel = ""
+            + "<site path=\"travel\" baseUrl=\"http://wikitravel.org/en/\">"
+            + "<url2path from=\"^(.*)$\" to=\"$1.html\" />"
+            + "</site>";
+        String travel2 = ""
+            + "<site path=\"travel\" baseUrl=\"http://wikitravel.org/en/\">"
+            + "<url2path from=\"^(.*)$\" to=\"$1.htm\" />"
+            + "</site>";
+        String docs = ""
+            + "<site path=\"docs\" baseUrl=\"http://www.foo.bar/docs/\">"
+            + "</site>";
+
+        UrlToPathMapperHolder holder = new UrlToPathMapperHolder();
+        XmlConfigReloader reloader = new XmlConfigReloader(fFile, holder);
+        write("<pageset>" + wiki + travel + docs + "</pageset>");
+        assertTrue(reloader.reload());
+        assertNull(reloader.getLastError());
+        assertEquals(3, reloader.getAddedCount());
+        assertFalse(reloader.reload());
+
+        UrlToPathMapper first = holder.getMapper();
+        assertEquals(3, first.getSiteMappers().size());
+        assertEquals(
+            "travel/Paris.html",
+            holder.uriToPath("http://wikitravel.org/en/Paris").toString());
+
+        write("<pageset>" + travel2 + wiki + "</pageset>");
+        assertTrue(reloader.reload());
+        assertEquals(0, reloader.getAddedCount());
+        assertEquals(1, reloader.getChangedCount());
+        assertEquals(1, reloader.getRemovedCount());
+
+        UrlToPathMapper second = holder.getMapper();
+        assertNotSame(first, second);
+        assertEquals(2, second.getSiteMappers().size());
+        // Unchanged sites are shared between mappers
+        SiteUrlMapper site = first.getSiteMappers().get(0);
+        assertSame(site, getSite(second, site.getUriPrefix()));
+        assertEquals(
+            "travel/Paris.htm",
+            holder.uriToPath("http://wikitravel.org/en/Paris").toString());
+        assertNull(holder.uriToPath("http://www.foo.bar/docs/index.html"));
+
+        // Edits keeping the size and the modification time are detected
+        long lastModified = fFile.lastModified();
+        long length = fFile.length();
+        String travel3 = travel2.replace(".htm", ".txt");
+        write("<pageset>" + travel3 + wiki + "</pageset>");
+        fFile.setLastModified(lastModified);
+        assertEquals(length, fFile.length());
+        assertTrue(reloader.reload());
+        assertEquals(1, reloader.getChangedCount());
+        assertEquals(
+            "travel/Paris.txt",
+            holder.uriToPath("http://wikitravel.org/en/Paris").toString());
+        assertFalse(reloader.reload());
+        second = holder.getMapper();
+
+        // Errors do not change the current mapper
+        write("<pageset><site>");
+        try {
+            reloader.reload();
+            fail();
+        } catch (Exception e) {
+            assertSame(e, reloader.getLastError());
+        }
+        assertSame(second, holder.getMapper());
+    }
+
+    private void write(String xml) throws Exception {
+        OutputStream out = new FileOutputStream(fFile);
+        try {
+            out.write(xml.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+}
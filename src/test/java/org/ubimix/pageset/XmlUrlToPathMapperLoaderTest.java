@@ -111,4 +111,24 @@ public class XmlUrlToPathMapperLoaderTest extends TestCase {
             "http://bar.foo.com:8080/JSPWiki/Wiki.jsp?page=Toto"), testUri);
     }
 
+    public void testWildcardSite() throws Exception {
+        Uri configUrl = new Uri(
+            "http://www.foo.bar/siteconfigs/MySiteConfig.xml");
+        String xml = ""
+            + "<pageset>\n"
+            + "     <site path=\"blogs/$1\""
+            + "             baseUrl=\"http://*.blogspot.com/\" >\n"
+            + "        <url2path from=\"^(.*)\\.html$\" to=\"$1\" />\n"
+            + "        <path2url from=\"^(.*)$\" to=\"$1.html\" />\n"
+            + "     </site>"
+            + "</pageset>"
+            + "";
+        UrlToPathMapper config = readConfig(xml, configUrl);
+        Uri uri = new Uri("http://foo.blogspot.com/2010/01/post.html");
+        Uri path = config.uriToPath(uri);
+        assertEquals(new Uri("blogs/foo/2010/01/post"), path);
+        assertEquals(uri, config.pathToUri(path));
+        assertNull(config.uriToPath("http://www.foo.bar/a.html"));
+    }
+
 }